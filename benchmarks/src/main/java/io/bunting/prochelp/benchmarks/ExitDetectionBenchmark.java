@@ -0,0 +1,90 @@
+package io.bunting.prochelp.benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import io.bunting.prochelp.EnhancedProcess;
+import io.bunting.prochelp.EnhancedProcessBuilder;
+import io.bunting.prochelp.Redirect;
+import io.bunting.prochelp.SpawnTemplate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * How quickly {@code waitFor()} notices that a child has exited. Each invocation starts {@code cat} outside the measurement, then measures
+ * closing its input and waiting for it, which is as close to "exit to waiter woken" as can be observed from the outside.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExitDetectionBenchmark
+{
+	private static final File DEV_NULL = new File("/dev/null");
+
+	@State(Scope.Thread)
+	public static class JdkChild
+	{
+		private final ProcessBuilder builder = new ProcessBuilder("cat").redirectOutput(DEV_NULL).redirectError(DEV_NULL);
+		private Process process;
+
+		@Setup(Level.Invocation)
+		public void start() throws Exception
+		{
+			process = builder.start();
+		}
+
+		@TearDown(Level.Invocation)
+		public void stop()
+		{
+			process.destroyForcibly();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class MoreprocChild
+	{
+		private final SpawnTemplate template = new EnhancedProcessBuilder("cat").redirectInput(Redirect.PIPE)
+		                                                                       .redirectOutput(DEV_NULL)
+		                                                                       .redirectError(DEV_NULL)
+		                                                                       .template();
+		private EnhancedProcess process;
+
+		@Setup(Level.Invocation)
+		public void start()
+		{
+			process = template.start();
+		}
+
+		@TearDown(Level.Invocation)
+		public void stop()
+		{
+			process.destroyForcibly();
+		}
+	}
+
+	@Benchmark
+	public int jdkProcessBuilder(final JdkChild child) throws Exception
+	{
+		child.process.getOutputStream().close();
+		return child.process.waitFor();
+	}
+
+	@Benchmark
+	public int moreproc(final MoreprocChild child) throws Exception
+	{
+		child.process.getOutputStream().close();
+		return child.process.waitFor();
+	}
+}
@@ -0,0 +1,98 @@
+package io.bunting.prochelp.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+
+import io.bunting.prochelp.EnhancedProcessBuilder;
+import io.bunting.prochelp.Redirect;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Writes {@link #megabytes} MiB of a child's stdout into a file, either with the child writing to the file itself or with the library
+ * splicing it from the pipe into an open channel.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FileRedirectBenchmark
+{
+	private static final File DEV_NULL = new File("/dev/null");
+
+	@Param({ "256" })
+	public int megabytes;
+
+	private String[] command;
+	private File file;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		command = new String[] { "head", "-c", megabytes + "M", "/dev/zero" };
+		file = File.createTempFile("moreproc-benchmark", ".out");
+	}
+
+	/**
+	 * Not every variant truncates the file when opening it, so they all start from an empty one.
+	 */
+	@Setup(Level.Invocation)
+	public void truncate() throws IOException
+	{
+		try (RandomAccessFile out = new RandomAccessFile(file, "rw"))
+		{
+			out.setLength(0);
+		}
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		file.delete();
+	}
+
+	@Benchmark
+	public int jdkProcessBuilder() throws Exception
+	{
+		return new ProcessBuilder(command).redirectInput(DEV_NULL).redirectOutput(file).redirectError(DEV_NULL).start().waitFor();
+	}
+
+	@Benchmark
+	public int moreprocFile() throws Exception
+	{
+		return new EnhancedProcessBuilder(command).redirectInput(Redirect.from(DEV_NULL))
+		                                          .redirectOutput(file)
+		                                          .redirectError(DEV_NULL)
+		                                          .create(process -> process.exitValue())
+		                                          .call();
+	}
+
+	@Benchmark
+	public int moreprocChannel() throws Exception
+	{
+		try (FileOutputStream out = new FileOutputStream(file))
+		{
+			return new EnhancedProcessBuilder(command).redirectInput(Redirect.from(DEV_NULL))
+			                                          .redirectOutput(Redirect.to(out.getChannel()))
+			                                          .redirectError(DEV_NULL)
+			                                          .create(process -> process.exitValue())
+			                                          .call();
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package io.bunting.prochelp.benchmarks;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import io.bunting.prochelp.EnhancedProcess;
+import io.bunting.prochelp.EnhancedProcessBuilder;
+import io.bunting.prochelp.Redirect;
+import io.bunting.prochelp.SpawnTemplate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reads {@link #megabytes} MiB of a child's stdout through the JVM, with the kernel's default pipe buffer of 64 KB next to pipes grown to
+ * {@link #pipeSize} bytes. A pipe size of 0 means the default. The JDK, which always uses the default, is measured for comparison.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PipeSizeBenchmark
+{
+	private static final File DEV_NULL = new File("/dev/null");
+
+	@Param({ "256" })
+	public int megabytes;
+
+	@Param({ "0", "262144", "1048576" })
+	public int pipeSize;
+
+	private String[] command;
+	private SpawnTemplate template;
+	private final byte[] buffer = new byte[1024 * 1024];
+
+	@Setup
+	public void setup()
+	{
+		command = new String[] { "head", "-c", megabytes + "M", "/dev/zero" };
+		template = new EnhancedProcessBuilder(command).redirectInput(Redirect.DISCARD)
+		                                              .redirectOutput(pipeSize == 0 ? Redirect.PIPE : Redirect.pipe(pipeSize))
+		                                              .redirectError(Redirect.DISCARD)
+		                                              .template();
+	}
+
+	@Benchmark
+	public long jdkProcessBuilder() throws Exception
+	{
+		final Process process = new ProcessBuilder(command).redirectInput(DEV_NULL).redirectError(DEV_NULL).start();
+		final long total = drain(process.getInputStream());
+		process.waitFor();
+		return total;
+	}
+
+	@Benchmark
+	public long moreproc() throws Exception
+	{
+		final EnhancedProcess process = template.start();
+		final long total = drain(process.getInputStream());
+		process.waitFor();
+		return total;
+	}
+
+	private long drain(final InputStream in) throws Exception
+	{
+		long total = 0;
+		int n;
+		while ((n = in.read(buffer)) >= 0)
+		{
+			total += n;
+		}
+		return total;
+	}
+}
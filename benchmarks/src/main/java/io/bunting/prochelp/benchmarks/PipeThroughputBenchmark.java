@@ -0,0 +1,113 @@
+package io.bunting.prochelp.benchmarks;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.bunting.prochelp.Chunk;
+import io.bunting.prochelp.ChunkConsumer;
+import io.bunting.prochelp.EnhancedProcess;
+import io.bunting.prochelp.EnhancedProcessBuilder;
+import io.bunting.prochelp.Redirect;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reads {@link #megabytes} MiB of a child's stdout through the JVM. Throughput in MB/s is {@code megabytes * 1000 / score}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PipeThroughputBenchmark
+{
+	private static final File DEV_NULL = new File("/dev/null");
+
+	@Param({ "256" })
+	public int megabytes;
+
+	private String[] command;
+	private final byte[] buffer = new byte[64 * 1024];
+
+	@Setup
+	public void setup()
+	{
+		command = new String[] { "head", "-c", megabytes + "M", "/dev/zero" };
+	}
+
+	@Benchmark
+	public long jdkProcessBuilder() throws Exception
+	{
+		final Process process = new ProcessBuilder(command).redirectInput(DEV_NULL).redirectError(DEV_NULL).start();
+		final long total = drain(process.getInputStream());
+		process.waitFor();
+		return total;
+	}
+
+	@Benchmark
+	public long moreprocStream() throws Exception
+	{
+		final EnhancedProcess process = new EnhancedProcessBuilder(command).redirectInput(Redirect.from(DEV_NULL))
+		                                                                   .redirectOutput(Redirect.PIPE)
+		                                                                   .redirectError(DEV_NULL)
+		                                                                   .template()
+		                                                                   .start();
+		final long total = drain(process.getInputStream());
+		process.waitFor();
+		return total;
+	}
+
+	@Benchmark
+	public long moreprocChunks() throws Exception
+	{
+		final AtomicLong total = new AtomicLong();
+		final CountDownLatch ended = new CountDownLatch(1);
+		final ChunkConsumer consumer = new ChunkConsumer()
+		{
+			@Override
+			public void onChunk(final Chunk chunk)
+			{
+				total.addAndGet(chunk.buffer().remaining());
+				chunk.release();
+			}
+
+			@Override
+			public void onEndOfStream()
+			{
+				ended.countDown();
+			}
+		};
+		new EnhancedProcessBuilder(command).redirectInput(Redirect.from(DEV_NULL))
+		                                   .redirectOutput(Redirect.to(consumer))
+		                                   .redirectError(DEV_NULL)
+		                                   .template()
+		                                   .start()
+		                                   .waitFor();
+		ended.await();
+		return total.get();
+	}
+
+	private long drain(final InputStream in) throws Exception
+	{
+		long total = 0;
+		int n;
+		while ((n = in.read(buffer)) >= 0)
+		{
+			total += n;
+		}
+		return total;
+	}
+}
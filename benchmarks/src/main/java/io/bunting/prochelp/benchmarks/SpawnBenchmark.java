@@ -0,0 +1,79 @@
+package io.bunting.prochelp.benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import io.bunting.prochelp.EnhancedProcessBuilder;
+import io.bunting.prochelp.Redirect;
+import io.bunting.prochelp.SpawnStrategy;
+import io.bunting.prochelp.SpawnTemplate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The full round trip of starting {@code /bin/true} with every stream on {@code /dev/null} and waiting for it to exit.
+ *
+ * Run with {@code -jvmArgsAppend "-Xms8g -Xmx8g -XX:+AlwaysPreTouch"} and friends to see how the heap size affects each spawn strategy.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SpawnBenchmark
+{
+	private static final String COMMAND = "/bin/true";
+	private static final File DEV_NULL = new File("/dev/null");
+
+	private ProcessBuilder jdk;
+	private EnhancedProcessBuilder builder;
+	private SpawnTemplate template;
+	private SpawnTemplate forkServer;
+
+	@Setup
+	public void setup()
+	{
+		jdk = new ProcessBuilder(COMMAND).redirectInput(DEV_NULL).redirectOutput(DEV_NULL).redirectError(DEV_NULL);
+		builder = devNull(new EnhancedProcessBuilder(COMMAND));
+		template = builder.template();
+		forkServer = devNull(new EnhancedProcessBuilder(COMMAND)).spawnStrategy(SpawnStrategy.forkServer()).template();
+	}
+
+	private static EnhancedProcessBuilder devNull(final EnhancedProcessBuilder builder)
+	{
+		return builder.redirectInput(Redirect.from(DEV_NULL)).redirectOutput(DEV_NULL).redirectError(DEV_NULL);
+	}
+
+	@Benchmark
+	public int jdkProcessBuilder() throws Exception
+	{
+		return jdk.start().waitFor();
+	}
+
+	@Benchmark
+	public int builder() throws Exception
+	{
+		return builder.create(process -> process.exitValue()).call();
+	}
+
+	@Benchmark
+	public int template() throws Exception
+	{
+		return template.start().waitFor();
+	}
+
+	@Benchmark
+	public int forkServer() throws Exception
+	{
+		return forkServer.start().waitFor();
+	}
+}
@@ -4,24 +4,50 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.function.Consumer;
-import java.util.function.Supplier;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
 
 import javax.annotation.Nonnull;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /**
- * A separation of the notion of a simple settable future. This is separated so that the lock wait/notify code is self-contained.
+ * A separation of the notion of a simple settable future. This is separated so that the waiting code is self-contained.
+ *
+ * There is no lock, in the same way as {@link java.util.concurrent.FutureTask}. A compare-and-set on the state decides which caller of
+ * {@link #doCompute()} computes the value. Waiting threads and {@link #whenComplete(BiConsumer) callbacks} are pushed onto a lock-free
+ * stack, which the computing thread takes over in one swap once the value is set. It then unparks the waiters and runs the callbacks itself.
  *
  * By default this future does not allow cancellation.
  */
 abstract class AbstractSettableFuture<V> implements Future<V>
 {
-	// any code that needs to write or *safely* read the "value" field MUST synchronize on this lock
-	// any code writing the value field MUST notify on this lock
-	// any code waiting for the value field to be written SHOULD wait on this lock
-	private final Object _lock = new Object();
-	private volatile V value = null;
-	private volatile Throwable failureCause = null;
+	private static final Logger logger = LoggerFactory.getLogger(AbstractSettableFuture.class);
+
+	private static final int NEW = 0;
+	private static final int COMPUTING = 1;
+	private static final int NORMAL = 2;
+	private static final int EXCEPTIONAL = 3;
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicIntegerFieldUpdater<AbstractSettableFuture> STATE =
+			AtomicIntegerFieldUpdater.newUpdater(AbstractSettableFuture.class, "state");
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<AbstractSettableFuture, Node> WAITERS =
+			AtomicReferenceFieldUpdater.newUpdater(AbstractSettableFuture.class, Node.class, "waiters");
+
+	/**
+	 * Caps the stack once the future is done, so nothing is pushed after the computing thread took it over.
+	 */
+	private static final Node DONE = new Node(null, null);
+
+	private volatile int state = NEW;
+	// the value or the failure; written before the state leaves COMPUTING, and only read after it has
+	private Object outcome;
+	private volatile Node waiters;
 
 	/**
 	 * Computes the value for this future in a safe way.
@@ -31,26 +57,29 @@ abstract class AbstractSettableFuture<V> implements Future<V>
 	 */
 	protected final void doCompute()
 	{
-		synchronized (_lock)
+		if (!STATE.compareAndSet(this, NEW, COMPUTING))
 		{
-			if (this.isDone())
-			{
-				throw new IllegalStateException("This process has already been executed. It may not be executed more than once.");
-			}
-			try
-			{
-				value = this.computeValue();
-				if (value == null)
-				{
-					throw new IllegalArgumentException("Future value computed as null. This indicates a programming error.");
-				}
-			}
-			catch (Throwable e)
+			throw new IllegalStateException("This process has already been executed. It may not be executed more than once.");
+		}
+		Object outcome;
+		int s;
+		try
+		{
+			final V value = this.computeValue();
+			if (value == null)
 			{
-				this.failureCause = e;
+				throw new IllegalArgumentException("Future value computed as null. This indicates a programming error.");
 			}
-			_lock.notifyAll();
+			outcome = value;
+			s = NORMAL;
 		}
+		catch (Throwable e)
+		{
+			outcome = e;
+			s = EXCEPTIONAL;
+		}
+		// outside the try, so a failing callback can not turn the value into a failure
+		this.finish(outcome, s);
 	}
 
 	/**
@@ -62,6 +91,18 @@ abstract class AbstractSettableFuture<V> implements Future<V>
 	@Nonnull
 	protected abstract V computeValue() throws Exception;
 
+	/**
+	 * Runs the action once this future is done, with either its value or the failure. The action runs on the thread that completes the future,
+	 * or right away on this thread if it is done already. Failures of the action are logged.
+	 */
+	final void whenComplete(final BiConsumer<? super V, ? super Throwable> action)
+	{
+		if (!this.push(new Node(null, action)))
+		{
+			this.run(action);
+		}
+	}
+
 	@Override
 	public boolean cancel(final boolean mayInterruptIfRunning)
 	{
@@ -77,51 +118,207 @@ abstract class AbstractSettableFuture<V> implements Future<V>
 	@Override
 	public boolean isDone()
 	{
-		return value != null || failureCause != null;
+		return state > COMPUTING;
 	}
 
 	@Override
 	public V get() throws InterruptedException, ExecutionException
 	{
-		return this.doGet(Object::wait, () -> new IllegalStateException("Future not fulfilled for unknown reason. This should not be possible."));
+		final int s = this.awaitDone(false, 0L);
+		if (s <= COMPUTING)
+		{
+			throw new IllegalStateException("Future not fulfilled for unknown reason. This should not be possible.");
+		}
+		return this.report(s);
 	}
 
 	@Override
 	public V get(final long timeout, @Nonnull final TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException
 	{
-		return this.doGet(lock -> unit.timedWait(lock, timeout),
-		                  () -> new TimeoutException("Future not fulfilled within " + timeout + " " + unit.name()));
+		final int s = this.awaitDone(true, unit.toNanos(timeout));
+		if (s <= COMPUTING)
+		{
+			throw new TimeoutException("Future not fulfilled within " + timeout + " " + unit.name());
+		}
+		return this.report(s);
 	}
 
-	private <R extends Exception> V doGet(Waiter waiter, Supplier<R> unfulfilledExceptionSupplier) throws ExecutionException, InterruptedException, R
+	@SuppressWarnings("unchecked")
+	private V report(final int s) throws ExecutionException
 	{
-		if (!this.isDone())
+		if (s == NORMAL)
 		{
-			synchronized (_lock)
+			return (V) outcome;
+		}
+		throw new ExecutionException((Throwable) outcome);
+	}
+
+	private void finish(final Object outcome, final int s)
+	{
+		this.outcome = outcome;
+		state = s;
+		// waiters that give up may still be unlinking themselves, so the nodes are only walked, never relinked
+		for (Node node = WAITERS.getAndSet(this, DONE); node != null; node = node.next)
+		{
+			final Thread thread = node.thread;
+			if (thread != null)
 			{
-				if (!this.isDone())
-				{
-					waiter.doWait(_lock);
-				}
+				LockSupport.unpark(thread);
+			}
+			else if (node.action != null)
+			{
+				this.run(node.action);
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void run(final BiConsumer<?, ? super Throwable> action)
+	{
+		try
+		{
+			if (state == NORMAL)
+			{
+				((BiConsumer<Object, Throwable>) action).accept(outcome, null);
+			}
+			else
+			{
+				action.accept(null, (Throwable) outcome);
+			}
+		}
+		catch (Throwable e)
+		{
+			// the waiters and callbacks after this one are released regardless
+			logger.warn("Completion callback failed.", e);
+		}
+	}
+
+	/**
+	 * @return false if the future is done, and the node was not pushed
+	 */
+	private boolean push(final Node node)
+	{
+		while (true)
+		{
+			final Node head = waiters;
+			if (head == DONE)
+			{
+				return false;
+			}
+			node.next = head;
+			if (WAITERS.compareAndSet(this, head, node))
+			{
+				return true;
 			}
 		}
-		if (this.value != null)
+	}
+
+	/**
+	 * @return the state once the future is done, or once the time is up
+	 */
+	private int awaitDone(final boolean timed, long nanos) throws InterruptedException
+	{
+		final long deadline = timed ? System.nanoTime() + nanos : 0L;
+		Node node = null;
+		boolean queued = false;
+		while (true)
 		{
-			return this.value;
+			final int s = state;
+			if (s > COMPUTING)
+			{
+				return s;
+			}
+			if (Thread.interrupted())
+			{
+				this.removeWaiter(node);
+				throw new InterruptedException();
+			}
+			if (node == null)
+			{
+				if (timed && nanos <= 0L)
+				{
+					return s;
+				}
+				node = new Node(Thread.currentThread(), null);
+			}
+			else if (!queued)
+			{
+				// if the push fails the future is done, which the next round notices
+				queued = this.push(node);
+			}
+			else if (timed)
+			{
+				nanos = deadline - System.nanoTime();
+				if (nanos <= 0L)
+				{
+					this.removeWaiter(node);
+					return state;
+				}
+				LockSupport.parkNanos(this, nanos);
+			}
+			else
+			{
+				LockSupport.park(this);
+			}
 		}
-		else if (this.failureCause != null)
+	}
+
+	/**
+	 * Unlinks a waiter that gave up, along with any others that did, so timed out waits do not pile up on a future that takes long.
+	 */
+	private void removeWaiter(final Node node)
+	{
+		if (node == null)
 		{
-			throw new ExecutionException(this.failureCause);
+			return;
 		}
-		else
+		node.thread = null;
+		retry:
+		while (true)
 		{
-			throw unfulfilledExceptionSupplier.get();
+			Node pred = null;
+			for (Node q = waiters; q != null && q != DONE; q = q.next)
+			{
+				if (!q.isAbandoned())
+				{
+					pred = q;
+				}
+				else if (pred != null)
+				{
+					pred.next = q.next;
+					if (pred.isAbandoned())
+					{
+						// the predecessor gave up meanwhile, start over
+						continue retry;
+					}
+				}
+				else if (!WAITERS.compareAndSet(this, q, q.next))
+				{
+					continue retry;
+				}
+			}
+			return;
 		}
 	}
 
-	@FunctionalInterface
-	private interface Waiter
+	/**
+	 * An entry of the stack: either a parked thread or a callback.
+	 */
+	private static final class Node
 	{
-		void doWait(Object lock) throws InterruptedException;
+		private volatile Thread thread;
+		private final BiConsumer<?, ? super Throwable> action;
+		private volatile Node next;
+
+		private Node(final Thread thread, final BiConsumer<?, ? super Throwable> action)
+		{
+			this.thread = thread;
+			this.action = action;
+		}
+
+		private boolean isAbandoned()
+		{
+			return thread == null && action == null;
+		}
 	}
 }
@@ -0,0 +1,56 @@
+package io.bunting.prochelp;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A bounded pool of equally sized direct buffers, wrapped in {@link Chunk}s. When the pool runs dry a new chunk is allocated, and chunks
+ * released into a full pool are dropped, so the pool never blocks and never holds more than its capacity.
+ */
+final class BufferPool
+{
+	static final int DEFAULT_BUFFER_SIZE = Integer.getInteger("io.bunting.prochelp.bufferSize", 64 * 1024);
+	static final int DEFAULT_CAPACITY = Integer.getInteger("io.bunting.prochelp.bufferPoolCapacity", 256);
+
+	private static final class SingletonHolder
+	{
+		private static final BufferPool INSTANCE = new BufferPool(DEFAULT_BUFFER_SIZE, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @return the pool shared by all handlers of this library
+	 */
+	static BufferPool shared()
+	{
+		return SingletonHolder.INSTANCE;
+	}
+
+	private final int bufferSize;
+	private final ArrayBlockingQueue<Chunk> free;
+
+	BufferPool(final int bufferSize, final int capacity)
+	{
+		this.bufferSize = bufferSize;
+		this.free = new ArrayBlockingQueue<>(capacity);
+	}
+
+	int bufferSize()
+	{
+		return bufferSize;
+	}
+
+	Chunk acquire()
+	{
+		Chunk chunk = free.poll();
+		if (chunk == null)
+		{
+			chunk = new Chunk(ByteBuffer.allocateDirect(bufferSize), this);
+		}
+		return chunk.acquired();
+	}
+
+	void release(final Chunk chunk)
+	{
+		free.offer(chunk);
+	}
+}
@@ -0,0 +1,27 @@
+package io.bunting.prochelp;
+
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nullable;
+
+/**
+ * A handler that keeps a child's output itself, for {@link EnhancedProcess} to hand out once the child has exited.
+ */
+interface Capture
+{
+	/**
+	 * Called once the child has exited and the library is done with its streams.
+	 */
+	void finish();
+
+	/**
+	 * Releases what was set up for a child that never started.
+	 */
+	void release();
+
+	/**
+	 * @return the kept output, or null if it is not available
+	 */
+	@Nullable
+	ByteBuffer buffer();
+}
@@ -0,0 +1,134 @@
+package io.bunting.prochelp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import jnr.posix.POSIX;
+import jnr.posix.SpawnFileAction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Captures a child's output in an anonymous {@code memfd_create(2)} file, or an unlinked temporary file where there is none, that the
+ * child writes to directly. There is no pipe, and nothing to drain while the child runs. Once the child has exited the output is mapped
+ * read-only, so it is never copied onto the heap.
+ *
+ * The child's descriptor and ours share one open file description, so its offset tells how much the child wrote. With a cap the memfd is
+ * sized and sealed up front, so writes that go well beyond the cap fail in the child rather than taking up memory. Without one, only the first
+ * {@link #MAX_BYTES} bytes are mapped.
+ */
+class CapturePipeHandler implements PipeHandler, Capture
+{
+	private static final Logger logger = LoggerFactory.getLogger(CapturePipeHandler.class);
+
+	private static final byte[] NAME = "moreproc-capture\0".getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * The most output that can be mapped into a single buffer, and the cap of captures that have none.
+	 */
+	static final long MAX_BYTES = Integer.MAX_VALUE;
+
+	private static final long SEAL_ALIGNMENT = 64 * 1024;
+
+	private final long maxBytes;
+	// guarded by this
+	private int fd = -1;
+	private long length = 0;
+	private ByteBuffer buffer;
+
+	/**
+	 * @param maxBytes the most output to keep, at most {@link #MAX_BYTES}
+	 */
+	CapturePipeHandler(final long maxBytes)
+	{
+		this.maxBytes = maxBytes;
+	}
+
+	@Override
+	public synchronized List<SpawnFileAction> init(final POSIX posix, final Stream stream)
+	{
+		if (stream.isParentWriteSide())
+		{
+			throw new IllegalArgumentException("Captures can only receive output, not provide input.");
+		}
+		try
+		{
+			fd = Native.anonymousFile(NAME, true);
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("Failed to create a file to capture the child's output in. " + e.getMessage(), e);
+		}
+		// the kernel fails writes a page at a time, so leave room for the page the cap falls into, whatever the page size
+		if (maxBytes < MAX_BYTES && !Native.sealSize(fd, (maxBytes + SEAL_ALIGNMENT - 1) & -SEAL_ALIGNMENT))
+		{
+			logger.debug("Could not seal the capture file, output beyond {} bytes is dropped after the fact.", maxBytes);
+		}
+		return Collections.singletonList(SpawnFileAction.dup(fd, stream.getNumber()));
+	}
+
+	@Override
+	public ByteChannel afterSpawn(final POSIX posix, final Stream stream)
+	{
+		return null;
+	}
+
+	@Override
+	public synchronized long transferred()
+	{
+		return fd < 0 ? length : Math.min(Math.max(Native.offset(fd), 0), maxBytes);
+	}
+
+	/**
+	 * Maps what the child wrote, and releases the file.
+	 */
+	@Override
+	public synchronized void finish()
+	{
+		if (fd < 0)
+		{
+			return;
+		}
+		length = this.transferred();
+		final String path = (Native.isLinux() ? "/proc/self/fd/" : "/dev/fd/") + fd;
+		try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ))
+		{
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length).asReadOnlyBuffer();
+		}
+		catch (IOException e)
+		{
+			logger.warn("Failed to map the captured output of {} bytes.", length, e);
+		}
+		finally
+		{
+			this.release();
+		}
+	}
+
+	@Override
+	public synchronized void release()
+	{
+		if (fd >= 0)
+		{
+			Native.libc().close(fd);
+			fd = -1;
+		}
+	}
+
+	@Nullable
+	@Override
+	public synchronized ByteBuffer buffer()
+	{
+		return buffer == null ? null : buffer.duplicate();
+	}
+}
@@ -0,0 +1,288 @@
+package io.bunting.prochelp;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import javax.annotation.Nullable;
+
+import jnr.constants.platform.Errno;
+
+/**
+ * The CPU affinity, nice value, scheduling policy, I/O priority and resource limits a child is started with.
+ *
+ * None of these can be passed to {@code posix_spawn}, so they are applied in two ways that both take effect before the child's program
+ * runs. The first four are attributes of the spawning thread that the child inherits, so children with such settings are spawned from a
+ * thread that has them; there is one such thread per distinct combination, and it goes away when idle. Threads can not raise their own
+ * priority back without privileges, which is why the spawning thread is never the caller's. Resource limits belong to the
+ * whole process and can not be borrowed like that, so children with limits are started through {@code /bin/sh}, which applies them with
+ * {@code ulimit} and then replaces itself with the child's program.
+ */
+final class ChildSettings
+{
+	private static final String SHELL = "/bin/sh";
+	private static final long SPAWNER_KEEP_ALIVE_SECONDS = 30;
+
+	private static final Map<String, ExecutorService> SPAWNERS = new ConcurrentHashMap<>();
+
+	@Nullable
+	private BitSet affinity;
+	@Nullable
+	private Integer nice;
+	@Nullable
+	private SchedulingPolicy schedulingPolicy;
+	@Nullable
+	private IoPriorityClass ioPriorityClass;
+	private int ioPriorityLevel;
+	private final Map<ResourceLimit, Long> limits = new EnumMap<>(ResourceLimit.class);
+
+	ChildSettings copy()
+	{
+		final ChildSettings copy = new ChildSettings();
+		copy.affinity = affinity == null ? null : (BitSet) affinity.clone();
+		copy.nice = nice;
+		copy.schedulingPolicy = schedulingPolicy;
+		copy.ioPriorityClass = ioPriorityClass;
+		copy.ioPriorityLevel = ioPriorityLevel;
+		copy.limits.putAll(limits);
+		return copy;
+	}
+
+	void setAffinity(final BitSet cpus)
+	{
+		if (cpus.isEmpty())
+		{
+			throw new IllegalArgumentException("The affinity must include at least one cpu.");
+		}
+		this.affinity = (BitSet) cpus.clone();
+	}
+
+	void setNice(final int nice)
+	{
+		if (nice < -20 || nice > 19)
+		{
+			throw new IllegalArgumentException("The nice value must be between -20 and 19.");
+		}
+		this.nice = nice;
+	}
+
+	void setSchedulingPolicy(final SchedulingPolicy schedulingPolicy)
+	{
+		this.schedulingPolicy = schedulingPolicy;
+	}
+
+	void setIoPriority(final IoPriorityClass ioPriorityClass, final int level)
+	{
+		if (level < 0 || level > 7)
+		{
+			throw new IllegalArgumentException("The I/O priority level must be between 0 and 7.");
+		}
+		this.ioPriorityClass = ioPriorityClass;
+		this.ioPriorityLevel = level;
+	}
+
+	void setLimit(final ResourceLimit limit, final long value)
+	{
+		if (value < 0)
+		{
+			throw new IllegalArgumentException("Resource limits must not be negative.");
+		}
+		limits.put(limit, value);
+	}
+
+	/**
+	 * @return the executable to spawn, which is the shell if there are resource limits to apply
+	 */
+	String executable(final String executable)
+	{
+		return limits.isEmpty() ? executable : SHELL;
+	}
+
+	/**
+	 * @return the arguments to spawn, which have the shell apply the resource limits and then execute the child's program if there are any
+	 */
+	List<String> arguments(final String executable, final List<String> arguments)
+	{
+		if (limits.isEmpty())
+		{
+			return arguments;
+		}
+		final StringBuilder script = new StringBuilder();
+		limits.forEach((limit, value) -> script.append("ulimit ").append(limit.ulimit(value)).append(" && "));
+		script.append("exec \"$@\"");
+
+		final List<String> wrapped = new ArrayList<>(arguments.size() + 4);
+		wrapped.add("sh");
+		wrapped.add("-c");
+		wrapped.add(script.toString());
+		wrapped.add("sh");
+		wrapped.add(executable);
+		wrapped.addAll(arguments.subList(1, arguments.size()));
+		return wrapped;
+	}
+
+	/**
+	 * Runs the spawn on a thread with these settings' thread attributes, or on the calling thread if there are none.
+	 */
+	long spawn(final LongSupplier spawn)
+	{
+		final String key = this.threadKey();
+		if (key.isEmpty())
+		{
+			return spawn.getAsLong();
+		}
+		final ExecutorService spawner = SPAWNERS.computeIfAbsent(key, ignored -> newSpawner());
+		final Future<Long> pid = spawner.submit(() -> {
+			// cheap enough to repeat, and a thread that failed to apply them once is not left half configured for the next spawn
+			this.applyToCurrentThread();
+			return spawn.getAsLong();
+		});
+		try
+		{
+			return pid.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while spawning.", e);
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof RuntimeException)
+			{
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException("Failed to spawn.", e.getCause());
+		}
+	}
+
+	private static ExecutorService newSpawner()
+	{
+		final ThreadPoolExecutor spawner = new ThreadPoolExecutor(1, 1, SPAWNER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+		                                                          new LinkedBlockingQueue<>(), ChildSettings::newSpawnerThread);
+		spawner.allowCoreThreadTimeOut(true);
+		return spawner;
+	}
+
+	private static Thread newSpawnerThread(final Runnable runnable)
+	{
+		final Thread thread = new Thread(runnable, "moreproc-spawner");
+		thread.setDaemon(true);
+		return thread;
+	}
+
+	/**
+	 * Gives the calling thread the thread attributes, so that the children it spawns inherit them.
+	 */
+	private void applyToCurrentThread()
+	{
+		if (affinity != null && !Native.setAffinity(affinity))
+		{
+			throw failure("set the cpu affinity to " + affinity);
+		}
+		if (schedulingPolicy != null && !Native.setSchedulingPolicy(schedulingPolicy.value))
+		{
+			throw failure("set the scheduling policy to " + schedulingPolicy);
+		}
+		// after the policy, which resets the nice value on some kernels
+		if (nice != null && !Native.setNice(nice))
+		{
+			throw failure("set the nice value to " + nice);
+		}
+		if (ioPriorityClass != null && !Native.setIoPriority(ioPriorityClass.value, ioPriorityLevel))
+		{
+			throw failure("set the I/O priority to " + ioPriorityClass + " " + ioPriorityLevel);
+		}
+	}
+
+	private static RuntimeException failure(final String what)
+	{
+		return new RuntimeException("Failed to " + what + " for the child. " + Errno.valueOf(Native.errno()).description());
+	}
+
+	/**
+	 * @return a string that is the same for settings with the same thread attributes, and empty if there are none
+	 */
+	private String threadKey()
+	{
+		final StringBuilder key = new StringBuilder();
+		if (affinity != null)
+		{
+			key.append("affinity=").append(affinity).append(';');
+		}
+		if (nice != null)
+		{
+			key.append("nice=").append(nice).append(';');
+		}
+		if (schedulingPolicy != null)
+		{
+			key.append("policy=").append(schedulingPolicy).append(';');
+		}
+		if (ioPriorityClass != null)
+		{
+			key.append("io=").append(ioPriorityClass).append(ioPriorityLevel).append(';');
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Writes the thread attributes for the {@link ForkServer}. The resource limits are already part of the arguments.
+	 */
+	void writeThreadAttributes(final DataOutputStream out) throws IOException
+	{
+		final long[] cpus = affinity == null ? new long[0] : affinity.toLongArray();
+		out.writeInt(cpus.length);
+		for (long word : cpus)
+		{
+			out.writeLong(word);
+		}
+		out.writeInt(nice == null ? Integer.MIN_VALUE : nice);
+		out.writeInt(schedulingPolicy == null ? -1 : schedulingPolicy.ordinal());
+		out.writeInt(ioPriorityClass == null ? -1 : ioPriorityClass.ordinal());
+		out.writeInt(ioPriorityLevel);
+	}
+
+	static ChildSettings readThreadAttributes(final DataInputStream in) throws IOException
+	{
+		final ChildSettings settings = new ChildSettings();
+		final long[] cpus = new long[in.readInt()];
+		for (int i = 0; i < cpus.length; i++)
+		{
+			cpus[i] = in.readLong();
+		}
+		if (cpus.length > 0)
+		{
+			settings.affinity = BitSet.valueOf(cpus);
+		}
+		final int nice = in.readInt();
+		if (nice != Integer.MIN_VALUE)
+		{
+			settings.nice = nice;
+		}
+		final int policy = in.readInt();
+		if (policy >= 0)
+		{
+			settings.schedulingPolicy = SchedulingPolicy.values()[policy];
+		}
+		final int ioClass = in.readInt();
+		if (ioClass >= 0)
+		{
+			settings.ioPriorityClass = IoPriorityClass.values()[ioClass];
+		}
+		settings.ioPriorityLevel = in.readInt();
+		return settings;
+	}
+}
@@ -0,0 +1,50 @@
+package io.bunting.prochelp;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A slice of a child's output, held in a pooled direct {@link ByteBuffer} that was filled straight from the pipe.
+ *
+ * The chunk belongs to the consumer it was handed to until {@link #release()} is called; after that its buffer may be reused for other output
+ * at any time and must no longer be touched. Chunks that are never released are simply garbage collected.
+ */
+public final class Chunk
+{
+	private final ByteBuffer buffer;
+	private final BufferPool pool;
+	// consumers may release from any thread, so only the one that flips it hands the buffer back
+	private final AtomicBoolean released = new AtomicBoolean(true);
+
+	Chunk(final ByteBuffer buffer, final BufferPool pool)
+	{
+		this.buffer = buffer;
+		this.pool = pool;
+	}
+
+	/**
+	 * @return the buffer holding this chunk's data between its position and limit
+	 */
+	public ByteBuffer buffer()
+	{
+		return buffer;
+	}
+
+	/**
+	 * Hands the buffer back to the pool. Calling this more than once has no effect.
+	 */
+	public void release()
+	{
+		if (released.compareAndSet(false, true))
+		{
+			pool.release(this);
+		}
+	}
+
+	Chunk acquired()
+	{
+		released.set(false);
+		buffer.clear();
+		return this;
+	}
+}
@@ -0,0 +1,21 @@
+package io.bunting.prochelp;
+
+/**
+ * Receives a child's output as it arrives, one {@link Chunk} at a time.
+ *
+ * Callbacks are made from one of the library's shared I/O threads. They must return quickly and must not block; a slow consumer delays the
+ * output of every other child served by the same thread. Each chunk must eventually be {@link Chunk#release() released}, either inside the
+ * callback or later from any thread.
+ */
+@FunctionalInterface
+public interface ChunkConsumer
+{
+	void onChunk(Chunk chunk);
+
+	/**
+	 * Called once after the last chunk, when the child has closed its side of the stream.
+	 */
+	default void onEndOfStream()
+	{
+	}
+}
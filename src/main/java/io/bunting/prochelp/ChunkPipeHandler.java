@@ -0,0 +1,136 @@
+package io.bunting.prochelp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SelectionKey;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+import jnr.enxio.channels.NativeDeviceChannel;
+import jnr.posix.POSIX;
+import jnr.posix.SpawnFileAction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drains a child's output on the shared {@link EventLoop}, reading it straight into pooled direct buffers that are handed to a
+ * {@link ChunkConsumer}. The process itself then exposes an empty stream for it.
+ */
+class ChunkPipeHandler extends DefaultPipeHandler
+{
+	private static final Logger logger = LoggerFactory.getLogger(ChunkPipeHandler.class);
+
+	// bounds the work done per readiness notification so one busy child can not starve the others on the same loop
+	private static final int MAX_READS_PER_WAKEUP = 16;
+
+	private final ChunkConsumer consumer;
+	private final BufferPool pool;
+	private final CompletableFuture<Void> completion = new CompletableFuture<>();
+	private final LongAdder transferred = new LongAdder();
+	private int fd;
+	private EventLoop.Registration registration;
+
+	ChunkPipeHandler(final ChunkConsumer consumer)
+	{
+		this(consumer, BufferPool.shared());
+	}
+
+	ChunkPipeHandler(final ChunkConsumer consumer, final BufferPool pool)
+	{
+		this.consumer = consumer;
+		this.pool = pool;
+	}
+
+	@Override
+	public List<SpawnFileAction> init(final POSIX posix, final Stream stream)
+	{
+		if (stream.isParentWriteSide())
+		{
+			throw new IllegalArgumentException("Chunk consumers can only receive output, not provide input.");
+		}
+		return super.init(posix, stream);
+	}
+
+	@Override
+	public ByteChannel afterSpawn(final POSIX posix, final Stream stream)
+	{
+		final NativeDeviceChannel channel = (NativeDeviceChannel) super.afterSpawn(posix, stream);
+		fd = channel.getFD();
+		registration = EventLoop.next().register(channel, this::drain);
+		registration.arm(SelectionKey.OP_READ);
+		return null;
+	}
+
+	@Override
+	public CompletableFuture<Void> completion()
+	{
+		return completion;
+	}
+
+	@Override
+	public long transferred()
+	{
+		return transferred.sum();
+	}
+
+	private void drain(final int readyOps)
+	{
+		for (int i = 0; i < MAX_READS_PER_WAKEUP; i++)
+		{
+			final Chunk chunk = pool.acquire();
+			final ByteBuffer buffer = chunk.buffer();
+			final int n;
+			try
+			{
+				n = Native.read(fd, buffer);
+			}
+			catch (IOException e)
+			{
+				logger.warn("Failed to read child output, closing the stream.", e);
+				chunk.release();
+				finish();
+				return;
+			}
+			if (n == 0)
+			{
+				chunk.release();
+				registration.arm(SelectionKey.OP_READ);
+				return;
+			}
+			else if (n < 0)
+			{
+				chunk.release();
+				finish();
+				return;
+			}
+			transferred.add(n);
+			buffer.flip();
+			try
+			{
+				consumer.onChunk(chunk);
+			}
+			catch (RuntimeException e)
+			{
+				logger.warn("Chunk consumer failed.", e);
+			}
+		}
+		registration.arm(SelectionKey.OP_READ);
+	}
+
+	private void finish()
+	{
+		registration.close();
+		try
+		{
+			consumer.onEndOfStream();
+		}
+		catch (RuntimeException e)
+		{
+			logger.warn("Chunk consumer failed.", e);
+		}
+		completion.complete(null);
+	}
+}
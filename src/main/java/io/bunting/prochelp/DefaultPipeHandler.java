@@ -1,16 +1,21 @@
 package io.bunting.prochelp;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.nio.channels.ByteChannel;
 import java.nio.channels.SelectionKey;
 import java.util.Arrays;
 import java.util.List;
 
+import jnr.constants.platform.Errno;
 import jnr.enxio.channels.NativeDeviceChannel;
 import jnr.enxio.channels.NativeSelectorProvider;
 import jnr.posix.POSIX;
 import jnr.posix.SpawnFileAction;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /**
  * TODO: Document this class
  */
@@ -19,18 +24,53 @@ import jnr.posix.SpawnFileAction;
 // 2. duplicate the child's side when spawning the process
 // 3. close the parent's side when spawning the process
 // 4. close the child's side in the parent after the process is spawned
-// 5. convert the parent's side to a usable channel or stream on the parent's side
+// 5. convert the parent's side to a usable, non-blocking channel on the parent's side
 class DefaultPipeHandler implements PipeHandler
 {
+	private static final Logger logger = LoggerFactory.getLogger(DefaultPipeHandler.class);
+
 	private static final int PIPE_READ_SIDE = 0;
 	private static final int PIPE_WRITE_SIDE = 1;
 
 	private final int[] fds = new int[2];
+	private final int pipeSize;
+
+	DefaultPipeHandler()
+	{
+		this(0);
+	}
+
+	/**
+	 * @param pipeSize the size of the pipe's buffer, or 0 for the kernel's default
+	 */
+	DefaultPipeHandler(final int pipeSize)
+	{
+		this.pipeSize = pipeSize;
+	}
+
+	/**
+	 * Creates a pipe whose ends are both close-on-exec, so they never leak into children other than the one they are dup'ed into. The dup
+	 * onto the child's standard stream clears the flag on that copy.
+	 *
+	 * @param pipeSize the size of the pipe's buffer, or 0 for the kernel's default. A larger buffer lets a child that writes a lot run
+	 * further ahead of its reader, so both sides wake up less often.
+	 */
+	static void pipe(final int[] fds, final int pipeSize)
+	{
+		if (!Native.pipe(fds))
+		{
+			throw new RuntimeException("Failed to create pipe. " + Errno.valueOf(Native.errno()).description());
+		}
+		if (pipeSize > 0 && Native.setPipeSize(fds[PIPE_READ_SIDE], pipeSize) < 0)
+		{
+			logger.debug("Failed to resize pipe to {} bytes. {}", pipeSize, Errno.valueOf(Native.errno()).description());
+		}
+	}
 
 	@Override
 	public List<SpawnFileAction> init(final POSIX posix, final Stream stream)
 	{
-		posix.pipe(fds);
+		pipe(fds, pipeSize);
 
 		return Arrays.asList(
 				SpawnFileAction.dup(fds[childPipeSide(stream)], stream.getNumber()),
@@ -42,10 +82,20 @@ class DefaultPipeHandler implements PipeHandler
 	public ByteChannel afterSpawn(final POSIX posix, final Stream stream)
 	{
 		posix.close(fds[childPipeSide(stream)]);
-		return new NativeDeviceChannel(NativeSelectorProvider.getInstance(),
-		                               fds[parentPipeSide(stream)],
-		                               stream.isParentWriteSide() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ
+		final NativeDeviceChannel channel = new NativeDeviceChannel(NativeSelectorProvider.getInstance(),
+		                                                            fds[parentPipeSide(stream)],
+		                                                            stream.isParentWriteSide() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ
 		);
+		try
+		{
+			// the parent side is driven by the shared event loop, so it must never block
+			channel.configureBlocking(false);
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("Failed to make the parent side of the pipe non-blocking.", e);
+		}
+		return channel;
 	}
 
 	private int childPipeSide(final Stream stream)
@@ -0,0 +1,34 @@
+package io.bunting.prochelp;
+
+import java.util.List;
+
+import jnr.posix.POSIX;
+import jnr.posix.POSIXFactory;
+import jnr.posix.SpawnFileAction;
+
+/**
+ * Spawns children straight from this JVM. They are reaped by the {@link ProcessReaper}.
+ */
+final class DirectSpawnStrategy extends SpawnStrategy
+{
+	static final DirectSpawnStrategy INSTANCE = new DirectSpawnStrategy();
+
+	private final POSIX posix = POSIXFactory.getPOSIX();
+
+	private DirectSpawnStrategy()
+	{
+	}
+
+	@Override
+	long spawn(final String executable, final List<String> arguments, final List<String> environment, final List<SpawnFileAction> fileActions,
+	           final ProcessGroupMode processGroup, final ChildSettings settings)
+	{
+		return settings.spawn(() -> posix.posix_spawnp(executable, fileActions, processGroup.attributes(), arguments, environment));
+	}
+
+	@Override
+	void watch(final EnhancedProcess process)
+	{
+		ProcessReaper.getInstance().register(process);
+	}
+}
@@ -0,0 +1,51 @@
+package io.bunting.prochelp;
+
+import java.nio.channels.ByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+import jnr.constants.platform.Errno;
+import jnr.posix.POSIX;
+import jnr.posix.SpawnFileAction;
+
+/**
+ * Connects the child's stream to {@code /dev/null}. The device is opened once per JVM and shared by every child, so discarding a stream
+ * costs neither a pipe nor a thread to drain it.
+ */
+final class DiscardPipeHandler implements PipeHandler
+{
+	static final DiscardPipeHandler INSTANCE = new DiscardPipeHandler();
+
+	private DiscardPipeHandler()
+	{
+	}
+
+	@Override
+	public List<SpawnFileAction> init(final POSIX posix, final Stream stream)
+	{
+		return Collections.singletonList(SpawnFileAction.dup(DevNull.FD, stream.getNumber()));
+	}
+
+	@Override
+	public ByteChannel afterSpawn(final POSIX posix, final Stream stream)
+	{
+		return null;
+	}
+
+	private static final class DevNull
+	{
+		private static final int FD = open();
+
+		private static int open()
+		{
+			final byte[] path = "/dev/null\0".getBytes(StandardCharsets.US_ASCII);
+			final int fd = Native.libc().open(path, Native.O_RDWR | (Native.isLinux() ? Native.O_CLOEXEC : 0));
+			if (fd < 0)
+			{
+				throw new RuntimeException("Failed to open /dev/null. " + Errno.valueOf(Native.errno()).description());
+			}
+			return fd;
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package io.bunting.prochelp;
+
+import java.nio.channels.ByteChannel;
+import java.util.Collections;
+import java.util.List;
+
+import jnr.posix.POSIX;
+import jnr.posix.SpawnFileAction;
+
+/**
+ * Hands a descriptor the parent already owns to the child as one of its standard streams. The parent's copy is closed once the child has
+ * been spawned, so ownership of the descriptor passes to this handler on construction.
+ */
+class DupPipeHandler implements PipeHandler
+{
+	private final int fd;
+
+	DupPipeHandler(final int fd)
+	{
+		this.fd = fd;
+	}
+
+	@Override
+	public List<SpawnFileAction> init(final POSIX posix, final Stream stream)
+	{
+		return Collections.singletonList(SpawnFileAction.dup(fd, stream.getNumber()));
+	}
+
+	@Override
+	public ByteChannel afterSpawn(final POSIX posix, final Stream stream)
+	{
+		posix.close(fd);
+		return null;
+	}
+}
@@ -1,14 +1,28 @@
 package io.bunting.prochelp;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
 
+import jnr.constants.platform.Errno;
 import jnr.constants.platform.Signal;
-import jnr.constants.platform.WaitFlags;
 import jnr.posix.POSIX;
 
 import org.slf4j.Logger;
@@ -22,21 +36,48 @@ public class EnhancedProcess extends Process
 	private static final Logger logger = LoggerFactory.getLogger(EnhancedProcess.class);
 
 	private final long pid;
+	private final List<String> command;
+	private final long spawnNanos;
+	private final boolean leadsGroup;
+	private final long startedNanos = System.nanoTime();
 	private final OutputStream in;
 	private final InputStream out;
 	private final InputStream err;
 
 	private final POSIX posix;
+	private final CompletableFuture<Void> streams;
+	private final LongSupplier[] transferred;
+	private final Capture[] captures;
 
-	private int exitValue = -1;
+	private final CountDownLatch exitLatch = new CountDownLatch(1);
+	private final CompletableFuture<EnhancedProcess> exitFuture = new CompletableFuture<>();
+	private final CompletableFuture<EnhancedProcess> drainFuture = new CompletableFuture<>();
+	private volatile int exitValue = -1;
+	private volatile long reapedNanos = 0;
+	private volatile ResourceUsage resourceUsage;
+	private volatile boolean timedOut = false;
 
-	EnhancedProcess(final long pid, final OutputStream in, final InputStream out, final InputStream err, final POSIX posix)
+	/**
+	 * @param spawnNanos how long it took to set up the streams and spawn the child
+	 * @param streams completes once the library is done with the child's streams, which may be after the child exited
+	 * @param transferred counts the bytes moved through each of the child's standard streams, indexed by descriptor
+	 * @param captures the captures of the child's standard streams, indexed by descriptor, with null for streams that are not captured
+	 */
+	EnhancedProcess(final long pid, final List<String> command, final long spawnNanos, final ProcessGroupMode processGroup,
+	                final OutputStream in, final InputStream out, final InputStream err, final POSIX posix, final CompletableFuture<Void> streams,
+	                final LongSupplier[] transferred, final Capture[] captures)
 	{
 		this.pid = pid;
+		this.command = command;
+		this.spawnNanos = spawnNanos;
+		this.leadsGroup = processGroup.leadsGroup();
 		this.in = in;
 		this.out = out;
 		this.err = err;
 		this.posix = posix;
+		this.streams = streams;
+		this.transferred = transferred;
+		this.captures = captures;
 		logger.debug("Created process with pid {}.", pid);
 	}
 
@@ -45,6 +86,96 @@ public class EnhancedProcess extends Process
 		return this.pid;
 	}
 
+	/**
+	 * @return the command the process was started with, its first element being the executable
+	 */
+	public List<String> getCommand()
+	{
+		return command;
+	}
+
+	/**
+	 * @return how long it took to start the process, from setting up its streams until the child existed, in nanoseconds
+	 */
+	public long getSpawnNanos()
+	{
+		return spawnNanos;
+	}
+
+	/**
+	 * @return how long the child ran until it was reaped, or has been running so far, in nanoseconds
+	 */
+	public long getLifetimeNanos()
+	{
+		final long reaped = reapedNanos;
+		return (reaped == 0 ? System.nanoTime() : reaped) - startedNanos;
+	}
+
+	/**
+	 * @return the bytes written to the child's standard input so far
+	 */
+	public long getInputBytes()
+	{
+		return transferred[0].getAsLong();
+	}
+
+	/**
+	 * @return the bytes read from the child's standard output so far, whether through {@link #getInputStream()} or by a redirect
+	 */
+	public long getOutputBytes()
+	{
+		return transferred[1].getAsLong();
+	}
+
+	/**
+	 * @return the bytes read from the child's standard error so far, whether through {@link #getErrorStream()} or by a redirect
+	 */
+	public long getErrorBytes()
+	{
+		return transferred[2].getAsLong();
+	}
+
+	/**
+	 * @return the standard output of the child, if it was redirected to a {@link Redirect#capture() capture} or
+	 * {@link Redirect#tail(int) tail}; waits until the output is {@link #onDrained() drained}
+	 * @throws IllegalThreadStateException if the process has not exited yet
+	 * @throws IllegalStateException if the output was not captured, or could not be mapped
+	 */
+	public ByteBuffer getCapturedOutput()
+	{
+		return this.captured(1);
+	}
+
+	/**
+	 * @return the standard error of the child, if it was redirected to a {@link Redirect#capture() capture} or
+	 * {@link Redirect#tail(int) tail}; waits until the error is {@link #onDrained() drained}
+	 * @throws IllegalThreadStateException if the process has not exited yet
+	 * @throws IllegalStateException if the error was not captured, or could not be mapped
+	 */
+	public ByteBuffer getCapturedError()
+	{
+		return this.captured(2);
+	}
+
+	private ByteBuffer captured(final int stream)
+	{
+		if (!checkForExit())
+		{
+			throw new IllegalThreadStateException("process hasn't exited");
+		}
+		if (captures[stream] == null)
+		{
+			throw new IllegalStateException("The stream was not captured.");
+		}
+		drainFuture.join();
+		final ByteBuffer buffer = captures[stream].buffer();
+		if (buffer == null)
+		{
+			throw new IllegalStateException("The captured stream could not be mapped.");
+		}
+		return buffer;
+	}
+
 	@Override
 	public OutputStream getOutputStream()
 	{
@@ -63,47 +194,289 @@ public class EnhancedProcess extends Process
 		return this.err;
 	}
 
+	/**
+	 * Publishes the child's standard output as it arrives, instead of reading it from {@link #getInputStream()}. The pipe is only read while
+	 * the subscriber has asked for more, so a slow subscriber slows the child down rather than its output piling up in memory.
+	 *
+	 * @throws IllegalStateException if the output was redirected elsewhere than to a pipe
+	 */
+	public Flow.Publisher<ByteBuffer> getOutputPublisher()
+	{
+		return publisher(this.out);
+	}
+
+	/**
+	 * Publishes the child's standard error as it arrives, instead of reading it from {@link #getErrorStream()}.
+	 *
+	 * @throws IllegalStateException if the error stream was redirected elsewhere than to a pipe
+	 * @see #getOutputPublisher()
+	 */
+	public Flow.Publisher<ByteBuffer> getErrorPublisher()
+	{
+		return publisher(this.err);
+	}
+
+	/**
+	 * Writes what it is given to the child's standard input, instead of {@link #getOutputStream()}. It asks for the next buffer only once the
+	 * pipe took the current one, and closes the child's input when the publisher completes.
+	 *
+	 * @throws IllegalStateException if the input was redirected elsewhere than from a pipe
+	 */
+	public Flow.Subscriber<ByteBuffer> getInputSubscriber()
+	{
+		if (!(this.in instanceof PipeOutputStream))
+		{
+			throw new IllegalStateException("The input is not a pipe.");
+		}
+		return ((PipeOutputStream) this.in).subscriber();
+	}
+
+	private static Flow.Publisher<ByteBuffer> publisher(final InputStream stream)
+	{
+		if (!(stream instanceof PipeInputStream))
+		{
+			throw new IllegalStateException("The stream is not a pipe.");
+		}
+		return ((PipeInputStream) stream).publisher();
+	}
+
 	@Override
 	public boolean waitFor(final long timeout, final TimeUnit unit) throws InterruptedException
 	{
-		long abortTime = System.currentTimeMillis() + unit.toMillis(timeout);
-		checkForExit();
-		while (exitValue == -1 && abortTime >= System.currentTimeMillis())
+		return exitLatch.await(timeout, unit);
+	}
+
+	@Override
+	public int waitFor() throws InterruptedException
+	{
+		exitLatch.await();
+		return exitValue;
+	}
+
+	/**
+	 * Returns a new {@link CompletableFuture} that completes with this process once it has exited. No thread is blocked while waiting; the
+	 * future is completed from the shared {@link ProcessReaper} and its dependents run asynchronously on the common pool, so they may block
+	 * without delaying the reaping of other children.
+	 */
+	public CompletableFuture<EnhancedProcess> onExit()
+	{
+		return exitFuture.thenApplyAsync(Function.identity());
+	}
+
+	/**
+	 * Returns a new {@link CompletableFuture} that completes with this process once the library is done with the child's streams: output
+	 * redirected to a channel has landed, and captures are available. This is usually right after the child exited, but a descendant that
+	 * inherited the streams keeps them open for as long as it runs, and the child is reported as exited regardless.
+	 */
+	public CompletableFuture<EnhancedProcess> onDrained()
+	{
+		return drainFuture.thenApplyAsync(Function.identity());
+	}
+
+	/**
+	 * @return true if the process ran into its timeout and was sent a signal because of that, see
+	 * {@link EnhancedProcessBuilder#timeout(long, TimeUnit)}
+	 */
+	public boolean isTimedOut()
+	{
+		return timedOut;
+	}
+
+	/**
+	 * Sends {@code SIGTERM} once the timeout has elapsed, followed by {@code SIGKILL} if the process is still alive after the grace period.
+	 * Both are driven by the shared {@link TimerWheel}; no thread waits for them.
+	 *
+	 * @param graceNanos the time between the two signals, or 0 to send {@code SIGKILL} right away
+	 */
+	void timeout(final long timeoutNanos, final long graceNanos)
+	{
+		this.cancelOnExit(TimerWheel.shared().schedule(() -> this.timedOut(graceNanos), timeoutNanos, TimeUnit.NANOSECONDS));
+	}
+
+	private void timedOut(final long graceNanos)
+	{
+		if (reapedNanos != 0)
 		{
-			if (useDefaultSleep(timeout, unit))
-			{
-				TimeUnit.MILLISECONDS.sleep(100);
-			}
-			else
+			return;
+		}
+		timedOut = true;
+		if (graceNanos <= 0)
+		{
+			logger.debug("Process {} timed out, killing it.", pid);
+			this.signalOnTimeout(Signal.SIGKILL);
+			return;
+		}
+		logger.debug("Process {} timed out, terminating it.", pid);
+		this.signalOnTimeout(Signal.SIGTERM);
+		final TimerWheel.Timeout kill = TimerWheel.shared().schedule(() -> {
+			logger.debug("Process {} did not terminate within its grace period, killing it.", pid);
+			this.signalOnTimeout(Signal.SIGKILL);
+		}, graceNanos, TimeUnit.NANOSECONDS);
+		// the rest of a group is still killed if only the leader terminated in time
+		exitFuture.whenComplete((process, e) -> {
+			if (!leadsGroup || !this.groupExists())
 			{
-				unit.sleep(timeout);
+				kill.cancel();
 			}
-			checkForExit();
+		});
+	}
+
+	private void signalOnTimeout(final Signal signal)
+	{
+		if (leadsGroup)
+		{
+			this.signalGroup(signal);
+		}
+		else
+		{
+			this.signal(signal);
 		}
-		return exitValue != -1;
 	}
 
-	private boolean useDefaultSleep(final long timeout, final TimeUnit unit)
+	private void cancelOnExit(final TimerWheel.Timeout timeout)
 	{
-		return TimeUnit.MILLISECONDS.toNanos(100) < unit.toNanos(timeout);
+		exitFuture.whenComplete((process, e) -> timeout.cancel());
 	}
 
-	@Override
-	public int waitFor() throws InterruptedException
+	/**
+	 * Signals the child unless it has been reaped already, in which case its pid may belong to someone else by now.
+	 */
+	private void signal(final Signal signal)
 	{
-		checkForExit();
-		while (exitValue == -1)
+		if (reapedNanos == 0)
 		{
-			TimeUnit.MILLISECONDS.sleep(100);
-			checkForExit();
+			posix.kill((int) pid, signal.intValue());
+		}
+	}
+
+	/**
+	 * Signals the process group the child leads. This still works after the child itself has exited, for as long as anything in its group
+	 * is alive: the kernel does not hand out the group's id as a pid until the group is empty. Once it is, the id may be reused, so the group
+	 * is checked right before it is signalled.
+	 */
+	private void signalGroup(final Signal signal)
+	{
+		if (this.groupExists())
+		{
+			posix.kill(-(int) pid, signal.intValue());
+		}
+	}
+
+	/**
+	 * @return true if the group the child leads still has members, and its id has not been handed out again since
+	 */
+	private boolean groupExists()
+	{
+		if (posix.kill(-(int) pid, 0) < 0 && posix.errno() != Errno.EPERM.intValue())
+		{
+			return false;
+		}
+		// a process with the child's pid after the child was reaped is someone else, and the group then belongs to it
+		return reapedNanos == 0 || posix.getpgid((int) pid) < 0;
+	}
+
+	/**
+	 * Like {@link #destroy()}, but also sends {@code SIGTERM} to everything the process started. If the process was spawned into a
+	 * {@link ProcessGroupMode#GROUP group} or {@link ProcessGroupMode#SESSION session} of its own, the whole group is signalled at once,
+	 * including descendants whose parent has exited already. Otherwise the descendants are found through {@code /proc}, which only reaches
+	 * those still connected to the process through their parents, and only on Linux.
+	 */
+	public void destroyTree()
+	{
+		this.signalTree(Signal.SIGTERM);
+		try
+		{
+			this.waitFor();
+		}
+		catch (InterruptedException e)
+		{
+			throw new RuntimeException("Interrupted.", e);
+		}
+	}
+
+	/**
+	 * Like {@link #destroyTree()}, sending {@code SIGKILL}.
+	 */
+	public EnhancedProcess destroyTreeForcibly()
+	{
+		this.signalTree(Signal.SIGKILL);
+		try
+		{
+			this.waitFor();
+		}
+		catch (InterruptedException e)
+		{
+			throw new RuntimeException("Interrupted.", e);
+		}
+		return this;
+	}
+
+	private void signalTree(final Signal signal)
+	{
+		if (leadsGroup)
+		{
+			this.signalGroup(signal);
+			return;
+		}
+		if (reapedNanos != 0)
+		{
+			return;
+		}
+		// collect them first, as the tree falls apart once the child is gone
+		final List<Long> descendants = descendants(pid);
+		this.signal(signal);
+		for (long descendant : descendants)
+		{
+			posix.kill((int) descendant, signal.intValue());
 		}
-		return exitValue;
+	}
+
+	/**
+	 * @return the pids of the descendants of the process, found by following the parent pids in {@code /proc}
+	 */
+	private static List<Long> descendants(final long pid)
+	{
+		final File[] entries = new File("/proc").listFiles();
+		if (entries == null)
+		{
+			return Collections.emptyList();
+		}
+		final Map<Long, List<Long>> children = new HashMap<>();
+		for (File entry : entries)
+		{
+			final String name = entry.getName();
+			if (name.isEmpty() || !Character.isDigit(name.charAt(0)))
+			{
+				continue;
+			}
+			try
+			{
+				final String stat = new String(Files.readAllBytes(new File(entry, "stat").toPath()), StandardCharsets.US_ASCII);
+				// the command name may contain spaces and parentheses, the state and then the parent pid follow the last ')'
+				final String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ", 3);
+				children.computeIfAbsent(Long.parseLong(fields[1]), parent -> new ArrayList<>()).add(Long.parseLong(name));
+			}
+			catch (IOException | RuntimeException e)
+			{
+				// the process exited while we were looking
+			}
+		}
+		final List<Long> descendants = new ArrayList<>();
+		final Deque<Long> parents = new ArrayDeque<>();
+		parents.add(pid);
+		while (!parents.isEmpty())
+		{
+			final List<Long> found = children.getOrDefault(parents.poll(), Collections.emptyList());
+			descendants.addAll(found);
+			parents.addAll(found);
+		}
+		return descendants;
 	}
 
 	@Override
 	public EnhancedProcess destroyForcibly()
 	{
-		posix.kill((int) pid, Signal.SIGKILL.intValue());
+		this.signal(Signal.SIGKILL);
 		try
 		{
 			this.waitFor();
@@ -118,7 +491,7 @@ public class EnhancedProcess extends Process
 	@Override
 	public void destroy()
 	{
-		posix.kill((int) pid, Signal.SIGTERM.intValue());
+		this.signal(Signal.SIGTERM);
 		try
 		{
 			this.waitFor();
@@ -132,46 +505,82 @@ public class EnhancedProcess extends Process
 	@Override
 	public int exitValue()
 	{
-		checkForExit();
-		if (exitValue == -1)
+		if (!checkForExit())
 		{
 			throw new IllegalThreadStateException("process hasn't exited");
 		}
 		return exitValue;
 	}
 
+	/**
+	 * @return the CPU time, memory and other resources the child used, collected when it was reaped
+	 * @throws IllegalThreadStateException if the process has not exited yet
+	 */
+	public ResourceUsage getResourceUsage()
+	{
+		if (!checkForExit())
+		{
+			throw new IllegalThreadStateException("process hasn't exited");
+		}
+		return resourceUsage;
+	}
+
 	@Override
 	public boolean isAlive()
 	{
-		checkForExit();
-		return exitValue == -1;
+		return !checkForExit();
+	}
+
+	/**
+	 * Only reads the state recorded by the {@link ProcessReaper}; never calls into the kernel.
+	 */
+	private boolean checkForExit()
+	{
+		return exitValue != -1;
 	}
 
-	private synchronized void checkForExit()
+	/**
+	 * Invoked by the {@link ProcessReaper} exactly once, after this process has been reaped.
+	 *
+	 * @param status the raw wait status
+	 * @param usage what the child used, as reported along with its status
+	 */
+	void reaped(final int status, final ResourceUsage usage)
 	{
-		if (exitValue != -1)
+		reapedNanos = System.nanoTime();
+		resourceUsage = usage;
+		final int value;
+		if ((status & 0x000F) == 0)
 		{
-			return;
+			// exited normally
+			logger.debug("Received normal exit status 0x{} for process {}.", Integer.toHexString(status), pid);
+			value = (status >> 8) & 0x00FF;
+		}
+		else
+		{
+			// killed by signal
+			logger.debug("Received 'killed by signal' exit status 0x{} for process {}.", Integer.toHexString(status), pid);
+			value = (status & 0x00FF) | 0x0080;
 		}
+		exitValue = value;
+		logger.debug("Process {} exited with value {}.", pid, exitValue);
+		exitLatch.countDown();
+		exitFuture.complete(this);
+		streams.whenComplete((ignored, e) -> drained());
+	}
 
-		int[] status = new int[1];
-		final int waitpid = posix.waitpid(pid, status, WaitFlags.WNOHANG.intValue());
-		logger.trace("Process {} is running.", pid);
-		if (waitpid != 0)
+	/**
+	 * Invoked once the child exited and the library is done with its streams, which a descendant holding them open may delay.
+	 */
+	private void drained()
+	{
+		for (Capture capture : captures)
 		{
-			if ((status[0] & 0x000F) == 0)
-			{
-				// exited normally
-				logger.debug("Received normal exit status 0x{} for process {}.", Integer.toHexString(status[0]), pid);
-				exitValue = (status[0] >> 8) & 0x00FF;
-			}
-			else
+			if (capture != null)
 			{
-				// killed by signal
-				logger.debug("Received 'killed by signal' exit status 0x{} for process {}.", Integer.toHexString(status[0]), pid);
-				exitValue = (status[0] & 0x00FF) | 0x0080;
+				capture.finish();
 			}
-			logger.debug("Process {} exited with value {}.", pid, exitValue);
 		}
+		drainFuture.complete(this);
 	}
 }
@@ -3,8 +3,10 @@ package io.bunting.prochelp;
 import java.io.File;
 import java.io.OutputStream;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
@@ -41,90 +43,174 @@ public class EnhancedProcessBuilder
 		return options.create(completion);
 	}
 
-	// simple delegate methods below here
-//
-//	public EnhancedProcessBuilder command(final List<String> command)
-//	{
-//		delegate.command(command);
-//		return this;
-//	}
-//
+	/**
+	 * Creates a template that starts this command over and over again without redoing the work that is the same for every start.
+	 */
+	public SpawnTemplate template()
+	{
+		return new SpawnTemplate(options);
+	}
+
+	/**
+	 * Chooses how the children are created, see {@link SpawnStrategy}.
+	 */
+	public EnhancedProcessBuilder spawnStrategy(final SpawnStrategy spawnStrategy)
+	{
+		options.setSpawnStrategy(spawnStrategy);
+		return this;
+	}
+
+	/**
+	 * Adds a monitor that is told about every process started by the callables {@link #create(Function) created} from now on.
+	 */
+	public EnhancedProcessBuilder monitor(final Monitor monitor)
+	{
+		options.addMonitor(monitor);
+		return this;
+	}
+
+	/**
+	 * Terminates processes that are still running once the timeout has elapsed. They are sent {@code SIGTERM} first, and {@code SIGKILL}
+	 * if they are still running after the {@link #gracePeriod(long, TimeUnit) grace period}. No thread is held for this, however many
+	 * processes are waiting for their deadline. A timeout of 0 disables it, which is the default.
+	 */
+	public EnhancedProcessBuilder timeout(final long timeout, final TimeUnit unit)
+	{
+		if (timeout < 0)
+		{
+			throw new IllegalArgumentException("The timeout must not be negative.");
+		}
+		options.setTimeout(unit.toNanos(timeout));
+		return this;
+	}
+
+	/**
+	 * Sets how long a process that ran into its {@link #timeout(long, TimeUnit) timeout} gets to exit after {@code SIGTERM}, before it is
+	 * sent {@code SIGKILL}. With a grace period of 0 it is sent {@code SIGKILL} right away. Defaults to 5 seconds.
+	 */
+	public EnhancedProcessBuilder gracePeriod(final long gracePeriod, final TimeUnit unit)
+	{
+		if (gracePeriod < 0)
+		{
+			throw new IllegalArgumentException("The grace period must not be negative.");
+		}
+		options.setGracePeriod(unit.toNanos(gracePeriod));
+		return this;
+	}
+
+	/**
+	 * Chooses whether the children get a process group or session of their own, so that everything they start can be signalled with
+	 * {@link EnhancedProcess#destroyTree()} and by the {@link #timeout(long, TimeUnit) timeout}. Defaults to
+	 * {@link ProcessGroupMode#INHERIT}.
+	 */
+	public EnhancedProcessBuilder processGroup(final ProcessGroupMode processGroup)
+	{
+		options.setProcessGroup(processGroup);
+		return this;
+	}
+
+	/**
+	 * Restricts the children to the given cpus, e.g. to keep them off the cores latency critical threads are pinned to. Only supported on
+	 * Linux.
+	 */
+	public EnhancedProcessBuilder cpuAffinity(final int ... cpus)
+	{
+		final BitSet set = new BitSet();
+		for (int cpu : cpus)
+		{
+			set.set(cpu);
+		}
+		options.settings().setAffinity(set);
+		return this;
+	}
+
+	/**
+	 * Sets the nice value of the children, from -20 (highest priority) to 19 (lowest). Values below the JVM's own require privileges.
+	 */
+	public EnhancedProcessBuilder nice(final int nice)
+	{
+		options.settings().setNice(nice);
+		return this;
+	}
+
+	/**
+	 * Sets the scheduling policy of the children. Only supported on Linux.
+	 */
+	public EnhancedProcessBuilder schedulingPolicy(final SchedulingPolicy schedulingPolicy)
+	{
+		options.settings().setSchedulingPolicy(schedulingPolicy);
+		return this;
+	}
+
+	/**
+	 * Sets the I/O scheduling class and level of the children, see {@code ioprio_set(2)}. Only supported on Linux.
+	 */
+	public EnhancedProcessBuilder ioPriority(final IoPriorityClass ioPriorityClass, final int level)
+	{
+		options.settings().setIoPriority(ioPriorityClass, level);
+		return this;
+	}
+
+	/**
+	 * Sets a resource limit for the children. Children with limits are started through {@code /bin/sh}, which sets them and then executes
+	 * the command in its place, so a command that can not be found makes the child exit with 127 instead of failing to start.
+	 */
+	public EnhancedProcessBuilder limit(final ResourceLimit limit, final long value)
+	{
+		options.settings().setLimit(limit, value);
+		return this;
+	}
+
+	EnhancedProcessOptions options()
+	{
+		return options;
+	}
+
 	public EnhancedProcessBuilder redirectInput(final Redirect source)
 	{
 		options.setInputHandler(fromRedirect(source));
 		return this;
 	}
 
-//	public EnhancedProcessBuilder command(final String... command)
-//	{
-//		delegate.command(command);
-//		return this;
-//	}
-//
-//	public Redirect redirectOutput()
-//	{
-//		return delegate.redirectOutput();
-//	}
-//
-//	public Redirect redirectInput()
-//	{
-//		return delegate.redirectInput();
-//	}
-//
-//	public EnhancedProcessBuilder directory(final File directory)
-//	{
-//		delegate.directory(directory);
-//		return this;
-//	}
-//
 	public EnhancedProcessBuilder redirectInput(final File file)
 	{
 		return this.redirectInput(Redirect.from(file));
 	}
-//
-//	public File directory()
-//	{
-//		return delegate.directory();
-//	}
-//
-//	public Redirect redirectError()
-//	{
-//		return delegate.redirectError();
-//	}
-//
-//	public boolean redirectErrorStream()
-//	{
-//		return delegate.redirectErrorStream();
-//	}
-//
-//	public EnhancedProcessBuilder redirectErrorStream(final boolean redirectErrorStream)
-//	{
-//		delegate.redirectErrorStream(redirectErrorStream);
-//		return this;
-//	}
-//
-//	public EnhancedProcessBuilder inheritIO()
-//	{
-//		delegate.inheritIO();
-//		return this;
-//	}
-//
-//	public Map<String, String> environment()
-//	{
-//		return delegate.environment();
-//	}
-//
+
+	/**
+	 * @return true if the child's standard error is merged into its standard output
+	 */
+	public boolean redirectErrorStream()
+	{
+		return options.isMergeError();
+	}
+
+	/**
+	 * Merges the child's standard error into its standard output, wherever that goes. Like with {@link ProcessBuilder}, this wins over
+	 * {@link #redirectError(Redirect)}, whether that is called before or after; with false, the error goes where that one says again.
+	 */
+	public EnhancedProcessBuilder redirectErrorStream(final boolean redirectErrorStream)
+	{
+		options.setMergeError(redirectErrorStream);
+		return this;
+	}
+
+	/**
+	 * Lets the child use the JVM's standard input, output and error.
+	 */
+	public EnhancedProcessBuilder inheritIO()
+	{
+		this.redirectInput(Redirect.INHERIT);
+		this.redirectOutput(Redirect.INHERIT);
+		return this.redirectError(Redirect.INHERIT);
+	}
+
 	public EnhancedProcessBuilder redirectError(final Redirect destination)
 	{
 		options.setErrorHandler(fromRedirect(destination));
 		return this;
 	}
-//
-//	public List<String> command()
-//	{
-//		return delegate.command();
-//	}
-//
+
 	public EnhancedProcessBuilder redirectOutput(final File file)
 	{
 		return this.redirectOutput(Redirect.to(file));
@@ -138,10 +224,22 @@ public class EnhancedProcessBuilder
 
 	private Supplier<PipeHandler> fromRedirect(final Redirect redirect)
 	{
-		if (redirect.type() == Type.PIPE)
+		if (redirect.handler() != null)
+		{
+			return redirect.handler();
+		}
+		else if (redirect.type() == Type.PIPE)
 		{
 			return DefaultPipeHandler::new;
 		}
+		else if (redirect.type() == Type.INHERIT)
+		{
+			return () -> InheritPipeHandler.INSTANCE;
+		}
+		else if (redirect.type() == Type.DISCARD)
+		{
+			return () -> DiscardPipeHandler.INSTANCE;
+		}
 		else if (redirect.file() != null)
 		{
 			return () -> new FilePipeHandler(redirect.file(), redirect.type() == Type.APPEND);
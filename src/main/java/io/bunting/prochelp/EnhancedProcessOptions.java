@@ -1,5 +1,6 @@
 package io.bunting.prochelp;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.channels.ByteChannel;
@@ -7,8 +8,13 @@ import java.nio.channels.Channels;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
+import java.util.function.LongSupplier;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
@@ -16,6 +22,7 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import io.bunting.prochelp.PipeHandler.Stream;
+import jnr.enxio.channels.NativeDeviceChannel;
 import jnr.posix.POSIX;
 import jnr.posix.POSIXFactory;
 import jnr.posix.SpawnFileAction;
@@ -26,17 +33,79 @@ import jnr.posix.SpawnFileAction;
  */
 class EnhancedProcessOptions
 {
+	private static final CompletableFuture<Void> COMPLETED = CompletableFuture.completedFuture(null);
+	private static final long DEFAULT_GRACE_PERIOD_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+	/**
+	 * The environment handed to every child. The JVM's environment never changes, so it is only marshalled into strings once.
+	 */
+	private static final List<String> ENVIRONMENT = Collections.unmodifiableList(System.getenv().entrySet()
+	                                                                                   .stream()
+	                                                                                   .map(e -> e.getKey() + "=" + e.getValue())
+	                                                                                   .collect(Collectors.toList()));
+
+	private static final Supplier<PipeHandler> MERGE = () -> MergePipeHandler.INSTANCE;
+
 	private final POSIX posix = POSIXFactory.getPOSIX();
 	private final List<String> commands;
 	private Supplier<PipeHandler> inPipeHandlerSupplier = DefaultPipeHandler::new;
 	private Supplier<PipeHandler> outPipeHandlerSupplier = DefaultPipeHandler::new;
 	private Supplier<PipeHandler> errPipeHandlerSupplier = DefaultPipeHandler::new;
+	// wins over the error handler, which is kept for when the error is no longer merged
+	private boolean mergeError = false;
+	private SpawnStrategy spawnStrategy = SpawnStrategy.defaultStrategy();
+	private final List<Monitor> monitors = new ArrayList<>();
+	private long timeoutNanos = 0;
+	private ProcessGroupMode processGroup = ProcessGroupMode.INHERIT;
+	private ChildSettings settings = new ChildSettings();
+	private long gracePeriodNanos = DEFAULT_GRACE_PERIOD_NANOS;
 
 	EnhancedProcessOptions(final List<String> commands)
 	{
 		this.commands = commands;
 	}
 
+	static List<String> environment()
+	{
+		return ENVIRONMENT;
+	}
+
+	void setSpawnStrategy(final SpawnStrategy spawnStrategy)
+	{
+		this.spawnStrategy = spawnStrategy;
+	}
+
+	/**
+	 * @param timeoutNanos 0 for no timeout
+	 */
+	void setTimeout(final long timeoutNanos)
+	{
+		this.timeoutNanos = timeoutNanos;
+	}
+
+	void setProcessGroup(final ProcessGroupMode processGroup)
+	{
+		this.processGroup = processGroup;
+	}
+
+	/**
+	 * @return the scheduling settings and resource limits of the children, which may be changed in place
+	 */
+	ChildSettings settings()
+	{
+		return settings;
+	}
+
+	void setGracePeriod(final long gracePeriodNanos)
+	{
+		this.gracePeriodNanos = gracePeriodNanos;
+	}
+
+	void addMonitor(final Monitor monitor)
+	{
+		monitors.add(monitor);
+	}
+
 	void setInputHandler(final Supplier<PipeHandler> inPipeHandlerSupplier)
 	{
 		this.inPipeHandlerSupplier = inPipeHandlerSupplier;
@@ -52,34 +121,189 @@ class EnhancedProcessOptions
 		this.errPipeHandlerSupplier = errPipeHandlerSupplier;
 	}
 
+	void setMergeError(final boolean mergeError)
+	{
+		this.mergeError = mergeError;
+	}
+
+	boolean isMergeError()
+	{
+		return mergeError;
+	}
+
+	Supplier<PipeHandler> getInputHandler()
+	{
+		return inPipeHandlerSupplier;
+	}
+
+	Supplier<PipeHandler> getOutputHandler()
+	{
+		return outPipeHandlerSupplier;
+	}
+
+	/**
+	 * @return the handler the child's standard error gets, which merges it into the output if so requested
+	 */
+	Supplier<PipeHandler> getErrorHandler()
+	{
+		return mergeError ? MERGE : errPipeHandlerSupplier;
+	}
+
+	/**
+	 * @return a copy of these options that is not affected by later changes to this one
+	 */
+	EnhancedProcessOptions copy()
+	{
+		final EnhancedProcessOptions copy = new EnhancedProcessOptions(Collections.unmodifiableList(new ArrayList<>(commands)));
+		copy.setInputHandler(inPipeHandlerSupplier);
+		copy.setOutputHandler(outPipeHandlerSupplier);
+		copy.setErrorHandler(errPipeHandlerSupplier);
+		copy.setMergeError(mergeError);
+		copy.setSpawnStrategy(spawnStrategy);
+		copy.monitors.addAll(monitors);
+		copy.setTimeout(timeoutNanos);
+		copy.setGracePeriod(gracePeriodNanos);
+		copy.setProcessGroup(processGroup);
+		copy.settings = settings.copy();
+		return copy;
+	}
+
+	List<String> getCommands()
+	{
+		return commands;
+	}
+
 	private EnhancedProcess doStart()
 	{
-		final PipeHandler inPipeHandler = inPipeHandlerSupplier.get();
-		final PipeHandler outPipeHandler = outPipeHandlerSupplier.get();
-		final PipeHandler errPipeHandler = errPipeHandlerSupplier.get();
+		return this.start(inPipeHandlerSupplier.get(), outPipeHandlerSupplier.get(), this.getErrorHandler().get());
+	}
 
-		// we have to create the environment variables manually
-		List<String> childEnvVars = System.getenv().entrySet()
-		                          .stream()
-		                          .map(e -> e.getKey() + "=" + e.getValue())
-		                          .collect(Collectors.toList());
+	/**
+	 * Starts the process with the given handlers in place of the configured ones. {@link ProcessPipelineBuilder} uses this to connect
+	 * neighbouring stages.
+	 */
+	EnhancedProcess start(final PipeHandler inPipeHandler, final PipeHandler outPipeHandler, final PipeHandler errPipeHandler)
+	{
+		return this.start(commands.get(0), commands, inPipeHandler, outPipeHandler, errPipeHandler);
+	}
 
-		List<SpawnFileAction> spawnFileActions = new ArrayList<>();
+	/**
+	 * Starts the process with the given executable and arguments in place of the configured commands. {@link SpawnTemplate} uses this to skip
+	 * the search of the {@code PATH} and to add arguments.
+	 */
+	EnhancedProcess start(final String executable, final List<String> arguments,
+	                      final PipeHandler inPipeHandler, final PipeHandler outPipeHandler, final PipeHandler errPipeHandler)
+	{
+		final long spawnStarted = System.nanoTime();
+		List<SpawnFileAction> spawnFileActions = new ArrayList<>(6);
 
 		spawnFileActions.addAll(inPipeHandler.init(posix, Stream.IN));
 		spawnFileActions.addAll(outPipeHandler.init(posix, Stream.OUT));
 		spawnFileActions.addAll(errPipeHandler.init(posix, Stream.ERR));
 
-		long pid = posix.posix_spawnp(commands.get(0),
-		                              spawnFileActions,
-		                              commands,
-		                              childEnvVars);
+		long pid = spawnStrategy.spawn(settings.executable(executable),
+		                               settings.arguments(executable, arguments),
+		                               ENVIRONMENT,
+		                               spawnFileActions,
+		                               processGroup,
+		                               settings);
+		final long spawnNanos = System.nanoTime() - spawnStarted;
+
+		if (pid < 0)
+		{
+			// let every handler release what it set up for the child that never started
+			closeQuietly(inPipeHandler.afterSpawn(posix, Stream.IN));
+			closeQuietly(outPipeHandler.afterSpawn(posix, Stream.OUT));
+			closeQuietly(errPipeHandler.afterSpawn(posix, Stream.ERR));
+			release(outPipeHandler);
+			release(errPipeHandler);
+			throw new RuntimeException("Failed to start process " + arguments + ".");
+		}
 
 		final OutputStream in = getOutputStream(pid, inPipeHandler.afterSpawn(posix, Stream.IN));
 		final InputStream out = getInputStream(pid, outPipeHandler.afterSpawn(posix, Stream.OUT));
 		final InputStream err = getInputStream(pid, errPipeHandler.afterSpawn(posix, Stream.ERR));
 
-		return new EnhancedProcess(pid, in, out, err, posix);
+		final LongSupplier[] transferred = { transferred(inPipeHandler, in), transferred(outPipeHandler, out), transferred(errPipeHandler, err) };
+
+		final Capture[] captures = { null, capture(outPipeHandler), capture(errPipeHandler) };
+
+		final EnhancedProcess process = new EnhancedProcess(pid, arguments, spawnNanos, processGroup, in, out, err, posix,
+		                                                    completion(inPipeHandler, outPipeHandler, errPipeHandler), transferred, captures);
+		spawnStrategy.watch(process);
+		if (timeoutNanos > 0)
+		{
+			process.timeout(timeoutNanos, gracePeriodNanos);
+		}
+		return process;
+	}
+
+	/**
+	 * @return a future that completes once every handler is done with its stream
+	 */
+	private CompletableFuture<Void> completion(final PipeHandler ... handlers)
+	{
+		final List<CompletableFuture<Void>> completions = new ArrayList<>(handlers.length);
+		for (PipeHandler handler : handlers)
+		{
+			final CompletableFuture<Void> completion = handler.completion();
+			if (completion != null)
+			{
+				completions.add(completion);
+			}
+		}
+		if (completions.isEmpty())
+		{
+			return COMPLETED;
+		}
+		return CompletableFuture.allOf(completions.toArray(new CompletableFuture[completions.size()]));
+	}
+
+	/**
+	 * @return counts the bytes moved by the handler itself and through the stream handed to the caller
+	 */
+	private static LongSupplier transferred(final PipeHandler handler, final Object stream)
+	{
+		if (stream instanceof PipeInputStream)
+		{
+			final PipeInputStream in = (PipeInputStream) stream;
+			return () -> handler.transferred() + in.transferred();
+		}
+		else if (stream instanceof PipeOutputStream)
+		{
+			final PipeOutputStream out = (PipeOutputStream) stream;
+			return () -> handler.transferred() + out.transferred();
+		}
+		return handler::transferred;
+	}
+
+	@Nullable
+	private static Capture capture(final PipeHandler handler)
+	{
+		return handler instanceof Capture ? (Capture) handler : null;
+	}
+
+	private static void release(final PipeHandler handler)
+	{
+		if (handler instanceof Capture)
+		{
+			((Capture) handler).release();
+		}
+	}
+
+	private void closeQuietly(@Nullable final ByteChannel byteChannel)
+	{
+		if (byteChannel != null)
+		{
+			try
+			{
+				byteChannel.close();
+			}
+			catch (IOException e)
+			{
+				// nothing more we can do, the spawn failure is what gets reported
+			}
+		}
 	}
 
 	private OutputStream getOutputStream(final long pid, @Nullable final ByteChannel byteChannel)
@@ -88,6 +312,10 @@ class EnhancedProcessOptions
 		{
 			return new NullOutputStream(pid);
 		}
+		else if (byteChannel instanceof NativeDeviceChannel)
+		{
+			return new PipeOutputStream((NativeDeviceChannel) byteChannel);
+		}
 		else
 		{
 			return Channels.newOutputStream(byteChannel);
@@ -100,6 +328,10 @@ class EnhancedProcessOptions
 		{
 			return new NullInputStream(pid);
 		}
+		else if (byteChannel instanceof NativeDeviceChannel)
+		{
+			return new PipeInputStream((NativeDeviceChannel) byteChannel);
+		}
 		else
 		{
 			return Channels.newInputStream(byteChannel);
@@ -111,7 +343,7 @@ class EnhancedProcessOptions
 		return this.doCreate(completion, this::doStart);
 	}
 
-	private <T> EnhancedProcessInvoker<T> doCreate(Function<EnhancedProcess, T> completion, final ProcessStarter processStarter)
+	<T> ProcessCallable<T> doCreate(Function<EnhancedProcess, T> completion, final ProcessStarter processStarter)
 	{
 		final List<Monitor> monitors = detectMonitors();
 
@@ -120,7 +352,7 @@ class EnhancedProcessOptions
 
 	private List<Monitor> detectMonitors()
 	{
-		return Collections.emptyList();
+		return monitors.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(new ArrayList<>(monitors));
 	}
 
 	private class EnhancedProcessInvoker<T> extends AbstractSettableFuture<EnhancedProcess> implements ProcessCallable<T>
@@ -145,6 +377,50 @@ class EnhancedProcessOptions
 
 		@Override
 		public T call() throws Exception
+		{
+			final EnhancedProcess process = this.start();
+
+			while (process.isAlive())
+			{
+				for (Monitor monitor : monitors)
+				{
+					monitor.update(process);
+				}
+				process.waitFor(100, TimeUnit.MILLISECONDS);
+			}
+			// the completion usually reads what the child wrote, so it has to have landed
+			process.onDrained().get();
+			return this.complete(process);
+		}
+
+		@Override
+		public CompletableFuture<T> callAsync(final Executor executor)
+		{
+			final EnhancedProcess process;
+			try
+			{
+				process = this.start();
+			}
+			catch (ExecutionException e)
+			{
+				final CompletableFuture<T> failed = new CompletableFuture<>();
+				failed.completeExceptionally(e.getCause());
+				return failed;
+			}
+			catch (InterruptedException e)
+			{
+				throw new IllegalStateException("Interrupted while the process was already started. This should not be possible.", e);
+			}
+			return process.onExit().thenCompose(EnhancedProcess::onDrained).thenApplyAsync(this::complete, executor);
+		}
+
+		@Override
+		public void whenStarted(final BiConsumer<? super EnhancedProcess, ? super Throwable> action)
+		{
+			this.whenComplete(action);
+		}
+
+		private EnhancedProcess start() throws ExecutionException, InterruptedException
 		{
 			this.doCompute();
 
@@ -154,19 +430,23 @@ class EnhancedProcessOptions
 			{
 				monitor.setup(process);
 			}
-			while (process.isAlive())
+			return process;
+		}
+
+		private T complete(final EnhancedProcess process)
+		{
+			try
+			{
+				return completion.apply(process);
+			}
+			finally
 			{
+				// after the completion, which is usually what reads the child's output
 				for (Monitor monitor : monitors)
 				{
-					monitor.update(process);
+					monitor.cleanup(process);
 				}
-				process.waitFor(100, TimeUnit.MILLISECONDS);
-			}
-			for (Monitor monitor : monitors)
-			{
-				monitor.cleanup(process);
 			}
-			return completion.apply(process);
 		}
 	}
 }
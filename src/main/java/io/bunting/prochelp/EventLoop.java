@@ -0,0 +1,273 @@
+package io.bunting.prochelp;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jnr.enxio.channels.NativeSelectorProvider;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One of a small, fixed pool of threads that watch the parent side of every child's pipes for readiness.
+ *
+ * Channels are registered once and then armed on demand: {@link Registration#arm(int)} asks for a single readiness notification, after which
+ * the interest is cleared again until the next arm. This keeps the level triggered selector from spinning on descriptors nobody is currently
+ * waiting on. All selector state is only touched from the loop's own thread; other threads hand it work through {@link #execute(Runnable)}.
+ *
+ * Handlers run on the loop thread and must not block.
+ */
+final class EventLoop
+{
+	private static final Logger logger = LoggerFactory.getLogger(EventLoop.class);
+
+	private static final int THREADS = Integer.getInteger("io.bunting.prochelp.eventLoopThreads",
+	                                                      Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2)));
+
+	private static final class SingletonHolder
+	{
+		private static final EventLoop[] LOOPS = new EventLoop[THREADS];
+		private static final AtomicInteger NEXT = new AtomicInteger();
+
+		static
+		{
+			for (int i = 0; i < LOOPS.length; i++)
+			{
+				LOOPS[i] = new EventLoop("moreproc-io-" + i);
+			}
+		}
+	}
+
+	/**
+	 * @return the next loop of the shared pool, in round robin order
+	 */
+	static EventLoop next()
+	{
+		return SingletonHolder.LOOPS[(SingletonHolder.NEXT.getAndIncrement() & Integer.MAX_VALUE) % SingletonHolder.LOOPS.length];
+	}
+
+	private final Selector selector;
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	private final Thread thread;
+
+	private EventLoop(final String name)
+	{
+		try
+		{
+			this.selector = NativeSelectorProvider.getInstance().openSelector();
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("Failed to open the event loop's selector.", e);
+		}
+		this.thread = new Thread(this::run, name);
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	boolean inLoop()
+	{
+		return Thread.currentThread() == thread;
+	}
+
+	/**
+	 * Runs the task on the loop thread, after any previously submitted tasks.
+	 */
+	void execute(final Runnable task)
+	{
+		tasks.add(task);
+		if (!inLoop())
+		{
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * Registers a non-blocking channel with this loop. No readiness is reported until the returned registration is armed.
+	 */
+	Registration register(final SelectableChannel channel, final Handler handler)
+	{
+		final Registration registration = new Registration(channel, handler);
+		if (inLoop())
+		{
+			// so that a handler can arm a channel it registers right away
+			registration.doRegister();
+		}
+		else
+		{
+			execute(registration::doRegister);
+		}
+		return registration;
+	}
+
+	private void run()
+	{
+		while (true)
+		{
+			try
+			{
+				Runnable task;
+				while ((task = tasks.poll()) != null)
+				{
+					task.run();
+				}
+
+				selector.select();
+
+				boolean parked = false;
+				final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext())
+				{
+					final SelectionKey key = keys.next();
+					keys.remove();
+					if (key.isValid())
+					{
+						if (key.interestOps() == 0)
+						{
+							// poll(2) reports hang-ups even for descriptors nobody asked about, which would wake the loop over and over, so
+							// the channel leaves the selector until it is armed again
+							key.cancel();
+							parked = true;
+							continue;
+						}
+						final int readyOps = key.readyOps();
+						key.interestOps(0);
+						((Registration) key.attachment()).handler.ready(readyOps);
+					}
+				}
+				if (parked)
+				{
+					// completes the deregistration, so those channels can be registered again
+					selector.selectNow();
+				}
+			}
+			catch (Throwable e)
+			{
+				logger.error("Unexpected failure in the event loop.", e);
+			}
+		}
+	}
+
+	/**
+	 * Receives readiness notifications on the loop thread.
+	 */
+	@FunctionalInterface
+	interface Handler
+	{
+		void ready(int readyOps);
+	}
+
+	/**
+	 * A channel registered with an {@link EventLoop}.
+	 */
+	final class Registration
+	{
+		private final SelectableChannel channel;
+		private final Handler handler;
+		// only touched on the loop thread
+		private SelectionKey key;
+		private boolean closed = false;
+
+		private Registration(final SelectableChannel channel, final Handler handler)
+		{
+			this.channel = channel;
+			this.handler = handler;
+		}
+
+		private void doRegister()
+		{
+			try
+			{
+				key = channel.register(selector, 0, this);
+			}
+			catch (IOException e)
+			{
+				logger.warn("Failed to register channel with the event loop.", e);
+				handler.ready(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			}
+		}
+
+		EventLoop loop()
+		{
+			return EventLoop.this;
+		}
+
+		/**
+		 * Requests a single notification once the channel is ready for any of the given operations.
+		 */
+		void arm(final int ops)
+		{
+			if (inLoop())
+			{
+				// handlers re-arm from the loop itself, so this path must not allocate
+				doArm(ops);
+			}
+			else
+			{
+				execute(() -> doArm(ops));
+			}
+		}
+
+		private void doArm(final int ops)
+		{
+			if (closed || key == null)
+			{
+				return;
+			}
+			if (key.isValid())
+			{
+				key.interestOps(key.interestOps() | ops);
+			}
+			else if (!selector.keys().contains(key))
+			{
+				// parked by the loop after a hang-up
+				try
+				{
+					key = channel.register(selector, ops, this);
+				}
+				catch (IOException | CancelledKeyException e)
+				{
+					handler.ready(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				}
+			}
+			else
+			{
+				// parked in this round of the loop, so register once the selector dropped the key
+				execute(() -> doArm(ops));
+			}
+		}
+
+		/**
+		 * Deregisters and closes the channel on the loop thread, so the descriptor can not be reused while the selector still watches it.
+		 */
+		void close()
+		{
+			execute(() -> {
+				if (closed)
+				{
+					return;
+				}
+				closed = true;
+				if (key != null)
+				{
+					key.cancel();
+				}
+				try
+				{
+					channel.close();
+				}
+				catch (IOException e)
+				{
+					logger.debug("Failed to close channel.", e);
+				}
+			});
+		}
+	}
+}
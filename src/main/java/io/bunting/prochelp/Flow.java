@@ -0,0 +1,50 @@
+package io.bunting.prochelp;
+
+/**
+ * The interfaces of the Reactive Streams specification, laid out like {@code java.util.concurrent.Flow}. This library still runs on Java 8,
+ * which has neither, so it carries its own copy; adapting to either takes one forwarding method per signal.
+ */
+public final class Flow
+{
+	private Flow()
+	{
+	}
+
+	/**
+	 * A source of items that are only sent as far as a {@link Subscriber} asked for them.
+	 */
+	public interface Publisher<T>
+	{
+		void subscribe(Subscriber<? super T> subscriber);
+	}
+
+	/**
+	 * A receiver of items. Its methods are called one at a time, never concurrently.
+	 */
+	public interface Subscriber<T>
+	{
+		void onSubscribe(Subscription subscription);
+
+		void onNext(T item);
+
+		void onError(Throwable throwable);
+
+		void onComplete();
+	}
+
+	/**
+	 * The link between one {@link Publisher} and one {@link Subscriber}.
+	 */
+	public interface Subscription
+	{
+		/**
+		 * Asks for up to {@code n} more items. Requests add up, and {@link Long#MAX_VALUE} asks for everything.
+		 */
+		void request(long n);
+
+		/**
+		 * Stops the flow of items, possibly after a few that were already under way.
+		 */
+		void cancel();
+	}
+}
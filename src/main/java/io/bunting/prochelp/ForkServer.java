@@ -0,0 +1,267 @@
+package io.bunting.prochelp;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import jnr.constants.platform.Errno;
+import jnr.constants.platform.Fcntl;
+import jnr.constants.platform.OpenFlags;
+import jnr.posix.CmsgHdr;
+import jnr.posix.MsgHdr;
+import jnr.posix.POSIX;
+import jnr.posix.POSIXFactory;
+import jnr.posix.SpawnFileAction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The helper process behind {@link SpawnStrategy#forkServer()}. It runs in its own small JVM, started once by
+ * {@link ForkServerSpawnStrategy}, and spawns children on its behalf.
+ *
+ * The two talk over a {@code SOCK_SEQPACKET} socket that the helper finds on its standard input. Every request is a single message holding
+ * the executable, arguments, environment, process group mode and scheduling settings, with the descriptors the child should get as its
+ * standard streams attached as {@code SCM_RIGHTS}. The helper answers each request with the child's pid, or with the reason it could not
+ * spawn it, and reports every child's raw wait status and {@code struct rusage} once it has reaped it.
+ * It exits as soon as the socket is closed, i.e. when the JVM that started it is gone.
+ *
+ * On Linux the helper is a child subreaper, so descendants whose parent exited are reparented to it rather than to init. It reaps them too,
+ * instead of leaving them as zombies, but only reports on the children it spawned.
+ */
+final class ForkServer
+{
+	private static final Logger logger = LoggerFactory.getLogger(ForkServer.class);
+
+	static final int SPAWNED = 1;
+	static final int EXITED = 2;
+	static final int FAILED = 3;
+	static final int REPLY_SIZE = 12 + ResourceUsage.SIZE;
+	static final int MAX_REQUEST_SIZE = 128 * 1024;
+	static final int MAX_DESCRIPTORS = 3;
+
+	static final int AF_UNIX = 1;
+	static final int SOCK_SEQPACKET = 5;
+	static final int SOL_SOCKET = 1;
+	static final int SCM_RIGHTS = 1;
+	private static final int MSG_CMSG_CLOEXEC = 0x40000000;
+	private static final int FD_CLOEXEC = 1;
+
+	private final POSIX posix = POSIXFactory.getPOSIX();
+	private final int socket;
+	private final ByteBuffer request = ByteBuffer.allocateDirect(MAX_REQUEST_SIZE);
+	private final byte[] reply = new byte[REPLY_SIZE];
+	private final int[] status = new int[1];
+	private final ByteBuffer rusage = ByteBuffer.allocateDirect(ResourceUsage.SIZE).order(ByteOrder.nativeOrder());
+	private final Object lock = new Object();
+	// the pids of the children that have not been reaped yet; guarded by lock
+	private final Set<Integer> children = new HashSet<>();
+
+	public static void main(final String[] args)
+	{
+		new ForkServer().run();
+	}
+
+	private ForkServer()
+	{
+		// move the socket out of the way, so children that keep our standard input do not get it
+		socket = posix.dup(0);
+		posix.fcntlInt(socket, Fcntl.F_SETFD, FD_CLOEXEC);
+		final int devNull = posix.open("/dev/null", OpenFlags.O_RDONLY.intValue(), 0);
+		posix.dup2(devNull, 0);
+		posix.close(devNull);
+		if (!Native.setChildSubreaper())
+		{
+			logger.debug("Could not become a child subreaper, orphaned descendants are left to init.");
+		}
+	}
+
+	private void run()
+	{
+		final Thread reaper = new Thread(this::reap, "moreproc-fork-server-reaper");
+		reaper.setDaemon(true);
+		reaper.start();
+
+		final MsgHdr message = posix.allocateMsgHdr();
+		message.setIov(new ByteBuffer[] { request });
+		message.allocateControl(MAX_DESCRIPTORS * 4);
+		while (true)
+		{
+			request.clear();
+			final int n = posix.recvmsg(socket, message, MSG_CMSG_CLOEXEC);
+			if (n <= 0)
+			{
+				if (n < 0 && posix.errno() == Errno.EINTR.intValue())
+				{
+					continue;
+				}
+				// the JVM that owns us is gone
+				System.exit(0);
+			}
+			final List<Integer> descriptors = new ArrayList<>(MAX_DESCRIPTORS);
+			for (CmsgHdr control : message.getControls())
+			{
+				if (control.getLevel() == SOL_SOCKET && control.getType() == SCM_RIGHTS)
+				{
+					final ByteBuffer data = control.getData().order(ByteOrder.nativeOrder());
+					while (data.remaining() >= 4)
+					{
+						descriptors.add(data.getInt());
+					}
+				}
+			}
+			final byte[] bytes = new byte[n];
+			request.get(bytes);
+			try
+			{
+				spawn(bytes, descriptors);
+			}
+			catch (IOException e)
+			{
+				// without an id there is nobody to answer, the caller gives up after its timeout
+				logger.error("Received a spawn request that could not be read.", e);
+			}
+			finally
+			{
+				for (int descriptor : descriptors)
+				{
+					posix.close(descriptor);
+				}
+			}
+		}
+	}
+
+	private void spawn(final byte[] bytes, final List<Integer> descriptors) throws IOException
+	{
+		final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		final int id = in.readInt();
+		try
+		{
+			spawn(id, in, descriptors);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			logger.warn("Failed to spawn the child of request {}.", id, e);
+			fail(id, e);
+		}
+	}
+
+	private void spawn(final int id, final DataInputStream in, final List<Integer> descriptors) throws IOException
+	{
+		final String executable = readString(in);
+		final List<String> arguments = readStrings(in);
+		final List<String> environment = readStrings(in);
+		final int dups = in.readInt();
+		final List<SpawnFileAction> fileActions = new ArrayList<>(dups);
+		for (int i = 0; i < dups; i++)
+		{
+			fileActions.add(SpawnFileAction.dup(descriptors.get(i), in.readInt()));
+		}
+		final ProcessGroupMode processGroup = ProcessGroupMode.values()[in.readInt()];
+		final ChildSettings settings = ChildSettings.readThreadAttributes(in);
+
+		final long pid;
+		synchronized (lock)
+		{
+			pid = settings.spawn(() -> posix.posix_spawnp(executable, fileActions, processGroup.attributes(), arguments, environment));
+			if (pid > 0)
+			{
+				children.add((int) pid);
+				lock.notifyAll();
+			}
+		}
+		send(SPAWNED, id, (int) pid, null);
+	}
+
+	/**
+	 * Answers a request that failed with the message of the failure, cut to what fits into a reply.
+	 */
+	private void fail(final int id, final Exception e)
+	{
+		final String message = e.getMessage() == null ? e.toString() : e.getMessage();
+		final byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+		final int length = Math.min(bytes.length, REPLY_SIZE - 12);
+		send(FAILED, id, length, ByteBuffer.wrap(bytes, 0, length));
+	}
+
+	private void reap()
+	{
+		while (true)
+		{
+			try
+			{
+				final int pid = Native.wait4(-1, status, 0, rusage);
+				if (pid > 0)
+				{
+					final boolean spawned;
+					synchronized (lock)
+					{
+						spawned = children.remove(pid);
+					}
+					// otherwise a descendant that was reparented to us, which nobody asked about
+					if (spawned)
+					{
+						rusage.clear();
+						send(EXITED, pid, status[0], rusage);
+					}
+				}
+				else
+				{
+					// no children at all, including reparented ones, until the next spawn
+					synchronized (lock)
+					{
+						while (children.isEmpty())
+						{
+							lock.wait();
+						}
+					}
+				}
+			}
+			catch (InterruptedException e)
+			{
+				return;
+			}
+		}
+	}
+
+	private void send(final int type, final int first, final int second, final ByteBuffer usage)
+	{
+		synchronized (reply)
+		{
+			final ByteBuffer buffer = ByteBuffer.wrap(reply).putInt(type).putInt(first).putInt(second);
+			if (usage != null)
+			{
+				buffer.put(usage);
+			}
+			if (posix.write(socket, reply, REPLY_SIZE) != REPLY_SIZE)
+			{
+				System.exit(0);
+			}
+		}
+	}
+
+	private static List<String> readStrings(final DataInputStream in) throws IOException
+	{
+		final int count = in.readInt();
+		final List<String> strings = new ArrayList<>(count);
+		for (int i = 0; i < count; i++)
+		{
+			strings.add(readString(in));
+		}
+		return strings;
+	}
+
+	private static String readString(final DataInputStream in) throws IOException
+	{
+		final byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,520 @@
+package io.bunting.prochelp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import jnr.constants.platform.Errno;
+import jnr.constants.platform.Fcntl;
+import jnr.posix.CmsgHdr;
+import jnr.posix.MsgHdr;
+import jnr.posix.POSIX;
+import jnr.posix.POSIXFactory;
+import jnr.posix.SpawnFileAction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Has children spawned by a {@link ForkServer} running in a small JVM of its own, rather than by this one.
+ *
+ * The helper is started on first use and restarted if it dies. The descriptors a child should get as its standard streams are passed to
+ * the helper with {@code SCM_RIGHTS}; descriptors the spawn file actions close only exist in this JVM and are close-on-exec here anyway, so
+ * they are not sent. The children are the helper's, not ours, so it reaps them and relays their wait status and resource usage, which
+ * are then recorded exactly as the {@link ProcessReaper} would. A caller waits for the helper's answer for at most the milliseconds given
+ * by the system property {@code io.bunting.prochelp.forkServer.replyTimeoutMillis}, 30 seconds by default. A helper that exits instead,
+ * for example because it failed to start, fails the requests waiting on it right away.
+ */
+final class ForkServerSpawnStrategy extends SpawnStrategy
+{
+	private static final Logger logger = LoggerFactory.getLogger(ForkServerSpawnStrategy.class);
+
+	static final ForkServerSpawnStrategy INSTANCE = new ForkServerSpawnStrategy();
+
+	/**
+	 * The wait status recorded for children whose helper died before reporting on them. Decodes to an exit value of 255.
+	 */
+	private static final int UNKNOWN_STATUS = 0xFF00;
+
+	private static final String JVM_OPTIONS = System.getProperty("io.bunting.prochelp.forkServer.jvmOptions",
+	                                                             "-Xms4m -Xmx16m -XX:+UseSerialGC -XX:TieredStopAtLevel=1 -Xss256k");
+	// covers starting the helper's JVM along with the first request
+	private static final long REPLY_TIMEOUT_MILLIS = Long.getLong("io.bunting.prochelp.forkServer.replyTimeoutMillis", 30000);
+	// the helper runs ForkServer and what it needs; the application's class path is only a fallback, as it may not hold this library at all
+	private static final String[] HELPER_CLASSES = { "io.bunting.prochelp.ForkServer", "jnr.posix.POSIX", "jnr.ffi.LibraryLoader",
+	                                                 "com.kenai.jffi.Foreign", "jnr.constants.Constant", "org.objectweb.asm.ClassVisitor",
+	                                                 "jnr.x86asm.Assembler", "org.slf4j.LoggerFactory" };
+
+	private final POSIX posix = POSIXFactory.getPOSIX();
+	private final Supplier<List<String>> helperCommand;
+	private final AtomicInteger nextId = new AtomicInteger();
+	// starting the helper takes a while, so callers park on a lock rather than pinning a virtual thread in a monitor
+	private final ReentrantLock lock = new ReentrantLock();
+	// guarded by lock
+	private Connection connection;
+
+	private ForkServerSpawnStrategy()
+	{
+		this(ForkServerSpawnStrategy::helperCommand);
+	}
+
+	/**
+	 * @param helperCommand gives the command that starts the helper, with the socket as its standard input
+	 */
+	ForkServerSpawnStrategy(final Supplier<List<String>> helperCommand)
+	{
+		this.helperCommand = helperCommand;
+	}
+
+	private static List<String> helperCommand()
+	{
+		final List<String> command = new ArrayList<>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.addAll(Arrays.asList(JVM_OPTIONS.trim().split("\\s+")));
+		command.add("-cp");
+		command.add(helperClassPath());
+		command.add(ForkServer.class.getName());
+		return command;
+	}
+
+	/**
+	 * @return the locations ForkServer and the libraries it uses were loaded from, followed by this JVM's class path for anything missed
+	 */
+	private static String helperClassPath()
+	{
+		final ClassLoader loader = ForkServer.class.getClassLoader();
+		final Set<String> entries = new LinkedHashSet<>();
+		for (String name : HELPER_CLASSES)
+		{
+			try
+			{
+				final CodeSource source = Class.forName(name, false, loader).getProtectionDomain().getCodeSource();
+				if (source != null && source.getLocation() != null)
+				{
+					addFile(entries, source.getLocation());
+				}
+			}
+			catch (ClassNotFoundException | RuntimeException e)
+			{
+				logger.debug("Could not locate {} for the fork server's class path.", name, e);
+			}
+		}
+		// jffi's native library comes in a jar of its own, without any classes
+		final URL natives = loader.getResource("jni/");
+		if (natives != null && "jar".equals(natives.getProtocol()))
+		{
+			try
+			{
+				addFile(entries, ((JarURLConnection) natives.openConnection()).getJarFileURL());
+			}
+			catch (IOException | RuntimeException e)
+			{
+				logger.debug("Could not locate jffi's native library for the fork server's class path.", e);
+			}
+		}
+		entries.addAll(Arrays.asList(System.getProperty("java.class.path").split(File.pathSeparator)));
+		entries.remove("");
+		return String.join(File.pathSeparator, entries);
+	}
+
+	private static void addFile(final Set<String> entries, final URL location)
+	{
+		if ("file".equals(location.getProtocol()))
+		{
+			try
+			{
+				entries.add(Paths.get(location.toURI()).toString());
+			}
+			catch (URISyntaxException e)
+			{
+				logger.debug("Could not convert {} for the fork server's class path.", location, e);
+			}
+		}
+	}
+
+	@Override
+	long spawn(final String executable, final List<String> arguments, final List<String> environment, final List<SpawnFileAction> fileActions,
+	           final ProcessGroupMode processGroup, final ChildSettings settings)
+	{
+		final List<Integer> descriptors = new ArrayList<>(ForkServer.MAX_DESCRIPTORS);
+		final List<Integer> targets = new ArrayList<>(ForkServer.MAX_DESCRIPTORS);
+		for (SpawnFileAction fileAction : fileActions)
+		{
+			FileActions.describe(fileAction, descriptors, targets);
+		}
+		FileActions.resolve(descriptors, targets);
+
+		final int id = nextId.incrementAndGet();
+		final byte[] request = encode(id, executable, arguments, environment, targets, processGroup, settings);
+		final Connection connection = this.connection();
+		final CompletableFuture<Integer> reply = connection.send(id, request, descriptors);
+		try
+		{
+			return reply.get(REPLY_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException e)
+		{
+			connection.abandon(id);
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for the fork server.", e);
+		}
+		catch (TimeoutException e)
+		{
+			connection.abandon(id);
+			throw new RuntimeException("The fork server did not answer the request to start " + arguments + " within " + REPLY_TIMEOUT_MILLIS
+			                           + " ms.", e);
+		}
+		catch (ExecutionException e)
+		{
+			throw new RuntimeException("The fork server failed to start " + arguments + ".", e.getCause());
+		}
+	}
+
+	@Override
+	void watch(final EnhancedProcess process)
+	{
+		this.connection().watch(process);
+	}
+
+	private Connection connection()
+	{
+		lock.lock();
+		try
+		{
+			if (connection == null || connection.closed)
+			{
+				connection = new Connection();
+			}
+			return connection;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	private static byte[] encode(final int id, final String executable, final List<String> arguments, final List<String> environment,
+	                             final List<Integer> targets, final ProcessGroupMode processGroup, final ChildSettings settings)
+	{
+		try
+		{
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+			final DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(id);
+			writeString(out, executable);
+			writeStrings(out, arguments);
+			writeStrings(out, environment);
+			out.writeInt(targets.size());
+			for (int target : targets)
+			{
+				out.writeInt(target);
+			}
+			out.writeInt(processGroup.ordinal());
+			settings.writeThreadAttributes(out);
+			if (bytes.size() > ForkServer.MAX_REQUEST_SIZE)
+			{
+				throw new RuntimeException("The arguments and environment of " + arguments + " are too large for the fork server.");
+			}
+			return bytes.toByteArray();
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("Failed to encode spawn request.", e);
+		}
+	}
+
+	private static void writeStrings(final DataOutputStream out, final List<String> strings) throws IOException
+	{
+		out.writeInt(strings.size());
+		for (String string : strings)
+		{
+			writeString(out, string);
+		}
+	}
+
+	private static void writeString(final DataOutputStream out, final String string) throws IOException
+	{
+		final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * One running helper, and the thread that reads its replies.
+	 */
+	private final class Connection
+	{
+		private final List<String> command = helperCommand.get();
+		private final int socket;
+		private final long pid;
+		private final Map<Integer, CompletableFuture<Integer>> pending = new ConcurrentHashMap<>();
+		// guarded by watched
+		private final Map<Long, EnhancedProcess> watched = new HashMap<>();
+		private final Map<Long, Consumer<EnhancedProcess>> exited = new HashMap<>();
+		private volatile boolean closed = false;
+		// only touched by the reader thread
+		private boolean answered = false;
+
+		private Connection()
+		{
+			final int[] fds = new int[2];
+			if (posix.socketpair(ForkServer.AF_UNIX, ForkServer.SOCK_SEQPACKET, 0, fds) < 0)
+			{
+				throw new RuntimeException("Failed to create the fork server's socket. " + Errno.valueOf(posix.errno()).description());
+			}
+			posix.fcntlInt(fds[0], Fcntl.F_SETFD, 1);
+			posix.fcntlInt(fds[1], Fcntl.F_SETFD, 1);
+
+			pid = posix.posix_spawnp(command.get(0), Arrays.asList(SpawnFileAction.dup(fds[1], 0)), command, EnhancedProcessOptions.environment());
+			posix.close(fds[1]);
+			if (pid < 0)
+			{
+				posix.close(fds[0]);
+				throw new RuntimeException("Failed to start the fork server " + command + ".");
+			}
+			socket = fds[0];
+			logger.debug("Started fork server with pid {}.", pid);
+
+			final Thread reader = new Thread(this::read, "moreproc-fork-server-" + pid);
+			reader.setDaemon(true);
+			reader.start();
+		}
+
+		private CompletableFuture<Integer> send(final int id, final byte[] request, final List<Integer> descriptors)
+		{
+			final CompletableFuture<Integer> reply = new CompletableFuture<>();
+			pending.put(id, reply);
+
+			final ByteBuffer data = ByteBuffer.allocateDirect(request.length);
+			data.put(request).flip();
+			final MsgHdr message = posix.allocateMsgHdr();
+			message.setIov(new ByteBuffer[] { data });
+			if (!descriptors.isEmpty())
+			{
+				final ByteBuffer rights = ByteBuffer.allocate(descriptors.size() * 4).order(ByteOrder.nativeOrder());
+				descriptors.forEach(rights::putInt);
+				rights.flip();
+				final CmsgHdr control = message.allocateControl(rights.remaining());
+				control.setLevel(ForkServer.SOL_SOCKET);
+				control.setType(ForkServer.SCM_RIGHTS);
+				control.setData(rights);
+			}
+			if (posix.sendmsg(socket, message, 0) < 0)
+			{
+				pending.remove(id);
+				reply.completeExceptionally(new IOException("Failed to send the spawn request. " + Errno.valueOf(posix.errno()).description()));
+			}
+			if (closed)
+			{
+				// the reader may have failed the pending requests before we registered ours
+				reply.completeExceptionally(new IOException("The fork server has exited."));
+			}
+			return reply;
+		}
+
+		/**
+		 * Forgets a request the caller no longer waits for. A child the helper still spawns for it is not watched, and is reaped unnoticed.
+		 */
+		private void abandon(final int id)
+		{
+			pending.remove(id);
+		}
+
+		private void watch(final EnhancedProcess process)
+		{
+			final Consumer<EnhancedProcess> reaped;
+			synchronized (watched)
+			{
+				reaped = exited.remove(process.getPid());
+				if (reaped == null)
+				{
+					if (closed)
+					{
+						process.reaped(UNKNOWN_STATUS, ResourceUsage.UNKNOWN);
+						return;
+					}
+					watched.put(process.getPid(), process);
+					return;
+				}
+			}
+			reaped.accept(process);
+		}
+
+		private void read()
+		{
+			final byte[] reply = new byte[ForkServer.REPLY_SIZE];
+			while (true)
+			{
+				final int n = posix.read(socket, reply, reply.length);
+				if (n < 0 && posix.errno() == Errno.EINTR.intValue())
+				{
+					continue;
+				}
+				if (n != reply.length)
+				{
+					break;
+				}
+				answered = true;
+				final ByteBuffer buffer = ByteBuffer.wrap(reply);
+				final int type = buffer.getInt();
+				final int first = buffer.getInt();
+				final int second = buffer.getInt();
+				if (type == ForkServer.SPAWNED)
+				{
+					final CompletableFuture<Integer> future = pending.remove(first);
+					if (future != null)
+					{
+						future.complete(second);
+					}
+					else
+					{
+						logger.warn("The fork server started pid {} for a request that was given up on.", second);
+					}
+				}
+				else if (type == ForkServer.FAILED)
+				{
+					final CompletableFuture<Integer> future = pending.remove(first);
+					if (future != null)
+					{
+						future.completeExceptionally(new RuntimeException(new String(reply, 12, second, StandardCharsets.UTF_8)));
+					}
+				}
+				else if (type == ForkServer.EXITED)
+				{
+					exited(first, second, ResourceUsage.decode(buffer.slice().order(ByteOrder.nativeOrder())));
+				}
+			}
+			logger.warn("The fork server with pid {} has exited.", pid);
+			close();
+		}
+
+		private void exited(final long pid, final int status, final ResourceUsage usage)
+		{
+			final EnhancedProcess process;
+			synchronized (watched)
+			{
+				process = watched.remove(pid);
+				if (process == null)
+				{
+					// the reply to the spawn request is still on its way to the caller
+					exited.put(pid, orphan -> orphan.reaped(status, usage));
+					return;
+				}
+			}
+			process.reaped(status, usage);
+		}
+
+		private void close()
+		{
+			closed = true;
+			posix.close(socket);
+			// the helper is our own child, and has exited by the time its end of the socket is closed
+			final int[] status = new int[1];
+			posix.waitpid(pid, status, 0);
+			final String message = answered ? "The fork server has exited."
+			                                : "The fork server exited with wait status 0x" + Integer.toHexString(status[0])
+			                                  + " before answering, so it most likely failed to start; see its standard error. It was started as "
+			                                  + command + ".";
+			pending.values().forEach(future -> future.completeExceptionally(new IOException(message)));
+			pending.clear();
+			final List<EnhancedProcess> orphans;
+			synchronized (watched)
+			{
+				orphans = new ArrayList<>(watched.values());
+				watched.clear();
+				exited.clear();
+			}
+			orphans.forEach(process -> process.reaped(UNKNOWN_STATUS, ResourceUsage.UNKNOWN));
+		}
+	}
+
+	/**
+	 * Reads jnr's spawn file actions, which do not expose what they do.
+	 */
+	private static final class FileActions
+	{
+		private static final Field DUP_FD;
+		private static final Field DUP_NEWFD;
+
+		static
+		{
+			try
+			{
+				final Class<?> dup = Class.forName(SpawnFileAction.class.getName() + "$Dup");
+				DUP_FD = dup.getDeclaredField("fd");
+				DUP_NEWFD = dup.getDeclaredField("newfd");
+				DUP_FD.setAccessible(true);
+				DUP_NEWFD.setAccessible(true);
+			}
+			catch (ReflectiveOperationException e)
+			{
+				throw new ExceptionInInitializerError(e);
+			}
+		}
+
+		static void describe(final SpawnFileAction fileAction, final List<Integer> descriptors, final List<Integer> targets)
+		{
+			if (fileAction.getClass() == DUP_FD.getDeclaringClass())
+			{
+				try
+				{
+					descriptors.add(DUP_FD.getInt(fileAction));
+					targets.add(DUP_NEWFD.getInt(fileAction));
+				}
+				catch (IllegalAccessException e)
+				{
+					throw new RuntimeException("Failed to read spawn file action " + fileAction + ".", e);
+				}
+			}
+			else if (!fileAction.getClass().getSimpleName().equals("Close"))
+			{
+				throw new UnsupportedOperationException("The fork server does not support spawn file action " + fileAction + ".");
+			}
+		}
+
+		/**
+		 * Replaces descriptors that refer to what an earlier dup put in place in the child, such as the output that the error is merged into,
+		 * with the descriptor that earlier dup came from.
+		 */
+		static void resolve(final List<Integer> descriptors, final List<Integer> targets)
+		{
+			for (int i = 1; i < descriptors.size(); i++)
+			{
+				for (int j = i - 1; j >= 0; j--)
+				{
+					if (descriptors.get(i).equals(targets.get(j)))
+					{
+						descriptors.set(i, descriptors.get(j));
+						break;
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package io.bunting.prochelp;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative longs, laid out like an HDR histogram: values below 16 get a bucket each, and every power of two
+ * above is split into 16 linear buckets. That covers the whole range of a long in 960 buckets, with every recorded value within 1/16th of
+ * its bucket's bounds. Recording is one atomic increment plus two striped counters, so it is cheap enough for every spawn and exit.
+ */
+public final class Histogram
+{
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Records a value. Negative values are recorded as 0.
+	 */
+	public void record(final long value)
+	{
+		final long v = Math.max(value, 0);
+		counts.incrementAndGet(index(v));
+		count.increment();
+		sum.add(v);
+		max.accumulate(v);
+	}
+
+	public long count()
+	{
+		return count.sum();
+	}
+
+	public long max()
+	{
+		return max.get();
+	}
+
+	public double mean()
+	{
+		final long n = count.sum();
+		return n == 0 ? 0 : (double) sum.sum() / n;
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the upper bound of the bucket holding the value at the percentile, capped at the largest value recorded, or 0 if nothing was
+	 * recorded
+	 */
+	public long percentile(final double percentile)
+	{
+		final long total = count.sum();
+		if (total == 0)
+		{
+			return 0;
+		}
+		final long rank = Math.max(1, (long) Math.ceil(total * Math.min(Math.max(percentile, 0), 100) / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			seen += counts.get(i);
+			if (seen >= rank)
+			{
+				return Math.min(upperBound(i), this.max());
+			}
+		}
+		// values recorded while we were counting
+		return this.max();
+	}
+
+	static int index(final long value)
+	{
+		if (value < SUB_BUCKETS)
+		{
+			return (int) value;
+		}
+		final int exponent = 63 - Long.numberOfLeadingZeros(value);
+		final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	static long upperBound(final int index)
+	{
+		if (index < SUB_BUCKETS)
+		{
+			return index;
+		}
+		final int shift = index / SUB_BUCKETS - 1;
+		final long lowerBound = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+		return lowerBound + (1L << shift) - 1;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "Histogram{count=" + count() + ", mean=" + mean() + ", p50=" + percentile(50) + ", p99=" + percentile(99) + ", max=" + max() + "}";
+	}
+}
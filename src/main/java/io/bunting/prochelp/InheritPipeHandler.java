@@ -0,0 +1,33 @@
+package io.bunting.prochelp;
+
+import java.nio.channels.ByteChannel;
+import java.util.Collections;
+import java.util.List;
+
+import jnr.posix.POSIX;
+import jnr.posix.SpawnFileAction;
+
+/**
+ * Lets the child use the JVM's own standard stream. Nothing is created for it; the stream is dup'ed onto itself only so that a
+ * {@link ForkServerSpawnStrategy fork server}, whose standard input is not ours, passes on the right descriptor.
+ */
+final class InheritPipeHandler implements PipeHandler
+{
+	static final InheritPipeHandler INSTANCE = new InheritPipeHandler();
+
+	private InheritPipeHandler()
+	{
+	}
+
+	@Override
+	public List<SpawnFileAction> init(final POSIX posix, final Stream stream)
+	{
+		return Collections.singletonList(SpawnFileAction.dup(stream.getNumber(), stream.getNumber()));
+	}
+
+	@Override
+	public ByteChannel afterSpawn(final POSIX posix, final Stream stream)
+	{
+		return null;
+	}
+}
@@ -0,0 +1,27 @@
+package io.bunting.prochelp;
+
+/**
+ * The Linux I/O scheduling classes, see {@link EnhancedProcessBuilder#ioPriority(IoPriorityClass, int)}.
+ */
+public enum IoPriorityClass
+{
+	/**
+	 * Served before anything else. Requires privileges.
+	 */
+	REALTIME(1),
+	/**
+	 * The default class, with levels from 0 (highest) to 7 (lowest).
+	 */
+	BEST_EFFORT(2),
+	/**
+	 * Only served when no other process needs the disk.
+	 */
+	IDLE(3);
+
+	final int value;
+
+	IoPriorityClass(final int value)
+	{
+		this.value = value;
+	}
+}
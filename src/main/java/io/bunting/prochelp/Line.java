@@ -0,0 +1,142 @@
+package io.bunting.prochelp;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A line of a child's output, without its line terminator, as a view of the raw bytes that were read from the pipe.
+ *
+ * The bytes are decoded as UTF-8 only when the line is used as a {@link CharSequence}, and not at all for lines that are pure ASCII, into a
+ * buffer that is reused from line to line. Apart from {@link #subSequence(int, int)} and {@link #toString()}, nothing here allocates. The
+ * line is only valid during the {@link LineConsumer#onLine(Line)} callback it was handed to.
+ */
+public final class Line implements CharSequence
+{
+	private static final int UNKNOWN = 0;
+	private static final int ASCII = 1;
+	private static final int DECODED = 2;
+
+	private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+	                                                             .onMalformedInput(CodingErrorAction.REPLACE)
+	                                                             .onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private CharBuffer chars = CharBuffer.allocate(256);
+	private ByteBuffer bytes;
+	private int offset;
+	private int byteLength;
+	private int state;
+
+	Line()
+	{
+	}
+
+	/**
+	 * Points this line at the bytes between {@code offset} and {@code offset + byteLength} of the buffer, which is not otherwise shared.
+	 */
+	void reset(final ByteBuffer bytes, final int offset, final int byteLength)
+	{
+		this.bytes = bytes;
+		this.offset = offset;
+		this.byteLength = byteLength;
+		this.state = UNKNOWN;
+	}
+
+	/**
+	 * @return the number of bytes in the line
+	 */
+	public int byteLength()
+	{
+		return byteLength;
+	}
+
+	/**
+	 * @return the byte at the given index of the line
+	 */
+	public byte byteAt(final int index)
+	{
+		if (index < 0 || index >= byteLength)
+		{
+			throw new IndexOutOfBoundsException("Index " + index + " is out of bounds for a line of " + byteLength + " bytes.");
+		}
+		return bytes.get(offset + index);
+	}
+
+	/**
+	 * @return a read-only buffer holding the line's bytes between its position and limit; it is reused for the next line
+	 */
+	public ByteBuffer bytes()
+	{
+		bytes.limit(offset + byteLength).position(offset);
+		return bytes;
+	}
+
+	@Override
+	public int length()
+	{
+		return this.decode() == ASCII ? byteLength : chars.limit();
+	}
+
+	@Override
+	public char charAt(final int index)
+	{
+		if (this.decode() == ASCII)
+		{
+			return (char) this.byteAt(index);
+		}
+		return chars.get(index);
+	}
+
+	@Override
+	public CharSequence subSequence(final int start, final int end)
+	{
+		return this.toString().substring(start, end);
+	}
+
+	@Override
+	public String toString()
+	{
+		if (this.decode() == ASCII)
+		{
+			final char[] ascii = new char[byteLength];
+			for (int i = 0; i < byteLength; i++)
+			{
+				ascii[i] = (char) bytes.get(offset + i);
+			}
+			return new String(ascii);
+		}
+		return chars.toString();
+	}
+
+	private int decode()
+	{
+		if (state != UNKNOWN)
+		{
+			return state;
+		}
+		state = ASCII;
+		for (int i = offset; i < offset + byteLength; i++)
+		{
+			if (bytes.get(i) < 0)
+			{
+				state = DECODED;
+				break;
+			}
+		}
+		if (state == DECODED)
+		{
+			if (chars.capacity() < byteLength)
+			{
+				// UTF-8 never takes fewer bytes than UTF-16 chars
+				chars = CharBuffer.allocate(Math.max(byteLength, chars.capacity() * 2));
+			}
+			chars.clear();
+			decoder.reset();
+			decoder.decode(this.bytes(), chars, true);
+			decoder.flush(chars);
+			chars.flip();
+		}
+		return state;
+	}
+}
@@ -0,0 +1,20 @@
+package io.bunting.prochelp;
+
+/**
+ * Receives a child's output one line at a time, see {@link Redirect#toLines(LineConsumer)}.
+ *
+ * Callbacks are made from one of the library's shared I/O threads, and must return quickly and must not block, just like those of a
+ * {@link ChunkConsumer}. The {@link Line} handed over is reused for the next line, so it must not be kept beyond the callback.
+ */
+@FunctionalInterface
+public interface LineConsumer
+{
+	void onLine(Line line);
+
+	/**
+	 * Called once after the last line, when the child has closed its side of the stream.
+	 */
+	default void onEndOfStream()
+	{
+	}
+}
@@ -0,0 +1,105 @@
+package io.bunting.prochelp;
+
+import java.nio.ByteBuffer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Splits chunks of output into lines for a {@link LineConsumer}. Lines that lie within a chunk are handed over as views of the chunk's
+ * buffer; only the part of a line that straddles the end of a chunk is copied, into a carry buffer that grows to the longest such line and
+ * is then reused. Lines end at {@code \n}, and a {@code \r} right before it is dropped as well.
+ */
+final class LineSplitter implements ChunkConsumer
+{
+	private static final Logger logger = LoggerFactory.getLogger(LineSplitter.class);
+
+	private final LineConsumer consumer;
+	private final Line line = new Line();
+	private ByteBuffer carry = ByteBuffer.allocate(1024);
+	private ByteBuffer carryView = carry.asReadOnlyBuffer();
+
+	LineSplitter(final LineConsumer consumer)
+	{
+		this.consumer = consumer;
+	}
+
+	@Override
+	public void onChunk(final Chunk chunk)
+	{
+		try
+		{
+			final ByteBuffer buffer = chunk.buffer();
+			final ByteBuffer view = buffer.asReadOnlyBuffer();
+			final int end = buffer.limit();
+			int start = buffer.position();
+			for (int i = start; i < end; i++)
+			{
+				if (buffer.get(i) != '\n')
+				{
+					continue;
+				}
+				if (carry.position() > 0)
+				{
+					this.append(buffer, start, i);
+					this.emit(carryView, 0, carry.position());
+					carry.clear();
+				}
+				else
+				{
+					this.emit(view, start, i - start);
+				}
+				start = i + 1;
+			}
+			this.append(buffer, start, end);
+		}
+		finally
+		{
+			chunk.release();
+		}
+	}
+
+	@Override
+	public void onEndOfStream()
+	{
+		if (carry.position() > 0)
+		{
+			this.emit(carryView, 0, carry.position());
+			carry.clear();
+		}
+		consumer.onEndOfStream();
+	}
+
+	private void append(final ByteBuffer buffer, final int start, final int end)
+	{
+		final int length = end - start;
+		if (carry.remaining() < length)
+		{
+			final ByteBuffer grown = ByteBuffer.allocate(Math.max(carry.capacity() * 2, carry.position() + length));
+			carry.flip();
+			grown.put(carry);
+			carry = grown;
+			carryView = carry.asReadOnlyBuffer();
+		}
+		for (int i = start; i < end; i++)
+		{
+			carry.put(buffer.get(i));
+		}
+	}
+
+	private void emit(final ByteBuffer bytes, final int offset, final int length)
+	{
+		// the consumer may have narrowed the view to the previous line
+		bytes.limit(bytes.capacity());
+		final int trimmed = length > 0 && bytes.get(offset + length - 1) == '\r' ? length - 1 : length;
+		line.reset(bytes, offset, trimmed);
+		try
+		{
+			consumer.onLine(line);
+		}
+		catch (RuntimeException e)
+		{
+			logger.warn("Line consumer failed.", e);
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package io.bunting.prochelp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+import jnr.posix.POSIX;
+import jnr.posix.SpawnFileAction;
+
+/**
+ * Gives the child an in-memory payload as its standard input. The payload is copied once into an anonymous {@code memfd_create(2)} file,
+ * which becomes the child's standard input, so the child reads it at memory speed and nobody has to write it through a pipe while the
+ * output is drained. Where there is no {@code memfd_create(2)}, an unlinked temporary file takes its place.
+ */
+class MemoryPipeHandler implements PipeHandler
+{
+	private static final byte[] NAME = "moreproc-stdin\0".getBytes(StandardCharsets.US_ASCII);
+
+	private final ByteBuffer payload;
+	private int fd = -1;
+
+	/**
+	 * @param payload the bytes between position and limit are given to the child; the buffer itself is left untouched
+	 */
+	MemoryPipeHandler(final ByteBuffer payload)
+	{
+		this.payload = payload;
+	}
+
+	@Override
+	public List<SpawnFileAction> init(final POSIX posix, final Stream stream)
+	{
+		if (!stream.isParentWriteSide())
+		{
+			throw new IllegalArgumentException("In-memory payloads can only provide input, not receive output.");
+		}
+		try
+		{
+			fd = Native.anonymousFile(NAME, false);
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("Failed to create a file for the child's input. " + e.getMessage(), e);
+		}
+		try
+		{
+			Native.pwriteFully(fd, payload, 0);
+		}
+		catch (IOException e)
+		{
+			posix.close(fd);
+			throw new RuntimeException("Failed to write the payload for the child's input. " + e.getMessage(), e);
+		}
+		return Collections.singletonList(SpawnFileAction.dup(fd, stream.getNumber()));
+	}
+
+	@Override
+	public ByteChannel afterSpawn(final POSIX posix, final Stream stream)
+	{
+		posix.close(fd);
+		return null;
+	}
+
+	@Override
+	public long transferred()
+	{
+		return payload.remaining();
+	}
+}
@@ -0,0 +1,37 @@
+package io.bunting.prochelp;
+
+import java.nio.channels.ByteChannel;
+import java.util.Collections;
+import java.util.List;
+
+import jnr.posix.POSIX;
+import jnr.posix.SpawnFileAction;
+
+/**
+ * Sends the child's standard error wherever its standard output goes, by dup'ing the child's descriptor 1 onto 2 after the output has been
+ * set up. The two are merged by the kernel, in the order the child wrote them.
+ */
+final class MergePipeHandler implements PipeHandler
+{
+	static final MergePipeHandler INSTANCE = new MergePipeHandler();
+
+	private MergePipeHandler()
+	{
+	}
+
+	@Override
+	public List<SpawnFileAction> init(final POSIX posix, final Stream stream)
+	{
+		if (stream != Stream.ERR)
+		{
+			throw new IllegalArgumentException("Only the error stream can be merged into the output.");
+		}
+		return Collections.singletonList(SpawnFileAction.dup(Stream.OUT.getNumber(), Stream.ERR.getNumber()));
+	}
+
+	@Override
+	public ByteChannel afterSpawn(final POSIX posix, final Stream stream)
+	{
+		return null;
+	}
+}
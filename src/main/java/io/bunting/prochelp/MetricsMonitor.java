@@ -0,0 +1,165 @@
+package io.bunting.prochelp;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link Monitor} that keeps statistics per executable: how long spawning and running the children took, how much CPU time and memory
+ * they used, how they exited and how many bytes went through each of their standard streams. Executables are keyed by the last element of their path, so {@code /bin/echo} and
+ * {@code echo} are counted together.
+ *
+ * Recording never takes a lock, so a single instance can be shared by every builder of an application:
+ *
+ * <pre>
+ * MetricsMonitor metrics = new MetricsMonitor();
+ * new EnhancedProcessBuilder("git", "status").monitor(metrics).create(...)
+ * metrics.get("git").lifetimeNanos().percentile(99)
+ * </pre>
+ */
+public final class MetricsMonitor implements Monitor
+{
+	private final ConcurrentHashMap<String, Metrics> metrics = new ConcurrentHashMap<>();
+
+	@Override
+	public void setup(final EnhancedProcess process)
+	{
+		final Metrics metrics = this.metrics(process);
+		metrics.spawnNanos.record(process.getSpawnNanos());
+		metrics.running.increment();
+	}
+
+	@Override
+	public void cleanup(final EnhancedProcess process)
+	{
+		final Metrics metrics = this.metrics(process);
+		metrics.running.decrement();
+		metrics.lifetimeNanos.record(process.getLifetimeNanos());
+		final ResourceUsage usage = process.getResourceUsage();
+		metrics.cpuNanos.record(usage.cpuNanos());
+		metrics.maxRssBytes.record(usage.maxRssBytes());
+		metrics.inputBytes.record(process.getInputBytes());
+		metrics.outputBytes.record(process.getOutputBytes());
+		metrics.errorBytes.record(process.getErrorBytes());
+		metrics.exitValues.computeIfAbsent(process.exitValue(), value -> new LongAdder()).increment();
+	}
+
+	/**
+	 * @return the statistics for the executable, or null if no process of it was started yet
+	 */
+	public Metrics get(final String executable)
+	{
+		return metrics.get(executable);
+	}
+
+	/**
+	 * @return a live view of the statistics, keyed by executable
+	 */
+	public Map<String, Metrics> all()
+	{
+		return Collections.unmodifiableMap(metrics);
+	}
+
+	private Metrics metrics(final EnhancedProcess process)
+	{
+		final String executable = new File(process.getCommand().get(0)).getName();
+		final Metrics existing = metrics.get(executable);
+		return existing != null ? existing : metrics.computeIfAbsent(executable, ignored -> new Metrics());
+	}
+
+	/**
+	 * The statistics of one executable. Times are in nanoseconds, and every histogram gets one value per process.
+	 */
+	public static final class Metrics
+	{
+		private final Histogram spawnNanos = new Histogram();
+		private final Histogram lifetimeNanos = new Histogram();
+		private final Histogram cpuNanos = new Histogram();
+		private final Histogram maxRssBytes = new Histogram();
+		private final Histogram inputBytes = new Histogram();
+		private final Histogram outputBytes = new Histogram();
+		private final Histogram errorBytes = new Histogram();
+		private final ConcurrentHashMap<Integer, LongAdder> exitValues = new ConcurrentHashMap<>();
+		private final LongAdder running = new LongAdder();
+
+		private Metrics()
+		{
+		}
+
+		/**
+		 * @return how long it took to spawn the children, see {@link EnhancedProcess#getSpawnNanos()}
+		 */
+		public Histogram spawnNanos()
+		{
+			return spawnNanos;
+		}
+
+		/**
+		 * @return how long the children ran, see {@link EnhancedProcess#getLifetimeNanos()}
+		 */
+		public Histogram lifetimeNanos()
+		{
+			return lifetimeNanos;
+		}
+
+		/**
+		 * @return the user and system CPU time the children used, see {@link ResourceUsage#cpuNanos()}
+		 */
+		public Histogram cpuNanos()
+		{
+			return cpuNanos;
+		}
+
+		/**
+		 * @return the peak resident set sizes of the children, see {@link ResourceUsage#maxRssBytes()}
+		 */
+		public Histogram maxRssBytes()
+		{
+			return maxRssBytes;
+		}
+
+		public Histogram inputBytes()
+		{
+			return inputBytes;
+		}
+
+		public Histogram outputBytes()
+		{
+			return outputBytes;
+		}
+
+		public Histogram errorBytes()
+		{
+			return errorBytes;
+		}
+
+		/**
+		 * @return how many children exited with each exit value
+		 */
+		public Map<Integer, Long> exitValues()
+		{
+			final Map<Integer, Long> exitValues = new TreeMap<>();
+			this.exitValues.forEach((value, count) -> exitValues.put(value, count.sum()));
+			return exitValues;
+		}
+
+		/**
+		 * @return the children that were started but not completed yet
+		 */
+		public long running()
+		{
+			return running.sum();
+		}
+
+		@Override
+		public String toString()
+		{
+			return "Metrics{spawnNanos=" + spawnNanos + ", lifetimeNanos=" + lifetimeNanos + ", cpuNanos=" + cpuNanos + ", maxRssBytes=" +
+			       maxRssBytes + ", inputBytes=" + inputBytes + ", outputBytes=" + outputBytes + ", errorBytes=" + errorBytes + ", exitValues=" +
+			       exitValues() + ", running=" + running() + "}";
+		}
+	}
+}
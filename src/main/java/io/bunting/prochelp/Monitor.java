@@ -1,14 +1,30 @@
 package io.bunting.prochelp;
 
 /**
- * Handles a particular function of the enhanced process.
+ * Watches the processes started from an {@link EnhancedProcessBuilder}, see {@link EnhancedProcessBuilder#monitor(Monitor)}.
+ *
+ * The hooks run on whichever thread starts, waits for or completes the process, so they should be quick and must be thread safe.
  */
-interface Monitor
+public interface Monitor
 {
-	void setup(EnhancedProcess process);
+	/**
+	 * Called once the process has been started.
+	 */
+	default void setup(EnhancedProcess process)
+	{
+	}
 
-	void update(EnhancedProcess process);
+	/**
+	 * Called periodically while a {@link ProcessCallable#call()} waits for the process to exit.
+	 */
+	default void update(EnhancedProcess process)
+	{
+	}
 
-	void cleanup(EnhancedProcess process);
+	/**
+	 * Called once the process has exited and its completion has run.
+	 */
+	default void cleanup(EnhancedProcess process)
+	{
+	}
 }
-
@@ -0,0 +1,642 @@
+package io.bunting.prochelp;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import jnr.constants.platform.Errno;
+import jnr.enxio.channels.NativeSelectableChannel;
+import jnr.ffi.LibraryLoader;
+import jnr.ffi.Platform;
+import jnr.ffi.Pointer;
+import jnr.ffi.Runtime;
+import jnr.ffi.annotations.In;
+import jnr.ffi.annotations.Out;
+import jnr.posix.JavaLibCHelper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Access to the handful of native functions this library needs that are not exposed through {@link jnr.posix.POSIX}.
+ */
+final class Native
+{
+	private static final Logger logger = LoggerFactory.getLogger(Native.class);
+
+	/**
+	 * The JVM options that let {@link #fdOf(Object)} and {@link #fdOf(FileDescriptor)} see the descriptors of the JDK's channels on Java 9 and
+	 * later, which no longer allow reflective access to them otherwise.
+	 */
+	static final String ADD_OPENS = "--add-opens java.base/sun.nio.ch=ALL-UNNAMED --add-opens java.base/java.io=ALL-UNNAMED";
+	private static final AtomicBoolean inaccessibleWarned = new AtomicBoolean();
+
+	private static final long SYS_PIDFD_OPEN = 434;
+	private static final long SYS_IOPRIO_SET_X86_64 = 251;
+	private static final long SYS_IOPRIO_SET_AARCH64 = 30;
+	private static final int IOPRIO_WHO_PROCESS = 1;
+	private static final int IOPRIO_CLASS_SHIFT = 13;
+	private static final int PRIO_PROCESS = 0;
+	private static final int PR_SET_CHILD_SUBREAPER = 36;
+	// room for 1024 cpus
+	private static final int CPU_SET_LONGS = 16;
+
+	private static final int SPLICE_F_MOVE = 0x01;
+	private static final int SPLICE_F_NONBLOCK = 0x02;
+
+	/**
+	 * Returned by {@link #splice(int, int, long)} when the kernel can not splice between the two descriptors.
+	 */
+	static final int SPLICE_UNSUPPORTED = -2;
+
+	static final int O_RDONLY = 0;
+	static final int O_CLOEXEC = 0x80000;
+	static final int O_RDWR = 2;
+	static final int MFD_CLOEXEC = 0x0001;
+	static final int MFD_ALLOW_SEALING = 0x0002;
+	private static final int F_ADD_SEALS = 1033;
+	private static final int F_SEAL_SHRINK = 0x0002;
+	private static final int F_SEAL_GROW = 0x0004;
+	private static final int SEEK_CUR = 1;
+	private static final int F_SETFD = 2;
+	private static final int FD_CLOEXEC = 1;
+	private static final int F_SETPIPE_SZ = 1031;
+
+	static final int POLLFD_SIZE = 8;
+	static final short POLLIN = 0x0001;
+	static final short POLLOUT = 0x0004;
+
+	private Native()
+	{
+	}
+
+	static boolean isLinux()
+	{
+		return Platform.getNativePlatform().getOS() == Platform.OS.LINUX;
+	}
+
+	static LibC libc()
+	{
+		return SingletonHolder.LIBC;
+	}
+
+	static int errno()
+	{
+		return SingletonHolder.RUNTIME.getLastError();
+	}
+
+	/**
+	 * Obtains a file descriptor that becomes readable once the given child exits. Only available on Linux 5.3 and later.
+	 *
+	 * @return the pidfd, or -1 if it could not be created (see {@link #errno()})
+	 */
+	static int pidfdOpen(final long pid)
+	{
+		if (!isLinux())
+		{
+			return -1;
+		}
+		return (int) libc().syscall(SYS_PIDFD_OPEN, pid, 0);
+	}
+
+	/**
+	 * Makes the calling process the one that descendants are reparented to when their own parent exits, instead of init, so that it can
+	 * reap them. Only available on Linux 3.4 and later.
+	 *
+	 * @return false on failure (see {@link #errno()})
+	 */
+	static boolean setChildSubreaper()
+	{
+		return isLinux() && libc().prctl(PR_SET_CHILD_SUBREAPER, 1, 0, 0, 0) == 0;
+	}
+
+	/**
+	 * Restricts the calling thread, and the children it spawns from now on, to the given cpus.
+	 *
+	 * @return false on failure (see {@link #errno()})
+	 */
+	static boolean setAffinity(final BitSet cpus)
+	{
+		final long[] mask = Arrays.copyOf(cpus.toLongArray(), CPU_SET_LONGS);
+		return isLinux() && libc().sched_setaffinity(0, mask.length * 8L, mask) == 0;
+	}
+
+	/**
+	 * Sets the nice value of the calling thread, which is a per thread attribute on Linux.
+	 *
+	 * @return false on failure (see {@link #errno()})
+	 */
+	static boolean setNice(final int nice)
+	{
+		return libc().setpriority(PRIO_PROCESS, 0, nice) == 0;
+	}
+
+	/**
+	 * Sets the scheduling policy of the calling thread to one of the policies that take no static priority.
+	 *
+	 * @return false on failure (see {@link #errno()})
+	 */
+	static boolean setSchedulingPolicy(final int policy)
+	{
+		return isLinux() && libc().sched_setscheduler(0, policy, new int[] { 0 }) == 0;
+	}
+
+	/**
+	 * Sets the I/O priority of the calling thread.
+	 *
+	 * @return false on failure (see {@link #errno()}), or if the architecture is not known
+	 */
+	static boolean setIoPriority(final int ioClass, final int level)
+	{
+		if (!isLinux())
+		{
+			return false;
+		}
+		// the jnr version we use predates aarch64 support in Platform.CPU
+		final long number;
+		switch (System.getProperty("os.arch"))
+		{
+			case "amd64":
+			case "x86_64":
+				number = SYS_IOPRIO_SET_X86_64;
+				break;
+			case "aarch64":
+				number = SYS_IOPRIO_SET_AARCH64;
+				break;
+			default:
+				return false;
+		}
+		return libc().syscall(number, IOPRIO_WHO_PROCESS, 0, (ioClass << IOPRIO_CLASS_SHIFT) | level) == 0;
+	}
+
+	/**
+	 * Reads from a non-blocking descriptor into the buffer, advancing its position.
+	 *
+	 * @return the number of bytes read, 0 if no data is available right now, or -1 at end of stream
+	 */
+	static int read(final int fd, final ByteBuffer dst) throws IOException
+	{
+		if (!dst.hasRemaining())
+		{
+			return 0;
+		}
+		while (true)
+		{
+			final int n = libc().read(fd, at(dst), dst.remaining());
+			if (n > 0)
+			{
+				dst.position(dst.position() + n);
+				return n;
+			}
+			else if (n == 0)
+			{
+				return -1;
+			}
+			else if (!retry(errno()))
+			{
+				return 0;
+			}
+		}
+	}
+
+	/**
+	 * Writes as much of the buffer as a non-blocking descriptor will currently accept, advancing its position.
+	 *
+	 * @return the number of bytes written, 0 if the descriptor is full right now
+	 */
+	static int write(final int fd, final ByteBuffer src) throws IOException
+	{
+		if (!src.hasRemaining())
+		{
+			return 0;
+		}
+		while (true)
+		{
+			final int n = libc().write(fd, at(src), src.remaining());
+			if (n >= 0)
+			{
+				src.position(src.position() + n);
+				return n;
+			}
+			else if (!retry(errno()))
+			{
+				return 0;
+			}
+		}
+	}
+
+	/**
+	 * Moves up to {@code count} bytes from a pipe to another descriptor inside the kernel, without blocking on the pipe.
+	 *
+	 * @return the number of bytes moved, 0 if either side would block right now, -1 at end of stream, or {@link #SPLICE_UNSUPPORTED} if the
+	 * target can not be spliced to (e.g. a file opened for appending), in which case nothing has been consumed
+	 */
+	static long splice(final int in, final int out, final long count) throws IOException
+	{
+		if (!isLinux())
+		{
+			return SPLICE_UNSUPPORTED;
+		}
+		while (true)
+		{
+			final long n = libc().splice(in, null, out, null, count, SPLICE_F_MOVE | SPLICE_F_NONBLOCK);
+			if (n > 0)
+			{
+				return n;
+			}
+			else if (n == 0)
+			{
+				return -1;
+			}
+			final int errno = errno();
+			if (errno == Errno.EINVAL.intValue() || errno == Errno.ENOSYS.intValue())
+			{
+				return SPLICE_UNSUPPORTED;
+			}
+			else if (!retry(errno))
+			{
+				return 0;
+			}
+		}
+	}
+
+	/**
+	 * Creates a pipe whose ends are both close-on-exec. On Linux this is done atomically with {@code pipe2(2)}, so a child spawned by another
+	 * thread at the same time can not inherit either end.
+	 *
+	 * @return false on failure (see {@link #errno()})
+	 */
+	static boolean pipe(final int[] fds)
+	{
+		if (isLinux())
+		{
+			return libc().pipe2(fds, O_CLOEXEC) == 0;
+		}
+		return libc().pipe(fds) == 0 && libc().fcntl(fds[0], F_SETFD, FD_CLOEXEC) == 0 && libc().fcntl(fds[1], F_SETFD, FD_CLOEXEC) == 0;
+	}
+
+	/**
+	 * Resizes the buffer of a pipe, see {@code F_SETPIPE_SZ}. Sizes beyond what an unprivileged process may ask for are reduced to
+	 * {@code /proc/sys/fs/pipe-max-size}. Only supported on Linux.
+	 *
+	 * @return the new size of the buffer, which may be larger than asked for, or -1 on failure (see {@link #errno()})
+	 */
+	static int setPipeSize(final int fd, final int size)
+	{
+		if (!isLinux())
+		{
+			return -1;
+		}
+		final int result = libc().fcntl(fd, F_SETPIPE_SZ, size);
+		if (result < 0 && errno() == Errno.EPERM.intValue() && size > PipeMaxSize.VALUE)
+		{
+			return libc().fcntl(fd, F_SETPIPE_SZ, PipeMaxSize.VALUE);
+		}
+		return result;
+	}
+
+	/**
+	 * Creates an anonymous file that lives in memory, see {@code memfd_create(2)}. Only available on Linux 3.17 and later.
+	 *
+	 * @param name a NUL terminated name, only used for debugging
+	 * @return the descriptor, or -1 if it could not be created (see {@link #errno()})
+	 */
+	static int memfdCreate(final byte[] name, final int flags)
+	{
+		if (!isLinux())
+		{
+			return -1;
+		}
+		try
+		{
+			return libc().memfd_create(name, flags);
+		}
+		catch (UnsatisfiedLinkError e)
+		{
+			// libc older than 2.27
+			return -1;
+		}
+	}
+
+	/**
+	 * Creates an anonymous file that is open for reading and writing: a {@code memfd_create(2)} file where available, an unlinked temporary
+	 * file otherwise.
+	 *
+	 * @param name a NUL terminated name, only used for debugging
+	 * @param sealable whether the memfd should allow {@link #sealSize(int, long) sealing}
+	 */
+	static int anonymousFile(final byte[] name, final boolean sealable) throws IOException
+	{
+		final int fd = memfdCreate(name, MFD_CLOEXEC | (sealable ? MFD_ALLOW_SEALING : 0));
+		if (fd >= 0)
+		{
+			return fd;
+		}
+		final File file = File.createTempFile("moreproc", null);
+		try
+		{
+			final int tmp = libc().open((file.getAbsolutePath() + "\0").getBytes(), O_RDWR | (isLinux() ? O_CLOEXEC : 0));
+			if (tmp < 0)
+			{
+				throw new IOException("Failed to open temporary file " + file + ". " + Errno.valueOf(errno()).description());
+			}
+			return tmp;
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+
+	/**
+	 * Sizes a sealable memfd and seals it, so that it can neither grow past nor shrink below that size. Writes beyond the end then fail
+	 * with {@code EPERM}, while the pages that were never written take up no memory.
+	 *
+	 * @return false if the file could not be sealed, e.g. because it is not a memfd (see {@link #errno()})
+	 */
+	static boolean sealSize(final int fd, final long size)
+	{
+		// adding no seals at all fails for anything but a sealable memfd, so nothing is resized unless it can be sealed afterwards
+		return isLinux() && libc().fcntl(fd, F_ADD_SEALS, 0) == 0 && libc().ftruncate(fd, size) == 0 &&
+		       libc().fcntl(fd, F_ADD_SEALS, F_SEAL_SHRINK | F_SEAL_GROW) == 0;
+	}
+
+	/**
+	 * @return the current offset of the open file description behind the descriptor, or -1 on failure (see {@link #errno()})
+	 */
+	static long offset(final int fd)
+	{
+		return libc().lseek(fd, 0, SEEK_CUR);
+	}
+
+	/**
+	 * Writes all of the buffer to a blocking descriptor at the given offset, without moving the descriptor's own offset or the buffer's
+	 * position.
+	 */
+	static void pwriteFully(final int fd, final ByteBuffer src, final long offset) throws IOException
+	{
+		final ByteBuffer remaining = src.duplicate();
+		long position = offset;
+		while (remaining.hasRemaining())
+		{
+			final long n = libc().pwrite(fd, at(remaining), remaining.remaining(), position);
+			if (n >= 0)
+			{
+				remaining.position(remaining.position() + (int) n);
+				position += n;
+			}
+			else if (errno() != Errno.EINTR.intValue())
+			{
+				throw new IOException(Errno.valueOf(errno()).description());
+			}
+		}
+	}
+
+	/**
+	 * Reaps a child like {@code waitpid(2)}, and collects the resources it used.
+	 *
+	 * @param rusage a native ordered direct buffer of at least {@link ResourceUsage#SIZE} bytes, filled in once the child has been reaped
+	 * @return the pid of the reaped child, 0 if it has not exited yet and {@code WNOHANG} was given, or -1 on failure (see {@link #errno()})
+	 */
+	static int wait4(final long pid, final int[] status, final int options, final ByteBuffer rusage)
+	{
+		while (true)
+		{
+			final int result = libc().wait4((int) pid, status, options, rusage);
+			if (result >= 0 || errno() != Errno.EINTR.intValue())
+			{
+				return result;
+			}
+		}
+	}
+
+	/**
+	 * Reads a small file, such as those under {@code /proc}, into the buffer without allocating anything.
+	 *
+	 * @param path the path as a NUL terminated byte string
+	 * @param dst a direct buffer; it is cleared first, and flipped for reading afterwards
+	 * @return false if the file could not be opened or read, e.g. because it does not exist
+	 */
+	static boolean readFile(final byte[] path, final ByteBuffer dst)
+	{
+		dst.clear();
+		final int fd = libc().open(path, O_RDONLY | (isLinux() ? O_CLOEXEC : 0));
+		if (fd < 0)
+		{
+			return false;
+		}
+		try
+		{
+			while (dst.hasRemaining())
+			{
+				final int n = libc().read(fd, at(dst), dst.remaining());
+				if (n > 0)
+				{
+					dst.position(dst.position() + n);
+				}
+				else if (n == 0)
+				{
+					break;
+				}
+				else if (errno() != Errno.EINTR.intValue())
+				{
+					return false;
+				}
+			}
+			dst.flip();
+			return true;
+		}
+		finally
+		{
+			libc().close(fd);
+		}
+	}
+
+	/**
+	 * Finds the descriptor behind a channel. Works for the JDK's file, socket and pipe channels as well as jnr's native channels. On Java 9
+	 * and later the JDK's channels need the JVM to be started with {@link #ADD_OPENS}; without it a warning is logged once.
+	 *
+	 * @return the descriptor, or -1 if the channel does not expose one
+	 */
+	static int fdOf(final Object channel)
+	{
+		if (channel instanceof NativeSelectableChannel)
+		{
+			return ((NativeSelectableChannel) channel).getFD();
+		}
+		for (Class<?> type = channel.getClass(); type != null; type = type.getSuperclass())
+		{
+			try
+			{
+				final Field field = type.getDeclaredField("fd");
+				if (field.getType() == FileDescriptor.class)
+				{
+					field.setAccessible(true);
+					return fdOf((FileDescriptor) field.get(channel));
+				}
+			}
+			catch (NoSuchFieldException e)
+			{
+				// keep looking in the superclass
+			}
+			catch (ReflectiveOperationException | RuntimeException e)
+			{
+				warnInaccessible(channel, e);
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	static int fdOf(final FileDescriptor descriptor)
+	{
+		if (descriptor == null || !descriptor.valid())
+		{
+			return -1;
+		}
+		final int fd = JavaLibCHelper.getfdFromDescriptor(descriptor);
+		if (fd < 0)
+		{
+			warnInaccessible(descriptor, null);
+		}
+		return fd;
+	}
+
+	private static void warnInaccessible(final Object owner, final Exception cause)
+	{
+		if (inaccessibleWarned.compareAndSet(false, true))
+		{
+			logger.warn("Can not get the descriptor of {}, so output redirected to it is copied through the JVM rather than spliced. Start the JVM "
+			            + "with {} to allow it.", owner, ADD_OPENS, cause);
+		}
+		else
+		{
+			logger.debug("Can not get the descriptor of {}.", owner);
+		}
+	}
+
+	/**
+	 * Blocks the calling thread until the descriptor is ready for any of the given {@code poll(2)} events, or the timeout elapses.
+	 *
+	 * @param pollfd a native ordered buffer of at least {@link #POLLFD_SIZE} bytes, reused by the caller across calls
+	 * @return true if the descriptor is ready (or has hung up), false on timeout
+	 */
+	static boolean poll(final int fd, final short events, final int timeoutMillis, final ByteBuffer pollfd) throws IOException
+	{
+		pollfd.putInt(0, fd);
+		pollfd.putShort(4, events);
+		pollfd.putShort(6, (short) 0);
+		while (true)
+		{
+			final int n = libc().poll(pollfd, 1, timeoutMillis);
+			if (n >= 0)
+			{
+				return n > 0;
+			}
+			else if (!retry(errno()))
+			{
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * jnr passes buffers from their start rather than from their position, so buffers that are partly used are passed as a slice.
+	 */
+	private static ByteBuffer at(final ByteBuffer buffer)
+	{
+		return buffer.position() == 0 ? buffer : buffer.slice();
+	}
+
+	/**
+	 * @return true if the call should be retried, false if it would block
+	 * @throws IOException for any other error
+	 */
+	private static boolean retry(final int errno) throws IOException
+	{
+		if (errno == Errno.EINTR.intValue())
+		{
+			return true;
+		}
+		if (errno == Errno.EAGAIN.intValue() || errno == Errno.EWOULDBLOCK.intValue())
+		{
+			return false;
+		}
+		throw new IOException(Errno.valueOf(errno).description());
+	}
+
+	public interface LibC
+	{
+		long syscall(long number, long arg1, long arg2);
+
+		long syscall(long number, long arg1, long arg2, long arg3);
+
+		int sched_setaffinity(int pid, long size, @In long[] mask);
+
+		int sched_setscheduler(int pid, int policy, @In int[] param);
+
+		int setpriority(int which, int who, int prio);
+
+		int prctl(int option, long arg2, long arg3, long arg4, long arg5);
+
+		int read(int fd, @Out ByteBuffer dst, long count);
+
+		int write(int fd, @In ByteBuffer src, long count);
+
+		int poll(@In @Out ByteBuffer fds, int nfds, int timeout);
+
+		long splice(int in, Pointer inOffset, int out, Pointer outOffset, long count, int flags);
+
+		int wait4(int pid, @Out int[] status, int options, @Out ByteBuffer rusage);
+
+		int open(@In byte[] path, int flags);
+
+		int memfd_create(@In byte[] name, int flags);
+
+		long pwrite(int fd, @In ByteBuffer src, long count, long offset);
+
+		long lseek(int fd, long offset, int whence);
+
+		int ftruncate(int fd, long length);
+
+		int fcntl(int fd, int cmd, int arg);
+
+		int pipe(@Out int[] fds);
+
+		int pipe2(@Out int[] fds, int flags);
+
+		int close(int fd);
+	}
+
+	private static final class PipeMaxSize
+	{
+		private static final int VALUE = read();
+
+		private static int read()
+		{
+			try
+			{
+				return Integer.parseInt(new String(Files.readAllBytes(Paths.get("/proc/sys/fs/pipe-max-size")), StandardCharsets.US_ASCII).trim());
+			}
+			catch (IOException | NumberFormatException e)
+			{
+				// the default on Linux
+				return 1024 * 1024;
+			}
+		}
+	}
+
+	private static final class SingletonHolder
+	{
+		private static final LibC LIBC = LibraryLoader.create(LibC.class).load("c");
+		private static final Runtime RUNTIME = Runtime.getRuntime(LIBC);
+	}
+}
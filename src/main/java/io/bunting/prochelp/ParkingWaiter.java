@@ -0,0 +1,96 @@
+package io.bunting.prochelp;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import jnr.enxio.channels.NativeDeviceChannel;
+
+/**
+ * Waits for the parent side of a pipe to become ready by parking the waiting thread until the shared {@link EventLoop} reports it. Virtual
+ * threads wait this way rather than in {@code poll(2)}, which would hold on to their carrier thread for as long as the pipe stays idle.
+ *
+ * The channel is only registered with a loop once a thread had to wait this way, and from then on it has to be closed through the loop.
+ */
+final class ParkingWaiter
+{
+	private final NativeDeviceChannel channel;
+	private volatile Thread waiter;
+	private volatile boolean ready = false;
+	// guarded by this
+	private EventLoop.Registration registration;
+	private boolean closed = false;
+
+	ParkingWaiter(final NativeDeviceChannel channel)
+	{
+		this.channel = channel;
+	}
+
+	/**
+	 * Parks the current thread until the pipe is ready for any of the given operations, the thread is interrupted, or the time is up. Only one
+	 * thread may wait at a time.
+	 *
+	 * @param ops the {@link java.nio.channels.SelectionKey} operations to wait for
+	 * @return true if the pipe is ready
+	 */
+	boolean await(final int ops, final long millis)
+	{
+		final EventLoop.Registration registration = this.registration();
+		if (registration == null)
+		{
+			return false;
+		}
+		ready = false;
+		waiter = Thread.currentThread();
+		try
+		{
+			registration.arm(ops);
+			final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+			long remaining;
+			while (!ready && !Thread.currentThread().isInterrupted() && (remaining = deadline - System.nanoTime()) > 0)
+			{
+				LockSupport.parkNanos(this, remaining);
+			}
+			return ready;
+		}
+		finally
+		{
+			waiter = null;
+		}
+	}
+
+	/**
+	 * Closes the channel, on the loop if it was ever registered with one.
+	 */
+	synchronized void close() throws IOException
+	{
+		closed = true;
+		if (registration != null)
+		{
+			registration.close();
+		}
+		else
+		{
+			channel.close();
+		}
+	}
+
+	private synchronized EventLoop.Registration registration()
+	{
+		if (registration == null && !closed)
+		{
+			registration = EventLoop.next().register(channel, this::ready);
+		}
+		return registration;
+	}
+
+	private void ready(final int readyOps)
+	{
+		ready = true;
+		final Thread waiter = this.waiter;
+		if (waiter != null)
+		{
+			LockSupport.unpark(waiter);
+		}
+	}
+}
@@ -2,7 +2,7 @@ package io.bunting.prochelp;
 
 import java.nio.channels.ByteChannel;
 import java.util.List;
-import java.util.function.Supplier;
+import java.util.concurrent.CompletableFuture;
 
 import javax.annotation.Nullable;
 
@@ -19,6 +19,24 @@ interface PipeHandler
 	@Nullable
 	ByteChannel afterSpawn(POSIX posix, Stream stream);
 
+	/**
+	 * @return a future that completes once the library is done moving the stream's data around, or null if there is nothing left to do once
+	 * the child has exited. The process' {@link EnhancedProcess#onDrained()} only completes after this has.
+	 */
+	@Nullable
+	default CompletableFuture<Void> completion()
+	{
+		return null;
+	}
+
+	/**
+	 * @return the bytes this handler moved between the child and its destination itself, rather than through the process' streams
+	 */
+	default long transferred()
+	{
+		return 0;
+	}
+
 	enum Stream {
 		IN(0, true),
 		OUT(1, false),
@@ -0,0 +1,129 @@
+package io.bunting.prochelp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.atomic.LongAdder;
+
+import jnr.enxio.channels.NativeDeviceChannel;
+
+/**
+ * A blocking {@link InputStream} over the non-blocking parent side of a pipe. When the pipe is empty, the reading thread waits in
+ * {@code poll(2)} on this one descriptor. The thread is blocked either way, and waiting in place avoids a round trip through the shared
+ * {@link EventLoop}, which halved throughput when streams were driven by it. Virtual threads are the exception: they park until the loop
+ * reports the pipe ready, so they do not hold on to their carrier thread while they wait.
+ */
+class PipeInputStream extends InputStream
+{
+	// bounds how long a waiting thread takes to notice that it was interrupted or the stream was closed
+	private static final int POLL_SLICE_MILLIS = 250;
+
+	private final NativeDeviceChannel channel;
+	private final int fd;
+	private final ByteBuffer pollfd = ByteBuffer.allocate(Native.POLLFD_SIZE).order(ByteOrder.nativeOrder());
+	private final LongAdder transferred = new LongAdder();
+	private final ParkingWaiter parking;
+	private volatile boolean closed = false;
+	// guarded by this
+	private PipePublisher publisher;
+
+	PipeInputStream(final NativeDeviceChannel channel)
+	{
+		this.channel = channel;
+		this.fd = channel.getFD();
+		this.parking = new ParkingWaiter(channel);
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		final byte[] b = new byte[1];
+		final int n = this.read(b, 0, 1);
+		return n < 0 ? -1 : b[0] & 0xFF;
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException
+	{
+		if (off < 0 || len < 0 || len > b.length - off)
+		{
+			throw new IndexOutOfBoundsException();
+		}
+		if (len == 0)
+		{
+			return 0;
+		}
+		final ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+		while (true)
+		{
+			if (closed)
+			{
+				throw new IOException("Stream closed.");
+			}
+			final int n = Native.read(fd, buffer);
+			if (n > 0)
+			{
+				transferred.add(n);
+				return n;
+			}
+			else if (n < 0)
+			{
+				return n;
+			}
+			await();
+		}
+	}
+
+	private void await() throws IOException
+	{
+		while (!closed && !this.poll())
+		{
+			if (Thread.currentThread().isInterrupted())
+			{
+				throw new InterruptedIOException("Interrupted while waiting for data.");
+			}
+		}
+	}
+
+	private boolean poll() throws IOException
+	{
+		if (VirtualThreads.isVirtual())
+		{
+			return parking.await(SelectionKey.OP_READ, POLL_SLICE_MILLIS);
+		}
+		return Native.poll(fd, Native.POLLIN, POLL_SLICE_MILLIS, pollfd);
+	}
+
+	/**
+	 * @return a publisher of the pipe's data, to be used instead of reading this stream; there is only one per stream
+	 */
+	synchronized Flow.Publisher<ByteBuffer> publisher()
+	{
+		if (publisher == null)
+		{
+			publisher = new PipePublisher(channel, transferred);
+		}
+		return publisher;
+	}
+
+	/**
+	 * @return the bytes read through this stream so far
+	 */
+	long transferred()
+	{
+		return transferred.sum();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		if (!closed)
+		{
+			closed = true;
+			parking.close();
+		}
+	}
+}
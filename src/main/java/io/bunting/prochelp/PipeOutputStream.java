@@ -0,0 +1,116 @@
+package io.bunting.prochelp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.atomic.LongAdder;
+
+import jnr.enxio.channels.NativeDeviceChannel;
+
+/**
+ * A blocking {@link OutputStream} over the non-blocking parent side of a pipe. When the pipe is full, the writing thread waits in
+ * {@code poll(2)} on this one descriptor, just like {@link PipeInputStream}.
+ */
+class PipeOutputStream extends OutputStream
+{
+	// bounds how long a waiting thread takes to notice that it was interrupted or the stream was closed
+	private static final int POLL_SLICE_MILLIS = 250;
+
+	private final NativeDeviceChannel channel;
+	private final int fd;
+	private final ByteBuffer pollfd = ByteBuffer.allocate(Native.POLLFD_SIZE).order(ByteOrder.nativeOrder());
+	private final LongAdder transferred = new LongAdder();
+	private final ParkingWaiter parking;
+	private volatile boolean closed = false;
+	// guarded by this
+	private PipeSubscriber subscriber;
+
+	PipeOutputStream(final NativeDeviceChannel channel)
+	{
+		this.channel = channel;
+		this.fd = channel.getFD();
+		this.parking = new ParkingWaiter(channel);
+	}
+
+	@Override
+	public void write(final int b) throws IOException
+	{
+		this.write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(final byte[] b, final int off, final int len) throws IOException
+	{
+		if (off < 0 || len < 0 || len > b.length - off)
+		{
+			throw new IndexOutOfBoundsException();
+		}
+		final ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+		while (buffer.hasRemaining())
+		{
+			if (closed)
+			{
+				throw new IOException("Stream closed.");
+			}
+			final int n = Native.write(fd, buffer);
+			if (n == 0)
+			{
+				await();
+			}
+			transferred.add(n);
+		}
+	}
+
+	private void await() throws IOException
+	{
+		while (!closed && !this.poll())
+		{
+			if (Thread.currentThread().isInterrupted())
+			{
+				throw new InterruptedIOException("Interrupted while waiting for the pipe to drain.");
+			}
+		}
+	}
+
+	private boolean poll() throws IOException
+	{
+		if (VirtualThreads.isVirtual())
+		{
+			return parking.await(SelectionKey.OP_WRITE, POLL_SLICE_MILLIS);
+		}
+		return Native.poll(fd, Native.POLLOUT, POLL_SLICE_MILLIS, pollfd);
+	}
+
+	/**
+	 * @return a subscriber that writes to the pipe, to be used instead of writing to this stream; there is only one per stream
+	 */
+	synchronized Flow.Subscriber<ByteBuffer> subscriber()
+	{
+		if (subscriber == null)
+		{
+			subscriber = new PipeSubscriber(channel, transferred);
+		}
+		return subscriber;
+	}
+
+	/**
+	 * @return the bytes written through this stream so far
+	 */
+	long transferred()
+	{
+		return transferred.sum();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		if (!closed)
+		{
+			closed = true;
+			parking.close();
+		}
+	}
+}
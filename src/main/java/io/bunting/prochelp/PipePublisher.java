@@ -0,0 +1,183 @@
+package io.bunting.prochelp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import jnr.enxio.channels.NativeDeviceChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Publishes the parent side of an output pipe on the shared {@link EventLoop}. The pipe is only watched while the subscriber has asked for
+ * more, so once it stops asking the pipe fills up and the child blocks in {@code write(2)}, instead of its output piling up in the JVM.
+ * Every item is a heap buffer of its own that the subscriber may keep. There is a single subscriber; later ones are refused.
+ */
+final class PipePublisher implements Flow.Publisher<ByteBuffer>, Flow.Subscription
+{
+	private static final Logger logger = LoggerFactory.getLogger(PipePublisher.class);
+
+	// bounds the work done per readiness notification so one busy child can not starve the others on the same loop
+	private static final int MAX_READS_PER_WAKEUP = 16;
+
+	private static final Flow.Subscription REFUSED = new Flow.Subscription()
+	{
+		@Override
+		public void request(final long n)
+		{
+		}
+
+		@Override
+		public void cancel()
+		{
+		}
+	};
+
+	private final NativeDeviceChannel channel;
+	private final int fd;
+	private final LongAdder transferred;
+	private final AtomicBoolean subscribed = new AtomicBoolean();
+	private final AtomicLong demand = new AtomicLong();
+	private final BufferPool pool = BufferPool.shared();
+	private volatile boolean done = false;
+
+	// set once before the subscriber learns of this subscription
+	private Flow.Subscriber<? super ByteBuffer> subscriber;
+	private EventLoop.Registration registration;
+
+	/**
+	 * @param transferred counts the bytes handed to the subscriber
+	 */
+	PipePublisher(final NativeDeviceChannel channel, final LongAdder transferred)
+	{
+		this.channel = channel;
+		this.fd = channel.getFD();
+		this.transferred = transferred;
+	}
+
+	@Override
+	public void subscribe(final Flow.Subscriber<? super ByteBuffer> subscriber)
+	{
+		Objects.requireNonNull(subscriber, "subscriber");
+		if (!subscribed.compareAndSet(false, true))
+		{
+			subscriber.onSubscribe(REFUSED);
+			subscriber.onError(new IllegalStateException("The stream already has a subscriber."));
+			return;
+		}
+		this.subscriber = subscriber;
+		this.registration = EventLoop.next().register(channel, this::drain);
+		subscriber.onSubscribe(this);
+	}
+
+	@Override
+	public void request(final long n)
+	{
+		if (done)
+		{
+			return;
+		}
+		if (n <= 0)
+		{
+			registration.loop().execute(() -> this.fail(new IllegalArgumentException("Requested " + n + " items, which is not positive.")));
+			return;
+		}
+		final long previous = demand.getAndAccumulate(n, (current, more) -> current + more < 0 ? Long.MAX_VALUE : current + more);
+		if (previous == 0)
+		{
+			registration.arm(SelectionKey.OP_READ);
+		}
+	}
+
+	@Override
+	public void cancel()
+	{
+		if (!done)
+		{
+			done = true;
+			registration.close();
+		}
+	}
+
+	private void drain(final int readyOps)
+	{
+		for (int i = 0; i < MAX_READS_PER_WAKEUP; i++)
+		{
+			// without demand the pipe is left alone until request() arms it again
+			if (done || demand.get() == 0)
+			{
+				return;
+			}
+			final Chunk chunk = pool.acquire();
+			final ByteBuffer buffer = chunk.buffer();
+			final int n;
+			try
+			{
+				n = Native.read(fd, buffer);
+			}
+			catch (IOException e)
+			{
+				chunk.release();
+				this.fail(e);
+				return;
+			}
+			if (n == 0)
+			{
+				chunk.release();
+				registration.arm(SelectionKey.OP_READ);
+				return;
+			}
+			else if (n < 0)
+			{
+				chunk.release();
+				this.complete();
+				return;
+			}
+			buffer.flip();
+			final ByteBuffer item = ByteBuffer.allocate(n);
+			item.put(buffer).flip();
+			chunk.release();
+			transferred.add(n);
+			if (demand.get() != Long.MAX_VALUE)
+			{
+				demand.decrementAndGet();
+			}
+			try
+			{
+				subscriber.onNext(item);
+			}
+			catch (RuntimeException e)
+			{
+				logger.warn("Subscriber failed, cancelling its subscription.", e);
+				this.cancel();
+				return;
+			}
+		}
+		registration.arm(SelectionKey.OP_READ);
+	}
+
+	private void complete()
+	{
+		if (!done)
+		{
+			done = true;
+			registration.close();
+			subscriber.onComplete();
+		}
+	}
+
+	private void fail(final Throwable throwable)
+	{
+		if (!done)
+		{
+			done = true;
+			registration.close();
+			subscriber.onError(throwable);
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package io.bunting.prochelp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import jnr.enxio.channels.NativeDeviceChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the items of a {@link Flow.Publisher} to the parent side of an input pipe on the shared {@link EventLoop}. It asks for one buffer at a
+ * time and only asks for the next once the pipe took all of the current one, waiting for the pipe to become writable in between, so a slow
+ * child slows the publisher down. Completion closes the pipe, and the child sees the end of its input.
+ */
+final class PipeSubscriber implements Flow.Subscriber<ByteBuffer>
+{
+	private static final Logger logger = LoggerFactory.getLogger(PipeSubscriber.class);
+
+	private final NativeDeviceChannel channel;
+	private final int fd;
+	private final LongAdder transferred;
+	private final AtomicBoolean subscribed = new AtomicBoolean();
+
+	// set once in onSubscribe, before any other signal
+	private Flow.Subscription subscription;
+	private EventLoop.Registration registration;
+
+	// only touched on the loop thread
+	private ByteBuffer pending;
+	private boolean completed = false;
+	private boolean closed = false;
+
+	/**
+	 * @param transferred counts the bytes written to the pipe
+	 */
+	PipeSubscriber(final NativeDeviceChannel channel, final LongAdder transferred)
+	{
+		this.channel = channel;
+		this.fd = channel.getFD();
+		this.transferred = transferred;
+	}
+
+	@Override
+	public void onSubscribe(final Flow.Subscription subscription)
+	{
+		Objects.requireNonNull(subscription, "subscription");
+		if (!subscribed.compareAndSet(false, true))
+		{
+			subscription.cancel();
+			return;
+		}
+		this.subscription = subscription;
+		this.registration = EventLoop.next().register(channel, readyOps -> this.write());
+		subscription.request(1);
+	}
+
+	@Override
+	public void onNext(final ByteBuffer item)
+	{
+		Objects.requireNonNull(item, "item");
+		registration.loop().execute(() -> {
+			pending = item;
+			this.write();
+		});
+	}
+
+	@Override
+	public void onError(final Throwable throwable)
+	{
+		logger.debug("Publisher failed, closing the child's input.", throwable);
+		registration.loop().execute(this::close);
+	}
+
+	@Override
+	public void onComplete()
+	{
+		registration.loop().execute(() -> {
+			completed = true;
+			if (pending == null)
+			{
+				this.close();
+			}
+		});
+	}
+
+	private void write()
+	{
+		if (closed || pending == null)
+		{
+			return;
+		}
+		while (pending.hasRemaining())
+		{
+			final int n;
+			try
+			{
+				n = Native.write(fd, pending);
+			}
+			catch (IOException e)
+			{
+				// most likely the child closed its input
+				logger.debug("Failed to write to the child's input, cancelling the subscription.", e);
+				subscription.cancel();
+				this.close();
+				return;
+			}
+			if (n == 0)
+			{
+				registration.arm(SelectionKey.OP_WRITE);
+				return;
+			}
+			transferred.add(n);
+		}
+		pending = null;
+		if (completed)
+		{
+			this.close();
+		}
+		else
+		{
+			subscription.request(1);
+		}
+	}
+
+	private void close()
+	{
+		if (!closed)
+		{
+			closed = true;
+			pending = null;
+			registration.close();
+		}
+	}
+}
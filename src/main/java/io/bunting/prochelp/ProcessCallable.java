@@ -1,11 +1,43 @@
 package io.bunting.prochelp;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
 
 /**
- * TODO: Document this class
+ * One run of a command, created by {@link EnhancedProcessBuilder#create(java.util.function.Function)} or
+ * {@link SpawnTemplate#create(java.util.function.Function, String...)}. It is run exactly once, either blocking with {@link #call()} or
+ * without holding a thread with {@link #callAsync(Executor)}, and yields the result of its completion function.
+ *
+ * As a {@link Future} it stands for the started {@link EnhancedProcess}: {@link #get()} waits until the process has been started, and
+ * {@link #whenStarted(BiConsumer)} is told without waiting. It can not be cancelled.
  */
 public interface ProcessCallable<T> extends Callable<T>, Future<EnhancedProcess>
 {
+	/**
+	 * Starts the process on the calling thread and returns immediately. The returned future completes with the result of the completion
+	 * function, which is applied on the given executor once the process has exited and its output is {@link EnhancedProcess#onDrained()
+	 * drained}. No thread is held while the process runs. A process that can not be started fails the returned future.
+	 *
+	 * Like {@link #call()}, this may only be invoked once.
+	 */
+	CompletableFuture<T> callAsync(Executor executor);
+
+	/**
+	 * Same as {@link #callAsync(Executor)}, applying the completion function on the {@link ForkJoinPool#commonPool() common pool}.
+	 */
+	default CompletableFuture<T> callAsync()
+	{
+		return this.callAsync(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Runs the action once the process has been started by {@link #call()} or {@link #callAsync(Executor)}, with either the process or the
+	 * reason it could not be started. The action runs on the thread that started the process, or right away if that has happened already,
+	 * so unlike waiting on {@link #get()} no thread is held until then. Failures of the action are logged.
+	 */
+	void whenStarted(BiConsumer<? super EnhancedProcess, ? super Throwable> action);
 }
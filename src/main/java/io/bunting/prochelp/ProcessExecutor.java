@@ -0,0 +1,410 @@
+package io.bunting.prochelp;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs {@link ProcessCallable}s with a bound on the number of children alive at once and on the pipe descriptors they hold open in this
+ * JVM. Work beyond the bounds waits in a priority queue; once the queue is full, the {@link OverflowPolicy} decides.
+ *
+ * No thread waits for the children: each is started with {@link ProcessCallable#callAsync(Executor)}, and the next queued one is started
+ * from the completion of a previous one. Create instances with {@link ProcessExecutorBuilder}.
+ */
+public class ProcessExecutor
+{
+	private static final Logger logger = LoggerFactory.getLogger(ProcessExecutor.class);
+
+	/**
+	 * What to do with a submission while the queue is full.
+	 */
+	public enum OverflowPolicy
+	{
+		/**
+		 * Fail the returned future with a {@link RejectedExecutionException}.
+		 */
+		REJECT,
+		/**
+		 * Block the submitting thread until there is room in the queue.
+		 */
+		BLOCK
+	}
+
+	private final int maxRunning;
+	private final int maxDescriptors;
+	private final int descriptorsPerChild;
+	private final int maxQueued;
+	private final OverflowPolicy overflowPolicy;
+	private final Executor executor;
+
+	// a lock rather than a monitor, so submitters blocked by the BLOCK policy park instead of pinning a virtual thread
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition room = lock.newCondition();
+	// guarded by lock
+	private final PriorityQueue<Task<?>> queue = new PriorityQueue<>();
+	private int running = 0;
+	private int descriptors = 0;
+	private long sequence = 0;
+	private boolean shutdown = false;
+
+	private final LongAdder submitted = new LongAdder();
+	private final LongAdder completed = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder started = new LongAdder();
+	private final LongAdder totalWaitNanos = new LongAdder();
+	private final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+
+	ProcessExecutor(final int maxRunning, final int maxDescriptors, final int descriptorsPerChild, final int maxQueued,
+	                final OverflowPolicy overflowPolicy, final Executor executor)
+	{
+		this.maxRunning = maxRunning;
+		this.maxDescriptors = maxDescriptors;
+		this.descriptorsPerChild = descriptorsPerChild;
+		this.maxQueued = maxQueued;
+		this.overflowPolicy = overflowPolicy;
+		this.executor = executor;
+	}
+
+	/**
+	 * Same as {@link #submit(ProcessCallable, int)} with priority 0.
+	 */
+	public <T> CompletableFuture<T> submit(final ProcessCallable<T> callable)
+	{
+		return this.submit(callable, 0);
+	}
+
+	/**
+	 * Queues the callable. Among the queued callables, those with a higher priority start first, and those with the same priority start in
+	 * the order they were submitted.
+	 *
+	 * @return a future that completes with the result of the callable once its process has exited, or fails with a
+	 * {@link RejectedExecutionException} if the callable was not accepted
+	 */
+	public <T> CompletableFuture<T> submit(final ProcessCallable<T> callable, final int priority)
+	{
+		final CompletableFuture<T> result = new CompletableFuture<>();
+		lock.lock();
+		try
+		{
+			submitted.increment();
+			while (!shutdown && !this.hasRoom() && overflowPolicy == OverflowPolicy.BLOCK)
+			{
+				try
+				{
+					room.await();
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					return reject(result, "Interrupted while waiting for room in the queue.");
+				}
+			}
+			if (shutdown)
+			{
+				return reject(result, "The executor has been shut down.");
+			}
+			if (!this.hasRoom())
+			{
+				return reject(result, "The queue is full (" + maxQueued + " waiting).");
+			}
+			queue.add(new Task<>(callable, priority, sequence++, result));
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		this.startQueued();
+		return result;
+	}
+
+	/**
+	 * Stops accepting submissions. Callables that are already queued still run.
+	 */
+	public void shutdown()
+	{
+		lock.lock();
+		try
+		{
+			shutdown = true;
+			room.signalAll();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	public boolean isShutdown()
+	{
+		lock.lock();
+		try
+		{
+			return shutdown;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return a snapshot of this executor's counters
+	 */
+	public Stats stats()
+	{
+		final int running;
+		final int queued;
+		final int descriptors;
+		lock.lock();
+		try
+		{
+			running = this.running;
+			queued = this.queue.size();
+			descriptors = this.descriptors;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		return new Stats(running, queued, descriptors, submitted.sum(), started.sum(), completed.sum(), rejected.sum(), totalWaitNanos.sum(),
+		                 maxWaitNanos.get());
+	}
+
+	/**
+	 * @return true if a submission can be accepted right now, either because it can start right away or because the queue has room for it
+	 */
+	private boolean hasRoom()
+	{
+		return queue.size() < maxQueued || (queue.isEmpty() && this.canStart());
+	}
+
+	private boolean canStart()
+	{
+		return running < maxRunning && descriptors + descriptorsPerChild <= maxDescriptors;
+	}
+
+	private <T> CompletableFuture<T> reject(final CompletableFuture<T> result, final String message)
+	{
+		rejected.increment();
+		result.completeExceptionally(new RejectedExecutionException(message));
+		return result;
+	}
+
+	/**
+	 * Starts queued callables for as long as the bounds allow. The processes are started outside the lock.
+	 */
+	private void startQueued()
+	{
+		while (true)
+		{
+			final Task<?> task;
+			lock.lock();
+			try
+			{
+				if (queue.isEmpty() || !this.canStart())
+				{
+					return;
+				}
+				task = queue.poll();
+				running++;
+				descriptors += descriptorsPerChild;
+				// there is room in the queue now
+				room.signalAll();
+			}
+			finally
+			{
+				lock.unlock();
+			}
+			this.start(task);
+		}
+	}
+
+	private <T> void start(final Task<T> task)
+	{
+		final long waitNanos = System.nanoTime() - task.enqueuedNanos;
+		totalWaitNanos.add(waitNanos);
+		maxWaitNanos.accumulate(waitNanos);
+		started.increment();
+
+		CompletableFuture<T> future;
+		try
+		{
+			future = task.callable.callAsync(executor);
+		}
+		catch (RuntimeException e)
+		{
+			future = new CompletableFuture<>();
+			future.completeExceptionally(e);
+		}
+		// always hop to the executor, so a run of callables that fail to start does not recurse through startQueued()
+		future.whenCompleteAsync((value, failure) -> {
+			this.finished();
+			if (failure != null)
+			{
+				task.result.completeExceptionally(failure);
+			}
+			else
+			{
+				task.result.complete(value);
+			}
+		}, executor);
+	}
+
+	private void finished()
+	{
+		completed.increment();
+		lock.lock();
+		try
+		{
+			running--;
+			descriptors -= descriptorsPerChild;
+			// a submitter blocked on a queue that holds nothing, as with maxQueued(0), waits for a free slot rather than for a dequeue
+			room.signalAll();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		try
+		{
+			this.startQueued();
+		}
+		catch (RuntimeException e)
+		{
+			logger.error("Failed to start the next queued process.", e);
+		}
+	}
+
+	private static final class Task<T> implements Comparable<Task<?>>
+	{
+		private final ProcessCallable<T> callable;
+		private final int priority;
+		private final long sequence;
+		private final CompletableFuture<T> result;
+		private final long enqueuedNanos = System.nanoTime();
+
+		private Task(final ProcessCallable<T> callable, final int priority, final long sequence, final CompletableFuture<T> result)
+		{
+			this.callable = callable;
+			this.priority = priority;
+			this.sequence = sequence;
+			this.result = result;
+		}
+
+		@Override
+		public int compareTo(final Task<?> other)
+		{
+			if (priority != other.priority)
+			{
+				return Integer.compare(other.priority, priority);
+			}
+			return Long.compare(sequence, other.sequence);
+		}
+	}
+
+	/**
+	 * A snapshot of a {@link ProcessExecutor}'s counters.
+	 */
+	public static final class Stats
+	{
+		private final int running;
+		private final int queued;
+		private final int descriptors;
+		private final long submitted;
+		private final long started;
+		private final long completed;
+		private final long rejected;
+		private final long totalWaitNanos;
+		private final long maxWaitNanos;
+
+		Stats(final int running, final int queued, final int descriptors, final long submitted, final long started, final long completed,
+		      final long rejected, final long totalWaitNanos, final long maxWaitNanos)
+		{
+			this.running = running;
+			this.queued = queued;
+			this.descriptors = descriptors;
+			this.submitted = submitted;
+			this.started = started;
+			this.completed = completed;
+			this.rejected = rejected;
+			this.totalWaitNanos = totalWaitNanos;
+			this.maxWaitNanos = maxWaitNanos;
+		}
+
+		/**
+		 * @return the number of children currently running
+		 */
+		public int running()
+		{
+			return running;
+		}
+
+		/**
+		 * @return the number of callables waiting to be started
+		 */
+		public int queued()
+		{
+			return queued;
+		}
+
+		/**
+		 * @return the pipe descriptors accounted to the running children
+		 */
+		public int descriptors()
+		{
+			return descriptors;
+		}
+
+		public long submitted()
+		{
+			return submitted;
+		}
+
+		public long started()
+		{
+			return started;
+		}
+
+		public long completed()
+		{
+			return completed;
+		}
+
+		public long rejected()
+		{
+			return rejected;
+		}
+
+		/**
+		 * @return the mean time started callables spent in the queue, in nanoseconds
+		 */
+		public long meanWaitNanos()
+		{
+			return started == 0 ? 0 : totalWaitNanos / started;
+		}
+
+		/**
+		 * @return the longest time a started callable spent in the queue, in nanoseconds
+		 */
+		public long maxWaitNanos()
+		{
+			return maxWaitNanos;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "Stats{running=" + running + ", queued=" + queued + ", descriptors=" + descriptors + ", submitted=" + submitted +
+			       ", started=" + started + ", completed=" + completed + ", rejected=" + rejected + ", meanWaitNanos=" + meanWaitNanos() +
+			       ", maxWaitNanos=" + maxWaitNanos + "}";
+		}
+	}
+}
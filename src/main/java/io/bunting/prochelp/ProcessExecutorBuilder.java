@@ -0,0 +1,98 @@
+package io.bunting.prochelp;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import io.bunting.prochelp.ProcessExecutor.OverflowPolicy;
+
+/**
+ * Configures a {@link ProcessExecutor}.
+ */
+public class ProcessExecutorBuilder
+{
+	private int maxRunning = Runtime.getRuntime().availableProcessors();
+	private int maxDescriptors = Integer.MAX_VALUE;
+	private int descriptorsPerChild = 3;
+	private int maxQueued = Integer.MAX_VALUE;
+	private OverflowPolicy overflowPolicy = OverflowPolicy.REJECT;
+	private Executor executor = ForkJoinPool.commonPool();
+
+	/**
+	 * The number of children that may run at once. Defaults to the number of processors.
+	 */
+	public ProcessExecutorBuilder maxRunning(final int maxRunning)
+	{
+		if (maxRunning < 1)
+		{
+			throw new IllegalArgumentException("At least one child must be allowed to run.");
+		}
+		this.maxRunning = maxRunning;
+		return this;
+	}
+
+	/**
+	 * The number of pipe descriptors the running children may hold open in this JVM. Unbounded by default.
+	 */
+	public ProcessExecutorBuilder maxDescriptors(final int maxDescriptors)
+	{
+		if (maxDescriptors < 0)
+		{
+			throw new IllegalArgumentException("The number of descriptors must not be negative.");
+		}
+		this.maxDescriptors = maxDescriptors;
+		return this;
+	}
+
+	/**
+	 * The number of descriptors accounted to each running child. Defaults to 3, one for each piped standard stream.
+	 */
+	public ProcessExecutorBuilder descriptorsPerChild(final int descriptorsPerChild)
+	{
+		if (descriptorsPerChild < 0)
+		{
+			throw new IllegalArgumentException("The number of descriptors per child must not be negative.");
+		}
+		this.descriptorsPerChild = descriptorsPerChild;
+		return this;
+	}
+
+	/**
+	 * The number of callables that may wait to be started. Unbounded by default.
+	 */
+	public ProcessExecutorBuilder maxQueued(final int maxQueued)
+	{
+		if (maxQueued < 0)
+		{
+			throw new IllegalArgumentException("The number of queued callables must not be negative.");
+		}
+		this.maxQueued = maxQueued;
+		return this;
+	}
+
+	/**
+	 * What happens to submissions while the queue is full. Defaults to {@link OverflowPolicy#REJECT}.
+	 */
+	public ProcessExecutorBuilder overflowPolicy(final OverflowPolicy overflowPolicy)
+	{
+		this.overflowPolicy = overflowPolicy;
+		return this;
+	}
+
+	/**
+	 * The executor the completion functions run on, and from which queued children are started. Defaults to the common pool.
+	 */
+	public ProcessExecutorBuilder executor(final Executor executor)
+	{
+		this.executor = executor;
+		return this;
+	}
+
+	public ProcessExecutor build()
+	{
+		if (descriptorsPerChild > maxDescriptors)
+		{
+			throw new IllegalArgumentException("A single child needs more descriptors than allowed.");
+		}
+		return new ProcessExecutor(maxRunning, maxDescriptors, descriptorsPerChild, maxQueued, overflowPolicy, executor);
+	}
+}
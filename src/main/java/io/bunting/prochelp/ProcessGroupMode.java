@@ -0,0 +1,60 @@
+package io.bunting.prochelp;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import jnr.posix.SpawnAttribute;
+
+/**
+ * Where a child is placed among the process groups and sessions, see {@link EnhancedProcessBuilder#processGroup(ProcessGroupMode)}.
+ *
+ * A child in a group of its own can be signalled together with everything it started, as long as those did not move to yet another group
+ * themselves; see {@link EnhancedProcess#destroyTree()}.
+ */
+public enum ProcessGroupMode
+{
+	/**
+	 * The child stays in the process group and session of this JVM.
+	 */
+	INHERIT,
+	/**
+	 * The child leads a new process group of its own.
+	 */
+	GROUP,
+	/**
+	 * The child leads a new session, and with it a new process group, detached from any controlling terminal. Only supported on Linux.
+	 */
+	SESSION;
+
+	// glibc 2.26 and later
+	private static final short POSIX_SPAWN_SETSID = 0x80;
+
+	/**
+	 * @return the spawn attributes that place the child
+	 */
+	List<SpawnAttribute> attributes()
+	{
+		switch (this)
+		{
+			case GROUP:
+				return Arrays.asList(SpawnAttribute.flags((short) SpawnAttribute.SETPGROUP), SpawnAttribute.pgroup(0));
+			case SESSION:
+				if (!Native.isLinux())
+				{
+					throw new UnsupportedOperationException("Spawning into a new session is only supported on Linux.");
+				}
+				return Collections.singletonList(SpawnAttribute.flags(POSIX_SPAWN_SETSID));
+			default:
+				return Collections.emptyList();
+		}
+	}
+
+	/**
+	 * @return true if the child leads a process group whose id is its pid
+	 */
+	boolean leadsGroup()
+	{
+		return this != INHERIT;
+	}
+}
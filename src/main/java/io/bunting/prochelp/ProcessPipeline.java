@@ -0,0 +1,120 @@
+package io.bunting.prochelp;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A running pipeline started by {@link ProcessPipelineBuilder}.
+ *
+ * The combined exit value follows the {@code pipefail} convention: it is the exit value of the last stage that failed, or 0 if every stage
+ * succeeded. The individual exit values are available through {@link #exitValues()}.
+ */
+public class ProcessPipeline
+{
+	private final List<EnhancedProcess> stages;
+
+	ProcessPipeline(final List<EnhancedProcess> stages)
+	{
+		this.stages = stages;
+	}
+
+	/**
+	 * @return the processes of this pipeline, in order
+	 */
+	public List<EnhancedProcess> stages()
+	{
+		return stages;
+	}
+
+	/**
+	 * @return the input of the first stage
+	 */
+	public OutputStream getOutputStream()
+	{
+		return stages.get(0).getOutputStream();
+	}
+
+	/**
+	 * @return the output of the last stage
+	 */
+	public InputStream getInputStream()
+	{
+		return stages.get(stages.size() - 1).getInputStream();
+	}
+
+	public int waitFor() throws InterruptedException
+	{
+		for (EnhancedProcess stage : stages)
+		{
+			stage.waitFor();
+		}
+		return this.exitValue();
+	}
+
+	public boolean waitFor(final long timeout, final TimeUnit unit) throws InterruptedException
+	{
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		for (EnhancedProcess stage : stages)
+		{
+			if (!stage.waitFor(deadline - System.nanoTime(), TimeUnit.NANOSECONDS))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return a future that completes with this pipeline once every stage has exited
+	 */
+	public CompletableFuture<ProcessPipeline> onExit()
+	{
+		return CompletableFuture.allOf(stages.stream().map(EnhancedProcess::onExit).toArray(CompletableFuture[]::new))
+		                        .thenApply(ignored -> this);
+	}
+
+	public boolean isAlive()
+	{
+		return stages.stream().anyMatch(EnhancedProcess::isAlive);
+	}
+
+	/**
+	 * @return the exit value of the last failed stage, or 0 if all stages succeeded
+	 * @throws IllegalThreadStateException if any stage is still running
+	 */
+	public int exitValue()
+	{
+		int exitValue = 0;
+		for (int value : this.exitValues())
+		{
+			if (value != 0)
+			{
+				exitValue = value;
+			}
+		}
+		return exitValue;
+	}
+
+	/**
+	 * @return the exit value of every stage, in order
+	 * @throws IllegalThreadStateException if any stage is still running
+	 */
+	public int[] exitValues()
+	{
+		return stages.stream().mapToInt(EnhancedProcess::exitValue).toArray();
+	}
+
+	public void destroy()
+	{
+		stages.forEach(EnhancedProcess::destroy);
+	}
+
+	public ProcessPipeline destroyForcibly()
+	{
+		stages.forEach(EnhancedProcess::destroyForcibly);
+		return this;
+	}
+}
@@ -0,0 +1,96 @@
+package io.bunting.prochelp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.Function;
+
+import jnr.posix.POSIX;
+import jnr.posix.POSIXFactory;
+
+/**
+ * Starts several {@link EnhancedProcessBuilder}s as a shell style pipeline ({@code a | b | c}).
+ *
+ * Neighbouring stages are connected by a single kernel pipe that is dup'ed straight into both children, so the data flows from one child to
+ * the next without ever passing through the JVM. The first stage's input and the last stage's output, as well as every stage's error stream,
+ * are redirected exactly as configured on the respective builder; the redirects between stages are ignored.
+ */
+public class ProcessPipelineBuilder
+{
+	private static final int PIPE_READ_SIDE = 0;
+	private static final int PIPE_WRITE_SIDE = 1;
+
+	private final POSIX posix = POSIXFactory.getPOSIX();
+	private final List<EnhancedProcessBuilder> stages;
+
+	public ProcessPipelineBuilder(final List<EnhancedProcessBuilder> stages)
+	{
+		if (stages.isEmpty())
+		{
+			throw new IllegalArgumentException("A pipeline needs at least one stage.");
+		}
+		this.stages = Collections.unmodifiableList(new ArrayList<>(stages));
+	}
+
+	public ProcessPipelineBuilder(final EnhancedProcessBuilder ... stages)
+	{
+		this(Arrays.asList(stages));
+	}
+
+	/**
+	 * Starts every stage. If any stage fails to start, the stages already running are killed before the failure is rethrown.
+	 */
+	public ProcessPipeline start()
+	{
+		final List<EnhancedProcess> processes = new ArrayList<>(stages.size());
+		// the read side of the pipe feeding the next stage, owned by us until it is handed to that stage
+		int upstream = -1;
+		try
+		{
+			for (int i = 0; i < stages.size(); i++)
+			{
+				final EnhancedProcessOptions options = stages.get(i).options();
+				final boolean last = i == stages.size() - 1;
+
+				final int[] fds = new int[] { -1, -1 };
+				if (!last)
+				{
+					DefaultPipeHandler.pipe(fds, 0);
+				}
+
+				final PipeHandler in = i == 0 ? options.getInputHandler().get() : new DupPipeHandler(upstream);
+				final PipeHandler out = last ? options.getOutputHandler().get() : new DupPipeHandler(fds[PIPE_WRITE_SIDE]);
+				upstream = fds[PIPE_READ_SIDE];
+
+				processes.add(options.start(in, out, options.getErrorHandler().get()));
+			}
+		}
+		catch (RuntimeException e)
+		{
+			if (upstream >= 0)
+			{
+				posix.close(upstream);
+			}
+			for (EnhancedProcess process : processes)
+			{
+				process.destroyForcibly();
+			}
+			throw e;
+		}
+		return new ProcessPipeline(processes);
+	}
+
+	/**
+	 * Creates a callable that starts the pipeline, waits for every stage to exit and then applies the completion function.
+	 */
+	public <T> Callable<T> create(final Function<ProcessPipeline, T> completion)
+	{
+		return () -> {
+			final ProcessPipeline pipeline = this.start();
+			pipeline.waitFor();
+			return completion.apply(pipeline);
+		};
+	}
+}
@@ -0,0 +1,208 @@
+package io.bunting.prochelp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import jnr.constants.platform.Errno;
+import jnr.constants.platform.WaitFlags;
+import jnr.enxio.channels.NativeDeviceChannel;
+import jnr.enxio.channels.NativeSelectorProvider;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A single, shared thread that reaps every child started by this library and records its exit status on the owning {@link EnhancedProcess}.
+ *
+ * Where the kernel supports it (Linux 5.3+), each child is watched through a pidfd registered with one selector, so the reaper sleeps until a
+ * child actually exits and then reaps exactly that pid. On other platforms the reaper falls back to sweeping the outstanding pids with
+ * {@code wait4(WNOHANG)}, backing off while nothing changes. Either way there is only ever one thread, and waiters are woken as soon as their
+ * child has been reaped. Reaping with {@code wait4(2)} also yields the child's {@link ResourceUsage} for free.
+ */
+final class ProcessReaper
+{
+	private static final Logger logger = LoggerFactory.getLogger(ProcessReaper.class);
+
+	private static final long MIN_SWEEP_MILLIS = 1;
+	private static final long MAX_SWEEP_MILLIS = 50;
+
+	/**
+	 * The wait status recorded when a child has been reaped by someone else and its real status is lost. Decodes to an exit value of 255.
+	 */
+	private static final int UNKNOWN_STATUS = 0xFF00;
+
+	private static final class SingletonHolder
+	{
+		private static final ProcessReaper INSTANCE = new ProcessReaper();
+	}
+
+	static ProcessReaper getInstance()
+	{
+		return SingletonHolder.INSTANCE;
+	}
+
+	private final Queue<EnhancedProcess> pending = new ConcurrentLinkedQueue<>();
+	private final Selector selector;
+
+	// the fields below are only touched by the reaper thread
+	private final Map<Long, EnhancedProcess> swept = new HashMap<>();
+	private final int[] status = new int[1];
+	private final ByteBuffer rusage = ByteBuffer.allocateDirect(ResourceUsage.SIZE).order(ByteOrder.nativeOrder());
+	private boolean pidfdSupported = true;
+
+	private ProcessReaper()
+	{
+		try
+		{
+			this.selector = NativeSelectorProvider.getInstance().openSelector();
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("Failed to open the process reaper's selector.", e);
+		}
+		final Thread thread = new Thread(this::run, "moreproc-reaper");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Starts watching the given process. Its exit status will be delivered through {@link EnhancedProcess#reaped(int, ResourceUsage)} on the
+	 * reaper thread.
+	 */
+	void register(final EnhancedProcess process)
+	{
+		pending.add(process);
+		selector.wakeup();
+	}
+
+	private void run()
+	{
+		long sweepMillis = MIN_SWEEP_MILLIS;
+		while (true)
+		{
+			try
+			{
+				if (drainPending())
+				{
+					sweepMillis = MIN_SWEEP_MILLIS;
+				}
+
+				if (swept.isEmpty())
+				{
+					selector.select();
+				}
+				else
+				{
+					selector.select(sweepMillis);
+				}
+
+				final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext())
+				{
+					final SelectionKey key = keys.next();
+					keys.remove();
+					if (tryReap((EnhancedProcess) key.attachment()))
+					{
+						key.channel().close();
+					}
+				}
+
+				if (!swept.isEmpty())
+				{
+					if (sweep())
+					{
+						sweepMillis = MIN_SWEEP_MILLIS;
+					}
+					else
+					{
+						sweepMillis = Math.min(sweepMillis * 2, MAX_SWEEP_MILLIS);
+					}
+				}
+			}
+			catch (Throwable e)
+			{
+				logger.error("Unexpected failure in the process reaper.", e);
+			}
+		}
+	}
+
+	private boolean drainPending() throws IOException
+	{
+		boolean added = false;
+		EnhancedProcess process;
+		while ((process = pending.poll()) != null)
+		{
+			added = true;
+			if (!watch(process))
+			{
+				swept.put(process.getPid(), process);
+			}
+		}
+		return added;
+	}
+
+	private boolean watch(final EnhancedProcess process) throws IOException
+	{
+		if (!pidfdSupported)
+		{
+			return false;
+		}
+		final int pidfd = Native.pidfdOpen(process.getPid());
+		if (pidfd < 0)
+		{
+			final Errno errno = Errno.valueOf(Native.errno());
+			if (errno == Errno.ENOSYS || errno == Errno.EPERM)
+			{
+				logger.debug("pidfd_open is unavailable ({}), falling back to sweeping for exited children.", errno);
+				pidfdSupported = false;
+			}
+			return false;
+		}
+		final NativeDeviceChannel channel = new NativeDeviceChannel(NativeSelectorProvider.getInstance(), pidfd, SelectionKey.OP_READ);
+		channel.configureBlocking(false);
+		channel.register(selector, SelectionKey.OP_READ, process);
+		return true;
+	}
+
+	private boolean sweep()
+	{
+		boolean reaped = false;
+		final Iterator<EnhancedProcess> processes = swept.values().iterator();
+		while (processes.hasNext())
+		{
+			if (tryReap(processes.next()))
+			{
+				processes.remove();
+				reaped = true;
+			}
+		}
+		return reaped;
+	}
+
+	private boolean tryReap(final EnhancedProcess process)
+	{
+		final int result = Native.wait4(process.getPid(), status, WaitFlags.WNOHANG.intValue(), rusage);
+		if (result == 0)
+		{
+			return false;
+		}
+		if (result < 0)
+		{
+			logger.warn("Failed to reap process {}: {}. Its exit status is unknown.", process.getPid(), Errno.valueOf(Native.errno()).description());
+			process.reaped(UNKNOWN_STATUS, ResourceUsage.UNKNOWN);
+		}
+		else
+		{
+			process.reaped(status[0], ResourceUsage.decode(rusage));
+		}
+		return true;
+	}
+}
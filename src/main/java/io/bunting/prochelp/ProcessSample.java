@@ -0,0 +1,105 @@
+package io.bunting.prochelp;
+
+/**
+ * What a running child looked like at one point in time, as read from {@code /proc} by a {@link SamplingMonitor}.
+ */
+public final class ProcessSample
+{
+	private final long pid;
+	private final long timestampNanos;
+	private final double cpuPercent;
+	private final long cpuNanos;
+	private final long rssBytes;
+	private final long virtualBytes;
+	private final int threads;
+	private final long readBytes;
+	private final long writtenBytes;
+
+	ProcessSample(final long pid, final long timestampNanos, final double cpuPercent, final long cpuNanos, final long rssBytes,
+	              final long virtualBytes, final int threads, final long readBytes, final long writtenBytes)
+	{
+		this.pid = pid;
+		this.timestampNanos = timestampNanos;
+		this.cpuPercent = cpuPercent;
+		this.cpuNanos = cpuNanos;
+		this.rssBytes = rssBytes;
+		this.virtualBytes = virtualBytes;
+		this.threads = threads;
+		this.readBytes = readBytes;
+		this.writtenBytes = writtenBytes;
+	}
+
+	public long pid()
+	{
+		return pid;
+	}
+
+	/**
+	 * @return when the sample was taken, in {@link System#nanoTime()}
+	 */
+	public long timestampNanos()
+	{
+		return timestampNanos;
+	}
+
+	/**
+	 * @return the CPU the child used since the previous sample, where 100 is one core; 0 for the first sample
+	 */
+	public double cpuPercent()
+	{
+		return cpuPercent;
+	}
+
+	/**
+	 * @return the user and system CPU time the child used so far, in nanoseconds (with clock tick precision)
+	 */
+	public long cpuNanos()
+	{
+		return cpuNanos;
+	}
+
+	/**
+	 * @return the child's resident set size, in bytes
+	 */
+	public long rssBytes()
+	{
+		return rssBytes;
+	}
+
+	/**
+	 * @return the size of the child's address space, in bytes
+	 */
+	public long virtualBytes()
+	{
+		return virtualBytes;
+	}
+
+	public int threads()
+	{
+		return threads;
+	}
+
+	/**
+	 * @return the bytes the child read so far, from files, pipes and sockets alike, or -1 if not available
+	 */
+	public long readBytes()
+	{
+		return readBytes;
+	}
+
+	/**
+	 * @return the bytes the child wrote so far, to files, pipes and sockets alike, or -1 if not available
+	 */
+	public long writtenBytes()
+	{
+		return writtenBytes;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "ProcessSample{pid=" + pid + ", timestampNanos=" + timestampNanos + ", cpuPercent=" + cpuPercent + ", cpuNanos=" + cpuNanos +
+		       ", rssBytes=" + rssBytes + ", virtualBytes=" + virtualBytes + ", threads=" + threads + ", readBytes=" + readBytes +
+		       ", writtenBytes=" + writtenBytes + "}";
+	}
+}
@@ -1,7 +1,13 @@
 package io.bunting.prochelp;
 
 import java.io.File;
+import java.io.FileDescriptor;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.Objects;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
 
 /**
  * TODO: Document this class
@@ -11,20 +17,63 @@ public class Redirect
 	public enum Type
 	{
 		APPEND,
+		CALLBACK,
+		CAPTURE,
+		CHANNEL,
+		DISCARD,
 		INHERIT,
+		MEMORY,
 		PIPE,
 		READ,
+		TAIL,
 		WRITE
 	}
 
 	public static final Redirect INHERIT = new Redirect(Type.INHERIT, null);
+	/**
+	 * Connects the stream to {@code /dev/null}, through a descriptor that is shared by all children.
+	 */
+	public static final Redirect DISCARD = new Redirect(Type.DISCARD, null);
 	public static final Redirect PIPE = new Redirect(Type.PIPE, null);
 
+	/**
+	 * A pipe like {@link #PIPE}, with a buffer of {@code size} bytes rather than the kernel's default of 64 KB. A child writing a lot of
+	 * output then blocks, and the reader wakes up, far less often. Sizes above {@code /proc/sys/fs/pipe-max-size} are reduced to it; on
+	 * platforms other than Linux the size is ignored.
+	 */
+	public static final Redirect pipe(final int size)
+	{
+		if (size <= 0)
+		{
+			throw new IllegalArgumentException("The pipe size must be positive.");
+		}
+		return new Redirect(Type.PIPE, null, () -> new DefaultPipeHandler(size));
+	}
+
 	public static final Redirect from(final File file)
 	{
 		return new Redirect(Type.READ, file);
 	}
 
+	/**
+	 * Gives the bytes between the buffer's position and limit to the child as its input. They are copied into an in-memory file that the
+	 * child reads directly, so no thread has to write them while its output is being read. The bytes are copied again for every process
+	 * started, and the buffer's position is left alone. Only valid for input.
+	 */
+	public static final Redirect from(final ByteBuffer payload)
+	{
+		final ByteBuffer view = payload.duplicate();
+		return new Redirect(Type.MEMORY, null, () -> new MemoryPipeHandler(view));
+	}
+
+	/**
+	 * Gives the bytes to the child as its input, like {@link #from(ByteBuffer)}. The array is not copied until a process is started.
+	 */
+	public static final Redirect from(final byte[] payload)
+	{
+		return from(ByteBuffer.wrap(payload));
+	}
+
 	public static final Redirect to(final File file)
 	{
 		return new Redirect(Type.WRITE, file);
@@ -35,13 +84,115 @@ public class Redirect
 		return new Redirect(Type.APPEND, file);
 	}
 
+	/**
+	 * Delivers the output to the consumer in pooled, direct buffers as it arrives. Only valid for output and error.
+	 */
+	public static final Redirect to(final ChunkConsumer consumer)
+	{
+		Objects.requireNonNull(consumer, "consumer");
+		return new Redirect(Type.CALLBACK, null, () -> new ChunkPipeHandler(consumer));
+	}
+
+	/**
+	 * Delivers the output to the consumer one line at a time, as it arrives. The lines are views of the pooled buffers the output was read
+	 * into, and are only decoded if they are used as text, so no garbage is created per line. Only valid for output and error.
+	 */
+	public static final Redirect toLines(final LineConsumer consumer)
+	{
+		Objects.requireNonNull(consumer, "consumer");
+		return new Redirect(Type.CALLBACK, null, () -> new ChunkPipeHandler(new LineSplitter(consumer)));
+	}
+
+	/**
+	 * Moves the output into the channel as it arrives, for example an open {@link java.nio.channels.FileChannel} or
+	 * {@link java.nio.channels.SocketChannel}. For channels backed by a descriptor this happens with {@code splice(2)}, so the data never
+	 * reaches the Java heap. On Java 9 and later that takes starting the JVM with
+	 * {@code --add-opens java.base/sun.nio.ch=ALL-UNNAMED --add-opens java.base/java.io=ALL-UNNAMED}; without it the output is copied
+	 * through pooled buffers, and a warning is logged. The channel is not closed, and the process' {@link EnhancedProcess#onDrained()} only
+	 * completes once all of its output has been written. Only valid for output and error.
+	 */
+	public static final Redirect to(final WritableByteChannel channel)
+	{
+		Objects.requireNonNull(channel, "channel");
+		final int fd = Native.fdOf(channel);
+		return new Redirect(Type.CHANNEL, null, () -> new TransferPipeHandler(fd, channel));
+	}
+
+	/**
+	 * Moves the output to the descriptor as it arrives, like {@link #to(WritableByteChannel)}. The descriptor is not closed. Only valid for
+	 * output and error.
+	 */
+	public static final Redirect to(final FileDescriptor descriptor)
+	{
+		final int fd = Native.fdOf(descriptor);
+		if (fd < 0)
+		{
+			throw new IllegalArgumentException("Not a valid file descriptor, or not accessible without " + Native.ADD_OPENS + ".");
+		}
+		return new Redirect(Type.CHANNEL, null, () -> new TransferPipeHandler(fd, null));
+	}
+
+	/**
+	 * Captures the output in memory that the child writes to directly, rather than through a pipe. Once the child has exited the output is
+	 * available from {@link EnhancedProcess#getCapturedOutput()} or {@link EnhancedProcess#getCapturedError()} as a read-only, memory
+	 * mapped buffer that never touches the heap. Only the first 2 GB are available. Only valid for output and error.
+	 */
+	public static final Redirect capture()
+	{
+		return new Redirect(Type.CAPTURE, null, () -> new CapturePipeHandler(CapturePipeHandler.MAX_BYTES));
+	}
+
+	/**
+	 * Captures the output like {@link #capture()}, but keeps at most {@code maxBytes} of it. On Linux the child's writes fail with
+	 * {@code EPERM} soon after it passes the cap, so a runaway child can not use up memory; elsewhere the output is cut off once the child
+	 * has exited.
+	 */
+	public static final Redirect capture(final long maxBytes)
+	{
+		if (maxBytes < 0 || maxBytes > CapturePipeHandler.MAX_BYTES)
+		{
+			throw new IllegalArgumentException("The cap must be between 0 and " + CapturePipeHandler.MAX_BYTES + " bytes.");
+		}
+		return new Redirect(Type.CAPTURE, null, () -> new CapturePipeHandler(maxBytes));
+	}
+
+	/**
+	 * Keeps the last {@code maxBytes} of the output in a ring buffer that is drained as the output arrives, so the child never blocks and
+	 * the memory held stays the same however much it writes. The tail is available from {@link EnhancedProcess#getCapturedOutput()} or
+	 * {@link EnhancedProcess#getCapturedError()} once the child has exited. Only valid for output and error.
+	 */
+	public static final Redirect tail(final int maxBytes)
+	{
+		return tailLines(0, maxBytes);
+	}
+
+	/**
+	 * Keeps the last {@code lines} lines of the output, like {@link #tail(int)}, as far as they fit into {@code maxBytes}. If they do not,
+	 * the first of the lines kept is cut off at the front.
+	 */
+	public static final Redirect tailLines(final int lines, final int maxBytes)
+	{
+		if (lines < 0 || maxBytes <= 0)
+		{
+			throw new IllegalArgumentException("The tail must have room for at least one byte.");
+		}
+		return new Redirect(Type.TAIL, null, () -> new TailPipeHandler(maxBytes, lines));
+	}
+
 	private final Type type;
 	private final File file;
+	private final Supplier<PipeHandler> handler;
 
 	private Redirect(final Type type, final File file)
+	{
+		this(type, file, null);
+	}
+
+	private Redirect(final Type type, final File file, final Supplier<PipeHandler> handler)
 	{
 		this.type = type;
 		this.file = file;
+		this.handler = handler;
 	}
 
 	public File file()
@@ -54,6 +205,15 @@ public class Redirect
 		return this.type;
 	}
 
+	/**
+	 * @return the handler for redirects that are not described by their type and file alone, or null
+	 */
+	@Nullable
+	Supplier<PipeHandler> handler()
+	{
+		return this.handler;
+	}
+
 	@Override
 	public boolean equals(final Object o)
 	{
@@ -67,12 +227,13 @@ public class Redirect
 		}
 		final Redirect redirect = (Redirect) o;
 		return type == redirect.type &&
-		       Objects.equals(file, redirect.file);
+		       Objects.equals(file, redirect.file) &&
+		       Objects.equals(handler, redirect.handler);
 	}
 
 	@Override
 	public int hashCode()
 	{
-		return Objects.hash(type, file);
+		return Objects.hash(type, file, handler);
 	}
 }
@@ -0,0 +1,37 @@
+package io.bunting.prochelp;
+
+/**
+ * The resource limits a child can be started with, see {@link EnhancedProcessBuilder#limit(ResourceLimit, long)}.
+ */
+public enum ResourceLimit
+{
+	/**
+	 * {@code RLIMIT_CPU}: the CPU time in seconds after which the child is sent {@code SIGXCPU}.
+	 */
+	CPU_SECONDS('t', 1),
+	/**
+	 * {@code RLIMIT_AS}: the size of the child's address space in bytes, rounded down to kilobytes.
+	 */
+	ADDRESS_SPACE_BYTES('v', 1024),
+	/**
+	 * {@code RLIMIT_NOFILE}: one more than the highest descriptor the child can open.
+	 */
+	OPEN_FILES('n', 1);
+
+	private final char ulimitOption;
+	private final long ulimitUnit;
+
+	ResourceLimit(final char ulimitOption, final long ulimitUnit)
+	{
+		this.ulimitOption = ulimitOption;
+		this.ulimitUnit = ulimitUnit;
+	}
+
+	/**
+	 * @return the {@code ulimit} arguments that set this limit in a POSIX shell
+	 */
+	String ulimit(final long value)
+	{
+		return "-" + ulimitOption + " " + value / ulimitUnit;
+	}
+}
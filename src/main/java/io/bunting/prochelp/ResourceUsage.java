@@ -0,0 +1,156 @@
+package io.bunting.prochelp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The resources a child used over its lifetime, as reported by {@code wait4(2)} when it was reaped. Getting them costs nothing beyond the
+ * reaping itself, and they cover only the child, not any descendants it did not wait for.
+ */
+public final class ResourceUsage
+{
+	/**
+	 * The size of {@code struct rusage} on 64 bit Linux and macOS: two timevals followed by 14 longs.
+	 */
+	static final int SIZE = 144;
+
+	/**
+	 * Reported for children whose usage is unknown, e.g. because they were reaped by someone else.
+	 */
+	static final ResourceUsage UNKNOWN = new ResourceUsage(0, 0, 0, 0, 0, 0, 0, 0, 0);
+
+	private final long userNanos;
+	private final long systemNanos;
+	private final long maxRssBytes;
+	private final long minorFaults;
+	private final long majorFaults;
+	private final long blockInputs;
+	private final long blockOutputs;
+	private final long voluntaryContextSwitches;
+	private final long involuntaryContextSwitches;
+
+	ResourceUsage(final long userNanos, final long systemNanos, final long maxRssBytes, final long minorFaults, final long majorFaults,
+	              final long blockInputs, final long blockOutputs, final long voluntaryContextSwitches, final long involuntaryContextSwitches)
+	{
+		this.userNanos = userNanos;
+		this.systemNanos = systemNanos;
+		this.maxRssBytes = maxRssBytes;
+		this.minorFaults = minorFaults;
+		this.majorFaults = majorFaults;
+		this.blockInputs = blockInputs;
+		this.blockOutputs = blockOutputs;
+		this.voluntaryContextSwitches = voluntaryContextSwitches;
+		this.involuntaryContextSwitches = involuntaryContextSwitches;
+	}
+
+	/**
+	 * Decodes a native ordered {@code struct rusage}.
+	 */
+	static ResourceUsage decode(final ByteBuffer rusage)
+	{
+		// Linux reports the maximum resident set size in kilobytes, macOS in bytes
+		final long rssUnit = Native.isLinux() ? 1024 : 1;
+		return new ResourceUsage(timeval(rusage, 0),
+		                         timeval(rusage, 16),
+		                         rusage.getLong(32) * rssUnit,
+		                         rusage.getLong(64),
+		                         rusage.getLong(72),
+		                         rusage.getLong(88),
+		                         rusage.getLong(96),
+		                         rusage.getLong(128),
+		                         rusage.getLong(136));
+	}
+
+	private static long timeval(final ByteBuffer rusage, final int offset)
+	{
+		// the microseconds are a long on Linux and an int on macOS, whose low half comes first on the little endian machines either runs on
+		return rusage.getLong(offset) * 1_000_000_000L + (rusage.getLong(offset + 8) & 0xFFFFFFFFL) * 1_000L;
+	}
+
+	/**
+	 * @return the CPU time spent in user mode, in nanoseconds (with microsecond precision)
+	 */
+	public long userNanos()
+	{
+		return userNanos;
+	}
+
+	/**
+	 * @return the CPU time spent in the kernel, in nanoseconds (with microsecond precision)
+	 */
+	public long systemNanos()
+	{
+		return systemNanos;
+	}
+
+	/**
+	 * @return the user and system CPU time together, in nanoseconds
+	 */
+	public long cpuNanos()
+	{
+		return userNanos + systemNanos;
+	}
+
+	/**
+	 * @return the largest resident set size the child reached, in bytes
+	 */
+	public long maxRssBytes()
+	{
+		return maxRssBytes;
+	}
+
+	/**
+	 * @return the page faults served without any I/O
+	 */
+	public long minorFaults()
+	{
+		return minorFaults;
+	}
+
+	/**
+	 * @return the page faults that required I/O
+	 */
+	public long majorFaults()
+	{
+		return majorFaults;
+	}
+
+	/**
+	 * @return the times the file system had to read from disk
+	 */
+	public long blockInputs()
+	{
+		return blockInputs;
+	}
+
+	/**
+	 * @return the times the file system had to write to disk
+	 */
+	public long blockOutputs()
+	{
+		return blockOutputs;
+	}
+
+	/**
+	 * @return the times the child gave up the CPU before its time slice was over, usually to wait for I/O
+	 */
+	public long voluntaryContextSwitches()
+	{
+		return voluntaryContextSwitches;
+	}
+
+	/**
+	 * @return the times the child was preempted
+	 */
+	public long involuntaryContextSwitches()
+	{
+		return involuntaryContextSwitches;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "ResourceUsage{userNanos=" + userNanos + ", systemNanos=" + systemNanos + ", maxRssBytes=" + maxRssBytes + ", minorFaults=" +
+		       minorFaults + ", majorFaults=" + majorFaults + ", blockInputs=" + blockInputs + ", blockOutputs=" + blockOutputs +
+		       ", voluntaryContextSwitches=" + voluntaryContextSwitches + ", involuntaryContextSwitches=" + involuntaryContextSwitches + "}";
+	}
+}
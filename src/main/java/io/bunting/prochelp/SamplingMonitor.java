@@ -0,0 +1,316 @@
+package io.bunting.prochelp;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.annotation.Nullable;
+
+import jnr.constants.platform.Sysconf;
+import jnr.posix.POSIXFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link Monitor} that samples the CPU, memory, thread count and I/O of its children from {@code /proc} while they run.
+ *
+ * Every instance samples all of its live children in one batch per interval, and all instances share a single sampler thread, so watching
+ * many children costs no more threads than watching one. Reading and parsing {@code /proc/<pid>/stat}, {@code statm} and {@code io} reuses
+ * one buffer and allocates nothing; the only allocation is the {@link ProcessSample} handed to the subscribers. The sampler runs on its own
+ * schedule, so it works the same for children started with {@link ProcessCallable#callAsync()}, where nobody calls
+ * {@link #update(EnhancedProcess)}. On platforms without {@code /proc} no samples are taken.
+ */
+public final class SamplingMonitor implements Monitor
+{
+	private static final Logger logger = LoggerFactory.getLogger(SamplingMonitor.class);
+
+	private static final int BUFFER_SIZE = 4096;
+
+	// fields of /proc/<pid>/stat, counted from 1 as in proc(5)
+	private static final int STAT_UTIME = 14;
+	private static final int STAT_STIME = 15;
+	private static final int STAT_NUM_THREADS = 20;
+
+	private static final class SingletonHolder
+	{
+		private static final ScheduledExecutorService SAMPLER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			final Thread thread = new Thread(runnable, "moreproc-sampler");
+			thread.setDaemon(true);
+			return thread;
+		});
+		private static final long NANOS_PER_TICK = TimeUnit.SECONDS.toNanos(1) / POSIXFactory.getPOSIX().sysconf(Sysconf._SC_CLK_TCK);
+		private static final long PAGE_SIZE = POSIXFactory.getPOSIX().sysconf(Sysconf._SC_PAGESIZE);
+	}
+
+	/**
+	 * Cancels a subscription made with {@link #subscribe(Consumer)}.
+	 */
+	public interface Subscription
+	{
+		void cancel();
+	}
+
+	private final long intervalNanos;
+	private final Map<Long, Child> children = new ConcurrentHashMap<>();
+	private final List<Consumer<? super ProcessSample>> subscribers = new CopyOnWriteArrayList<>();
+	// only touched on the sampler thread
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	// guarded by this
+	private ScheduledFuture<?> task;
+
+	public SamplingMonitor(final long interval, final TimeUnit unit)
+	{
+		if (interval <= 0)
+		{
+			throw new IllegalArgumentException("The interval must be positive.");
+		}
+		this.intervalNanos = unit.toNanos(interval);
+	}
+
+	@Override
+	public synchronized void setup(final EnhancedProcess process)
+	{
+		children.put(process.getPid(), new Child(process));
+		if (task == null)
+		{
+			task = SingletonHolder.SAMPLER.scheduleAtFixedRate(this::sample, 0, intervalNanos, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	@Override
+	public synchronized void cleanup(final EnhancedProcess process)
+	{
+		children.remove(process.getPid());
+		if (children.isEmpty() && task != null)
+		{
+			task.cancel(false);
+			task = null;
+		}
+	}
+
+	/**
+	 * Has the subscriber called with every sample taken from now on, on the sampler thread. It must not block, or it delays the sampling of
+	 * every other child in this JVM.
+	 */
+	public Subscription subscribe(final Consumer<? super ProcessSample> subscriber)
+	{
+		subscribers.add(subscriber);
+		return () -> subscribers.remove(subscriber);
+	}
+
+	/**
+	 * @return the most recent sample of the process, or null if it has not been sampled yet or is no longer watched
+	 */
+	@Nullable
+	public ProcessSample latest(final EnhancedProcess process)
+	{
+		final Child child = children.get(process.getPid());
+		return child == null ? null : child.latest;
+	}
+
+	private void sample()
+	{
+		for (Child child : children.values())
+		{
+			try
+			{
+				final ProcessSample sample = this.sample(child);
+				if (sample != null)
+				{
+					child.latest = sample;
+					this.publish(sample);
+				}
+			}
+			catch (RuntimeException e)
+			{
+				logger.warn("Failed to sample process {}.", child.process.getPid(), e);
+			}
+		}
+	}
+
+	@Nullable
+	private ProcessSample sample(final Child child)
+	{
+		if (!child.process.isAlive())
+		{
+			return null;
+		}
+		final long now = System.nanoTime();
+
+		if (!Native.readFile(child.stat, buffer))
+		{
+			return null;
+		}
+		// the command name may contain spaces and parentheses of its own, so start after the last ')', at field 3
+		int position = lastIndexOf(buffer, (byte) ')') + 2;
+		if (position >= buffer.limit() || buffer.get(position) == 'Z')
+		{
+			// a zombie has released its memory already, and its numbers are about to be reported by the reaper anyway
+			return null;
+		}
+		long ticks = 0;
+		int threads = 0;
+		for (int field = 3; field <= STAT_NUM_THREADS && position < buffer.limit(); field++)
+		{
+			if (field == STAT_UTIME || field == STAT_STIME)
+			{
+				ticks += number(buffer, position);
+			}
+			else if (field == STAT_NUM_THREADS)
+			{
+				threads = (int) number(buffer, position);
+			}
+			position = nextField(buffer, position);
+		}
+
+		if (!Native.readFile(child.statm, buffer))
+		{
+			return null;
+		}
+		final long virtualPages = number(buffer, 0);
+		final long residentPages = number(buffer, nextField(buffer, 0));
+
+		long readBytes = -1;
+		long writtenBytes = -1;
+		// starts with "rchar: <n>" and "wchar: <n>"
+		if (Native.readFile(child.io, buffer))
+		{
+			final int rchar = indexOf(buffer, (byte) ':', 0) + 2;
+			final int wchar = indexOf(buffer, (byte) ':', rchar) + 2;
+			if (rchar > 1 && wchar > 1)
+			{
+				readBytes = number(buffer, rchar);
+				writtenBytes = number(buffer, wchar);
+			}
+		}
+
+		// the pid may have been reaped and reused by an unrelated process while we were reading
+		if (!child.process.isAlive())
+		{
+			return null;
+		}
+
+		final long cpuNanos = ticks * SingletonHolder.NANOS_PER_TICK;
+		final double cpuPercent = child.lastNanos == 0 ? 0 : (cpuNanos - child.lastCpuNanos) * 100.0 / (now - child.lastNanos);
+		child.lastNanos = now;
+		child.lastCpuNanos = cpuNanos;
+		return new ProcessSample(child.process.getPid(), now, cpuPercent, cpuNanos, residentPages * SingletonHolder.PAGE_SIZE,
+		                         virtualPages * SingletonHolder.PAGE_SIZE, threads, readBytes, writtenBytes);
+	}
+
+	private void publish(final ProcessSample sample)
+	{
+		for (Consumer<? super ProcessSample> subscriber : subscribers)
+		{
+			try
+			{
+				subscriber.accept(sample);
+			}
+			catch (RuntimeException e)
+			{
+				logger.warn("Sample subscriber failed.", e);
+			}
+		}
+	}
+
+	/**
+	 * Parses the decimal number at the position, stopping at the first character that is not a digit.
+	 */
+	private static long number(final ByteBuffer buffer, final int position)
+	{
+		long value = 0;
+		boolean negative = false;
+		for (int i = position; i < buffer.limit(); i++)
+		{
+			final byte b = buffer.get(i);
+			if (b == '-' && i == position)
+			{
+				negative = true;
+			}
+			else if (b >= '0' && b <= '9')
+			{
+				value = value * 10 + (b - '0');
+			}
+			else
+			{
+				break;
+			}
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * @return the position of the field after the one at the position
+	 */
+	private static int nextField(final ByteBuffer buffer, final int position)
+	{
+		int i = position;
+		while (i < buffer.limit() && buffer.get(i) != ' ' && buffer.get(i) != '\n')
+		{
+			i++;
+		}
+		while (i < buffer.limit() && (buffer.get(i) == ' ' || buffer.get(i) == '\n'))
+		{
+			i++;
+		}
+		return i;
+	}
+
+	private static int indexOf(final ByteBuffer buffer, final byte b, final int from)
+	{
+		for (int i = from; i < buffer.limit(); i++)
+		{
+			if (buffer.get(i) == b)
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int lastIndexOf(final ByteBuffer buffer, final byte b)
+	{
+		for (int i = buffer.limit() - 1; i >= 0; i--)
+		{
+			if (buffer.get(i) == b)
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static final class Child
+	{
+		private final EnhancedProcess process;
+		private final byte[] stat;
+		private final byte[] statm;
+		private final byte[] io;
+		// only touched on the sampler thread
+		private long lastNanos;
+		private long lastCpuNanos;
+		private volatile ProcessSample latest;
+
+		private Child(final EnhancedProcess process)
+		{
+			this.process = process;
+			this.stat = path(process, "stat");
+			this.statm = path(process, "statm");
+			this.io = path(process, "io");
+		}
+
+		private static byte[] path(final EnhancedProcess process, final String file)
+		{
+			return ("/proc/" + process.getPid() + "/" + file + "\0").getBytes(StandardCharsets.US_ASCII);
+		}
+	}
+}
@@ -0,0 +1,28 @@
+package io.bunting.prochelp;
+
+/**
+ * The Linux scheduling policies a child can be given without privileges, see
+ * {@link EnhancedProcessBuilder#schedulingPolicy(SchedulingPolicy)}.
+ */
+public enum SchedulingPolicy
+{
+	/**
+	 * The default time sharing policy, {@code SCHED_OTHER}.
+	 */
+	NORMAL(0),
+	/**
+	 * {@code SCHED_BATCH}, for CPU bound work that does not mind being woken up late.
+	 */
+	BATCH(3),
+	/**
+	 * {@code SCHED_IDLE}, for work that should only run when nothing else wants the CPU.
+	 */
+	IDLE(5);
+
+	final int value;
+
+	SchedulingPolicy(final int value)
+	{
+		this.value = value;
+	}
+}
@@ -0,0 +1,67 @@
+package io.bunting.prochelp;
+
+import java.util.List;
+
+import jnr.posix.SpawnFileAction;
+
+/**
+ * Decides how children are physically created.
+ *
+ * The default spawns them straight from this JVM. {@link #forkServer()} instead hands every request to a small helper process that is
+ * started once, so the cost of creating a child no longer depends on the size of this JVM. The default can be changed with the system
+ * property {@code io.bunting.prochelp.spawnStrategy} ({@code direct} or {@code forkServer}).
+ */
+public abstract class SpawnStrategy
+{
+	private static final class SingletonHolder
+	{
+		private static final SpawnStrategy DEFAULT = "forkServer".equals(System.getProperty("io.bunting.prochelp.spawnStrategy"))
+		                                             ? forkServer()
+		                                             : direct();
+	}
+
+	SpawnStrategy()
+	{
+	}
+
+	/**
+	 * @return the strategy used by builders that do not choose one
+	 */
+	public static SpawnStrategy defaultStrategy()
+	{
+		return SingletonHolder.DEFAULT;
+	}
+
+	/**
+	 * @return the strategy that spawns children straight from this JVM with {@code posix_spawnp}
+	 */
+	public static SpawnStrategy direct()
+	{
+		return DirectSpawnStrategy.INSTANCE;
+	}
+
+	/**
+	 * On Linux the fork server also reaps the descendants whose parent exited before them, so they do not pile up as zombies where init
+	 * does not reap, such as in containers.
+	 *
+	 * @return the strategy that has children spawned by the shared fork server, starting it if necessary
+	 */
+	public static SpawnStrategy forkServer()
+	{
+		return ForkServerSpawnStrategy.INSTANCE;
+	}
+
+	/**
+	 * Creates the child.
+	 *
+	 * @return the pid of the child, or -1 if it could not be started
+	 */
+	abstract long spawn(String executable, List<String> arguments, List<String> environment, List<SpawnFileAction> fileActions,
+	                    ProcessGroupMode processGroup, ChildSettings settings);
+
+	/**
+	 * Starts watching a child created by {@link #spawn(String, List, List, List, ProcessGroupMode, ChildSettings)}, so that its exit is
+	 * recorded on the process.
+	 */
+	abstract void watch(EnhancedProcess process);
+}
@@ -0,0 +1,111 @@
+package io.bunting.prochelp;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * An immutable snapshot of an {@link EnhancedProcessBuilder}, for starting the same command many times.
+ *
+ * The executable is looked up on the {@code PATH} once, when the template is created, and every start reuses the resolved path, the
+ * arguments and the marshalled environment. Only the pipes for the child's streams are set up per start. Later changes to the builder do
+ * not affect the template.
+ */
+public final class SpawnTemplate
+{
+	private final EnhancedProcessOptions options;
+	private final String executable;
+
+	SpawnTemplate(final EnhancedProcessOptions options)
+	{
+		this.options = options.copy();
+		this.executable = resolve(this.options.getCommands().get(0));
+	}
+
+	/**
+	 * @return the absolute path of the executable, or the command as given if it could not be found on the {@code PATH}
+	 */
+	public String executable()
+	{
+		return executable;
+	}
+
+	/**
+	 * @return the command and its arguments, as given to the builder
+	 */
+	public List<String> command()
+	{
+		return options.getCommands();
+	}
+
+	/**
+	 * Starts the command, with the given arguments appended to the template's.
+	 */
+	public EnhancedProcess start(final String ... extraArguments)
+	{
+		return this.start(Arrays.asList(extraArguments));
+	}
+
+	/**
+	 * Starts the command, with the given arguments appended to the template's.
+	 */
+	public EnhancedProcess start(final List<String> extraArguments)
+	{
+		return options.start(executable,
+		                     arguments(extraArguments),
+		                     options.getInputHandler().get(),
+		                     options.getOutputHandler().get(),
+		                     options.getErrorHandler().get());
+	}
+
+	/**
+	 * Like {@link EnhancedProcessBuilder#create(Function)}, with the given arguments appended to the template's.
+	 */
+	public <T> ProcessCallable<T> create(final Function<EnhancedProcess, T> completion, final String ... extraArguments)
+	{
+		final List<String> extra = Arrays.asList(extraArguments);
+		return options.doCreate(completion, () -> this.start(extra));
+	}
+
+	private List<String> arguments(final List<String> extraArguments)
+	{
+		final List<String> commands = options.getCommands();
+		if (extraArguments.isEmpty())
+		{
+			return commands;
+		}
+		final List<String> arguments = new ArrayList<>(commands.size() + extraArguments.size());
+		arguments.addAll(commands);
+		arguments.addAll(extraArguments);
+		return Collections.unmodifiableList(arguments);
+	}
+
+	/**
+	 * Searches the {@code PATH} the way {@code posix_spawnp} would. Commands containing a slash are used as they are.
+	 */
+	private static String resolve(final String command)
+	{
+		if (command.indexOf('/') >= 0)
+		{
+			return command;
+		}
+		final String path = System.getenv("PATH");
+		if (path == null)
+		{
+			return command;
+		}
+		for (String directory : path.split(":"))
+		{
+			// an empty entry means the current directory
+			final File candidate = new File(directory.isEmpty() ? "." : directory, command);
+			if (candidate.isFile() && candidate.canExecute())
+			{
+				return candidate.getAbsolutePath();
+			}
+		}
+		return command;
+	}
+}
@@ -0,0 +1,181 @@
+package io.bunting.prochelp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SelectionKey;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nullable;
+
+import jnr.enxio.channels.NativeDeviceChannel;
+import jnr.posix.POSIX;
+import jnr.posix.SpawnFileAction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drains a child's output on the shared {@link EventLoop} into a fixed size, direct ring buffer, keeping only the last bytes or lines. The
+ * child never blocks on a full pipe, and the memory held per child stays the same however much it writes. The data is read straight into
+ * the ring, and only the tail is copied out once the child has exited.
+ */
+class TailPipeHandler extends DefaultPipeHandler implements Capture
+{
+	private static final Logger logger = LoggerFactory.getLogger(TailPipeHandler.class);
+
+	// bounds the work done per readiness notification so one busy child can not starve the others on the same loop
+	private static final int MAX_READS_PER_WAKEUP = 16;
+
+	private final int maxLines;
+	private final CompletableFuture<Void> completion = new CompletableFuture<>();
+	private final LongAdder transferred = new LongAdder();
+
+	// the fields below are only touched on the loop thread until the completion has completed
+	private final ByteBuffer ring;
+	private boolean wrapped = false;
+	private int fd;
+	private EventLoop.Registration registration;
+
+	private volatile ByteBuffer tail;
+
+	/**
+	 * @param maxBytes the size of the ring
+	 * @param maxLines the most lines to keep, or 0 to keep as many as fit
+	 */
+	TailPipeHandler(final int maxBytes, final int maxLines)
+	{
+		this.ring = ByteBuffer.allocateDirect(maxBytes);
+		this.maxLines = maxLines;
+	}
+
+	@Override
+	public List<SpawnFileAction> init(final POSIX posix, final Stream stream)
+	{
+		if (stream.isParentWriteSide())
+		{
+			throw new IllegalArgumentException("Tails can only receive output, not provide input.");
+		}
+		return super.init(posix, stream);
+	}
+
+	@Override
+	public ByteChannel afterSpawn(final POSIX posix, final Stream stream)
+	{
+		final NativeDeviceChannel channel = (NativeDeviceChannel) super.afterSpawn(posix, stream);
+		fd = channel.getFD();
+		registration = EventLoop.next().register(channel, this::drain);
+		registration.arm(SelectionKey.OP_READ);
+		return null;
+	}
+
+	@Override
+	public CompletableFuture<Void> completion()
+	{
+		return completion;
+	}
+
+	@Override
+	public long transferred()
+	{
+		return transferred.sum();
+	}
+
+	private void drain(final int readyOps)
+	{
+		for (int i = 0; i < MAX_READS_PER_WAKEUP; i++)
+		{
+			if (!ring.hasRemaining())
+			{
+				ring.clear();
+				wrapped = true;
+			}
+			final int n;
+			try
+			{
+				n = Native.read(fd, ring);
+			}
+			catch (IOException e)
+			{
+				logger.warn("Failed to read child output, closing the stream.", e);
+				close();
+				return;
+			}
+			if (n == 0)
+			{
+				registration.arm(SelectionKey.OP_READ);
+				return;
+			}
+			else if (n < 0)
+			{
+				close();
+				return;
+			}
+			transferred.add(n);
+		}
+		registration.arm(SelectionKey.OP_READ);
+	}
+
+	private void close()
+	{
+		registration.close();
+		completion.complete(null);
+	}
+
+	/**
+	 * Copies the tail out of the ring, oldest byte first.
+	 */
+	@Override
+	public void finish()
+	{
+		final int end = ring.position();
+		final int length = wrapped ? ring.capacity() : end;
+		final ByteBuffer result = ByteBuffer.allocate(length);
+		if (wrapped)
+		{
+			final ByteBuffer older = ring.duplicate();
+			older.limit(older.capacity()).position(end);
+			result.put(older);
+		}
+		final ByteBuffer newer = ring.duplicate();
+		newer.flip();
+		result.put(newer);
+		result.flip();
+		if (maxLines > 0)
+		{
+			result.position(startOfLastLines(result, maxLines));
+		}
+		tail = result.slice().asReadOnlyBuffer();
+	}
+
+	@Override
+	public void release()
+	{
+	}
+
+	@Nullable
+	@Override
+	public ByteBuffer buffer()
+	{
+		final ByteBuffer tail = this.tail;
+		return tail == null ? null : tail.duplicate();
+	}
+
+	/**
+	 * @return the index of the first byte of the last {@code lines} lines, where a newline at the very end does not start another line
+	 */
+	static int startOfLastLines(final ByteBuffer buffer, final int lines)
+	{
+		int seen = 0;
+		for (int i = buffer.limit() - 2; i >= buffer.position(); i--)
+		{
+			if (buffer.get(i) == '\n' && ++seen == lines)
+			{
+				return i + 1;
+			}
+		}
+		return buffer.position();
+	}
+}
@@ -0,0 +1,287 @@
+package io.bunting.prochelp;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A hashed timer wheel that runs short tasks after a delay, on a single thread shared by all users.
+ *
+ * Scheduling and cancelling are lock-free and O(1) no matter how many timeouts are pending: new and cancelled timeouts are handed to the
+ * timer thread through queues, and it files them into, or unlinks them from, the buckets of the wheel. Every tick it only looks at one
+ * bucket. Timeouts fire up to one tick late, never early. While nothing is scheduled the thread parks instead of ticking.
+ *
+ * The tasks run on the timer thread, so they must be quick and must not block.
+ */
+final class TimerWheel
+{
+	private static final Logger logger = LoggerFactory.getLogger(TimerWheel.class);
+
+	private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("io.bunting.prochelp.timerTickMillis", 10));
+	private static final int WHEEL_SIZE = 512;
+
+	private static final class SingletonHolder
+	{
+		private static final TimerWheel INSTANCE = new TimerWheel(TICK_NANOS, WHEEL_SIZE);
+	}
+
+	/**
+	 * @return the wheel shared by all processes of this library
+	 */
+	static TimerWheel shared()
+	{
+		return SingletonHolder.INSTANCE;
+	}
+
+	private final long tickNanos;
+	private final Bucket[] wheel;
+	private final int mask;
+	private final long startNanos = System.nanoTime();
+	private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+	private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+	private final Thread thread;
+	private volatile boolean idle = false;
+
+	// the fields below are only touched by the timer thread
+	private long tick = 0;
+	private int pending = 0;
+
+	/**
+	 * @param wheelSize a power of two
+	 */
+	TimerWheel(final long tickNanos, final int wheelSize)
+	{
+		this.tickNanos = tickNanos;
+		this.wheel = new Bucket[wheelSize];
+		for (int i = 0; i < wheelSize; i++)
+		{
+			wheel[i] = new Bucket();
+		}
+		this.mask = wheelSize - 1;
+		this.thread = new Thread(this::run, "moreproc-timer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Runs the task on the timer thread once the delay has elapsed, unless the returned timeout is cancelled first.
+	 */
+	Timeout schedule(final Runnable task, final long delay, final TimeUnit unit)
+	{
+		final Timeout timeout = new Timeout(this, task, System.nanoTime() + unit.toNanos(delay));
+		added.add(timeout);
+		if (idle)
+		{
+			LockSupport.unpark(thread);
+		}
+		return timeout;
+	}
+
+	private void run()
+	{
+		while (true)
+		{
+			try
+			{
+				this.transferCancelled();
+				this.transferAdded();
+				if (pending == 0)
+				{
+					idle = true;
+					if (added.isEmpty())
+					{
+						LockSupport.park(this);
+					}
+					idle = false;
+					// nothing was filed while we slept, so skip the ticks we missed instead of running through them
+					tick = Math.max(tick, (System.nanoTime() - startNanos) / tickNanos);
+					continue;
+				}
+				this.awaitTick();
+				this.transferCancelled();
+				this.transferAdded();
+				this.expire(wheel[(int) (tick & mask)]);
+				tick++;
+			}
+			catch (Throwable e)
+			{
+				logger.error("Unexpected failure in the timer.", e);
+			}
+		}
+	}
+
+	private void awaitTick()
+	{
+		final long deadline = startNanos + (tick + 1) * tickNanos;
+		long remaining;
+		while ((remaining = deadline - System.nanoTime()) > 0)
+		{
+			LockSupport.parkNanos(this, remaining);
+		}
+	}
+
+	private void transferAdded()
+	{
+		Timeout timeout;
+		while ((timeout = added.poll()) != null)
+		{
+			if (timeout.state.get() != Timeout.PENDING)
+			{
+				continue;
+			}
+			// the tick during which the deadline passes, or the current one if it has passed already
+			final long deadlineTick = Math.max(tick, (timeout.deadlineNanos - startNanos + tickNanos - 1) / tickNanos);
+			timeout.rounds = (deadlineTick - tick) / wheel.length;
+			wheel[(int) (deadlineTick & mask)].add(timeout);
+			pending++;
+		}
+	}
+
+	private void transferCancelled()
+	{
+		Timeout timeout;
+		while ((timeout = cancelled.poll()) != null)
+		{
+			// a timeout cancelled before it was filed is simply dropped by transferAdded()
+			if (timeout.bucket != null)
+			{
+				timeout.bucket.remove(timeout);
+				pending--;
+			}
+		}
+	}
+
+	private void expire(final Bucket bucket)
+	{
+		Timeout timeout = bucket.head;
+		while (timeout != null)
+		{
+			final Timeout next = timeout.next;
+			if (timeout.rounds <= 0)
+			{
+				bucket.remove(timeout);
+				pending--;
+				timeout.expire();
+			}
+			else
+			{
+				timeout.rounds--;
+			}
+			timeout = next;
+		}
+	}
+
+	/**
+	 * A scheduled task.
+	 */
+	static final class Timeout
+	{
+		private static final int PENDING = 0;
+		private static final int CANCELLED = 1;
+		private static final int EXPIRED = 2;
+
+		private final TimerWheel wheel;
+		private final Runnable task;
+		private final long deadlineNanos;
+		private final AtomicInteger state = new AtomicInteger(PENDING);
+
+		// the fields below are only touched by the timer thread
+		private long rounds;
+		private Bucket bucket;
+		private Timeout previous;
+		private Timeout next;
+
+		private Timeout(final TimerWheel wheel, final Runnable task, final long deadlineNanos)
+		{
+			this.wheel = wheel;
+			this.task = task;
+			this.deadlineNanos = deadlineNanos;
+		}
+
+		/**
+		 * @return true if the task will not run, false if it already has
+		 */
+		boolean cancel()
+		{
+			if (state.compareAndSet(PENDING, CANCELLED))
+			{
+				wheel.cancelled.add(this);
+				return true;
+			}
+			return state.get() == CANCELLED;
+		}
+
+		boolean isExpired()
+		{
+			return state.get() == EXPIRED;
+		}
+
+		private void expire()
+		{
+			if (state.compareAndSet(PENDING, EXPIRED))
+			{
+				try
+				{
+					task.run();
+				}
+				catch (RuntimeException e)
+				{
+					logger.warn("Timer task failed.", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * An intrusive doubly linked list of timeouts, so cancelled ones are unlinked in constant time.
+	 */
+	private static final class Bucket
+	{
+		private Timeout head;
+		private Timeout tail;
+
+		private void add(final Timeout timeout)
+		{
+			timeout.bucket = this;
+			timeout.previous = tail;
+			timeout.next = null;
+			if (tail == null)
+			{
+				head = timeout;
+			}
+			else
+			{
+				tail.next = timeout;
+			}
+			tail = timeout;
+		}
+
+		private void remove(final Timeout timeout)
+		{
+			if (timeout.previous == null)
+			{
+				head = timeout.next;
+			}
+			else
+			{
+				timeout.previous.next = timeout.next;
+			}
+			if (timeout.next == null)
+			{
+				tail = timeout.previous;
+			}
+			else
+			{
+				timeout.next.previous = timeout.previous;
+			}
+			timeout.bucket = null;
+			timeout.previous = null;
+			timeout.next = null;
+		}
+	}
+}
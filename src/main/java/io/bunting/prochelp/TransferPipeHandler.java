@@ -0,0 +1,266 @@
+package io.bunting.prochelp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nullable;
+
+import jnr.enxio.channels.NativeDeviceChannel;
+import jnr.enxio.channels.NativeSelectorProvider;
+import jnr.posix.POSIX;
+import jnr.posix.SpawnFileAction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drains a child's output into a file, socket or other descriptor on the shared {@link EventLoop}.
+ *
+ * Where possible the data is moved with {@code splice(2)} from the child's pipe straight to the target, so it never leaves the kernel.
+ * {@code sendfile(2)} is no help here, since it can not read from a pipe. If the target can not be spliced to (files opened for appending,
+ * non-Linux platforms) the data is copied through pooled direct buffers instead, and if the target has no descriptor at all it is written
+ * through the channel. The target is never closed.
+ */
+class TransferPipeHandler extends DefaultPipeHandler
+{
+	private static final Logger logger = LoggerFactory.getLogger(TransferPipeHandler.class);
+
+	// bounds the work done per readiness notification so one busy child can not starve the others on the same loop
+	private static final int MAX_TRANSFERS_PER_WAKEUP = 16;
+	private static final long SPLICE_SIZE = 1 << 20;
+	// how long to wait at most before trying a channel without a descriptor again, once it stopped taking data
+	private static final long MAX_BACKOFF_MILLIS = 100;
+
+	private final int targetFd;
+	@Nullable
+	private final WritableByteChannel target;
+	private final BufferPool pool;
+	private final CompletableFuture<Void> completion = new CompletableFuture<>();
+	private final LongAdder transferred = new LongAdder();
+
+	// the fields below are only touched on the loop thread once the child has been spawned
+	private final ByteBuffer pollfd = ByteBuffer.allocateDirect(Native.POLLFD_SIZE).order(ByteOrder.nativeOrder());
+	private boolean splice;
+	private boolean targetMayBlock;
+	private int fd;
+	private EventLoop.Registration registration;
+	private EventLoop.Registration targetRegistration;
+	private Chunk pending;
+	private long backoffMillis = 0;
+
+	/**
+	 * @param targetFd the descriptor to transfer to, or -1 to write through the channel
+	 * @param target the channel to write through when there is no descriptor
+	 */
+	TransferPipeHandler(final int targetFd, @Nullable final WritableByteChannel target)
+	{
+		this(targetFd, target, BufferPool.shared());
+	}
+
+	TransferPipeHandler(final int targetFd, @Nullable final WritableByteChannel target, final BufferPool pool)
+	{
+		this.targetFd = targetFd;
+		this.target = target;
+		this.pool = pool;
+		this.splice = targetFd >= 0;
+	}
+
+	@Override
+	public List<SpawnFileAction> init(final POSIX posix, final Stream stream)
+	{
+		if (stream.isParentWriteSide())
+		{
+			throw new IllegalArgumentException("Channels can only receive output, not provide input.");
+		}
+		return super.init(posix, stream);
+	}
+
+	@Override
+	public ByteChannel afterSpawn(final POSIX posix, final Stream stream)
+	{
+		final NativeDeviceChannel channel = (NativeDeviceChannel) super.afterSpawn(posix, stream);
+		fd = channel.getFD();
+		// regular files are always writable, so there is no point in asking
+		targetMayBlock = targetFd >= 0 && !posix.fstat(targetFd).isFile();
+		registration = EventLoop.next().register(channel, this::transfer);
+		registration.arm(SelectionKey.OP_READ);
+		return null;
+	}
+
+	@Override
+	public CompletableFuture<Void> completion()
+	{
+		return completion;
+	}
+
+	@Override
+	public long transferred()
+	{
+		return transferred.sum();
+	}
+
+	private void transfer(final int readyOps)
+	{
+		try
+		{
+			for (int i = 0; i < MAX_TRANSFERS_PER_WAKEUP; i++)
+			{
+				if (pending != null && !flush())
+				{
+					awaitTarget();
+					return;
+				}
+				final long n = splice ? Native.splice(fd, targetFd, SPLICE_SIZE) : read();
+				if (n == Native.SPLICE_UNSUPPORTED)
+				{
+					logger.debug("Can not splice to descriptor {}, copying instead.", targetFd);
+					splice = false;
+				}
+				else if (n == 0)
+				{
+					if (splice && targetMayBlock && !targetWritable())
+					{
+						awaitTarget();
+					}
+					else
+					{
+						registration.arm(SelectionKey.OP_READ);
+					}
+					return;
+				}
+				else if (n < 0)
+				{
+					finish();
+					return;
+				}
+				else
+				{
+					transferred.add(n);
+				}
+			}
+			if (pending != null && !flush())
+			{
+				awaitTarget();
+				return;
+			}
+			registration.arm(SelectionKey.OP_READ);
+		}
+		catch (IOException e)
+		{
+			logger.warn("Failed to transfer child output, closing the stream.", e);
+			if (pending != null)
+			{
+				pending.release();
+				pending = null;
+			}
+			finish();
+		}
+	}
+
+	/**
+	 * Reads the next chunk from the child into {@link #pending}.
+	 */
+	private long read() throws IOException
+	{
+		final Chunk chunk = pool.acquire();
+		final int n = Native.read(fd, chunk.buffer());
+		if (n <= 0)
+		{
+			chunk.release();
+			return n;
+		}
+		chunk.buffer().flip();
+		pending = chunk;
+		return n;
+	}
+
+	/**
+	 * Writes as much of {@link #pending} as the target currently accepts.
+	 *
+	 * @return true once the whole chunk has been written
+	 */
+	private boolean flush() throws IOException
+	{
+		final ByteBuffer buffer = pending.buffer();
+		int n;
+		do
+		{
+			n = targetFd >= 0 ? Native.write(targetFd, buffer) : target.write(buffer);
+		}
+		while (n > 0 && buffer.hasRemaining());
+		if (buffer.hasRemaining())
+		{
+			return false;
+		}
+		pending.release();
+		pending = null;
+		backoffMillis = 0;
+		return true;
+	}
+
+	private boolean targetWritable() throws IOException
+	{
+		return Native.poll(targetFd, Native.POLLOUT, 0, pollfd);
+	}
+
+	/**
+	 * Waits for the target to accept more data before transferring again.
+	 */
+	private void awaitTarget() throws IOException
+	{
+		if (targetFd < 0)
+		{
+			// nothing to wait on, so try again after a pause that grows for as long as the channel takes nothing
+			backoffMillis = Math.min(Math.max(1, backoffMillis * 2), MAX_BACKOFF_MILLIS);
+			final EventLoop loop = registration.loop();
+			TimerWheel.shared().schedule(() -> loop.execute(() -> transfer(0)), backoffMillis, TimeUnit.MILLISECONDS);
+			return;
+		}
+		if (targetRegistration == null)
+		{
+			targetRegistration = registration.loop().register(new BorrowedChannel(targetFd), this::transfer);
+		}
+		targetRegistration.arm(SelectionKey.OP_WRITE);
+	}
+
+	private void finish()
+	{
+		registration.close();
+		if (targetRegistration != null)
+		{
+			targetRegistration.close();
+		}
+		completion.complete(null);
+	}
+
+	/**
+	 * Lets the selector watch a descriptor owned by someone else, without changing its blocking mode or closing it.
+	 */
+	private static final class BorrowedChannel extends NativeDeviceChannel
+	{
+		BorrowedChannel(final int fd) throws IOException
+		{
+			super(NativeSelectorProvider.getInstance(), fd, SelectionKey.OP_WRITE);
+			// only flips the flag the selector checks, see below
+			configureBlocking(false);
+		}
+
+		@Override
+		protected void implConfigureBlocking(final boolean block)
+		{
+		}
+
+		@Override
+		protected void implCloseSelectableChannel()
+		{
+		}
+	}
+}
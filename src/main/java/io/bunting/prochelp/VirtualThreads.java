@@ -0,0 +1,17 @@
+package io.bunting.prochelp;
+
+/**
+ * Tells whether the current thread is a virtual one. There are none before Java 21; the multi-release jar carries a copy of this class for
+ * Java 21 and later that asks the thread.
+ */
+final class VirtualThreads
+{
+	private VirtualThreads()
+	{
+	}
+
+	static boolean isVirtual()
+	{
+		return false;
+	}
+}
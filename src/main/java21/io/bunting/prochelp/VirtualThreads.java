@@ -0,0 +1,16 @@
+package io.bunting.prochelp;
+
+/**
+ * Tells whether the current thread is a virtual one. This is the Java 21 copy of the class in the multi-release jar.
+ */
+final class VirtualThreads
+{
+	private VirtualThreads()
+	{
+	}
+
+	static boolean isVirtual()
+	{
+		return Thread.currentThread().isVirtual();
+	}
+}
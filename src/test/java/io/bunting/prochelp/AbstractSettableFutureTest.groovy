@@ -2,9 +2,14 @@ package io.bunting.prochelp
 
 import spock.lang.Specification
 
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
 import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReference
 
 /**
  * TODO: Document this class
@@ -112,4 +117,127 @@ class AbstractSettableFutureTest extends Specification
 			ExecutionException e = thrown()
 			e.getCause() instanceof IllegalArgumentException
 	}
+
+	def "racing computations compute exactly once and release every waiter"()
+	{
+		given: "a future that is slow to compute"
+			def computations = new AtomicInteger()
+			def uut = new AbstractSettableFuture<String>() {
+				@Override
+				protected String computeValue() throws Exception {
+					computations.incrementAndGet()
+					Thread.sleep(100)
+					return "result"
+				}
+			}
+			def pool = Executors.newFixedThreadPool(16)
+			def start = new CountDownLatch(1)
+		when: "some threads compute while others wait"
+			def failures = new AtomicInteger()
+			def results = (0..<16).collect { i ->
+				pool.submit({
+					start.await()
+					if (i % 4 == 0)
+					{
+						try
+						{
+							uut.doCompute()
+						}
+						catch (IllegalStateException e)
+						{
+							failures.incrementAndGet()
+						}
+					}
+					return uut.get(5, TimeUnit.SECONDS)
+				} as Callable<String>)
+			}
+			start.countDown()
+		then:
+			results.every { it.get() == "result" }
+			computations.get() == 1
+			failures.get() == 3
+		cleanup:
+			pool.shutdown()
+	}
+
+	def "callbacks run on the completing thread, or right away once done"()
+	{
+		given: "a future"
+			def uut = new AbstractSettableFuture<String>() {
+				@Override
+				protected String computeValue() throws Exception {
+					return "result"
+				}
+			}
+			def seen = []
+		when: "a callback is registered before the value is computed"
+			uut.whenComplete({ value, failure -> seen << [value, failure, Thread.currentThread().name] })
+		then: "it does not run yet"
+			seen.isEmpty()
+		when: "the value is computed on another thread"
+			def thread = new Thread({ uut.doCompute() }, "completer")
+			thread.start()
+			thread.join()
+		then: "the callback ran on that thread"
+			seen == [["result", null, "completer"]]
+		when: "a callback is registered afterwards"
+			uut.whenComplete({ value, failure -> seen << [value, failure, Thread.currentThread().name] })
+		then: "it runs right away on the registering thread"
+			seen[1] == ["result", null, Thread.currentThread().name]
+	}
+
+	def "callbacks receive the failure and can not break the computation"()
+	{
+		given: "a failing future"
+			def uut = new AbstractSettableFuture<String>() {
+				@Override
+				protected String computeValue() throws Exception {
+					throw new RuntimeException("I failed!")
+				}
+			}
+			Throwable seen = null
+			uut.whenComplete({ value, failure -> throw new IllegalStateException("callback failed") })
+			uut.whenComplete({ value, failure -> seen = failure })
+		when:
+			uut.doCompute()
+		then:
+			seen.message == "I failed!"
+			uut.isDone()
+	}
+
+	def "a callback that throws an error neither fails the value nor strands the waiters"()
+	{
+		given: "a future with a parked waiter"
+			def uut = new AbstractSettableFuture<String>() {
+				@Override
+				protected String computeValue() throws Exception {
+					return "result"
+				}
+			}
+			def result = new AtomicReference<Object>()
+			def waiter = new Thread({
+				try
+				{
+					result.set(uut.get())
+				}
+				catch (Throwable e)
+				{
+					result.set(e)
+				}
+			})
+			waiter.start()
+			while (waiter.state != Thread.State.WAITING)
+			{
+				Thread.sleep(10)
+			}
+		and: "a callback pushed after it, so it runs before the waiter is released"
+			uut.whenComplete({ value, failure -> throw new AssertionError("boom") })
+		when:
+			uut.doCompute()
+			waiter.join(5000)
+		then: "the waiter got the value"
+			!waiter.isAlive()
+			result.get() == "result"
+			uut.get() == "result"
+	}
 }
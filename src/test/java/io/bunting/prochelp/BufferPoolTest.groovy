@@ -0,0 +1,70 @@
+package io.bunting.prochelp
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+import spock.lang.Specification
+
+/**
+ * TODO: Document this class
+ */
+class BufferPoolTest extends Specification
+{
+	def "released chunks are reused"()
+	{
+		given: "a pool"
+			def uut = new BufferPool(16, 2)
+		when: "a chunk is acquired, filled and released"
+			def chunk = uut.acquire()
+			chunk.buffer().put((byte) 1).flip()
+			chunk.release()
+		then: "the next acquire hands out the same, cleared chunk"
+			def again = uut.acquire()
+			again.is(chunk)
+			again.buffer().position() == 0
+			again.buffer().remaining() == 16
+			again.buffer().isDirect()
+	}
+
+	def "pool grows on demand but only retains its capacity"()
+	{
+		given: "a pool"
+			def uut = new BufferPool(16, 1)
+		when: "more chunks than the capacity are in use at once"
+			def first = uut.acquire()
+			def second = uut.acquire()
+		then: "they are distinct"
+			!first.is(second)
+		when: "both are released, twice"
+			first.release()
+			second.release()
+			second.release()
+		then: "only the first is kept"
+			uut.acquire().is(first)
+			!uut.acquire().is(second)
+	}
+
+	def "a chunk released by racing threads is pooled once"()
+	{
+		given: "a pool and threads that release the same chunks at once"
+			def uut = new BufferPool(16, 10000)
+			def chunks = (1..10000).collect { uut.acquire() }
+			def threads = 4
+			def start = new CountDownLatch(1)
+			def executor = Executors.newFixedThreadPool(threads)
+		when: "each of them releases every chunk"
+			def done = (1..threads).collect {
+				executor.submit {
+					start.await()
+					chunks.each { it.release() }
+				}
+			}
+			start.countDown()
+			done.each { it.get(10, TimeUnit.SECONDS) }
+		then: "the pool hands each chunk out once"
+			(1..10000).collect { System.identityHashCode(uut.acquire()) }.unique().size() == 10000
+		cleanup:
+			executor.shutdown()
+	}
+}
@@ -6,12 +6,23 @@ import spock.lang.Ignore
 import spock.lang.Specification
 import spock.lang.Unroll
 
+import java.nio.ByteBuffer
+import java.nio.channels.Channels
+import java.nio.channels.ServerSocketChannel
+import java.nio.channels.SocketChannel
+import java.nio.channels.WritableByteChannel
 import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Paths
 import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
 import java.util.concurrent.Executors
 import java.util.concurrent.Future
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
 import java.util.function.Function
 
 /**
@@ -165,6 +176,84 @@ class EnhancedProcessBuilderTest extends Specification
 			process.waitFor(2, TimeUnit.SECONDS)
 	}
 
+	def "exit of short lived processes is detected without anyone waiting for it"()
+	{
+		given: "a trivial command"
+			def template = new EnhancedProcessBuilder("true").template()
+		when: "it is started many times, and nobody waits for the children"
+			def processes = (1..20).collect { template.start() }
+		then: "each exit is recorded by the reaper"
+			processes.every { it.onExit().get(5, TimeUnit.SECONDS).is(it) }
+			processes.every { !it.isAlive() && it.exitValue() == 0 }
+		and: "soon after the child exited, with a bound loose enough for a loaded machine"
+			processes.every { it.getLifetimeNanos() < TimeUnit.SECONDS.toNanos(1) }
+	}
+
+	def "onExit completes once the process exits"()
+	{
+		given: "a running process"
+			def callable = new EnhancedProcessBuilder(input_script).create({ process -> process.exitValue() })
+			executor.submit(callable)
+			def process = callable.get()
+		when: "we ask to be notified of its exit"
+			def exit = process.onExit()
+		then: "it is not complete yet"
+			!exit.isDone()
+		when: "the process is allowed to finish"
+			process.getOutputStream().close()
+		then: "the future completes with the process"
+			exit.get(5, TimeUnit.SECONDS).is(process)
+			process.exitValue() == 0
+	}
+
+	def "callAsync completes with the result of the completion function"()
+	{
+		given: "several callables"
+			def callables = (1..10).collect { i ->
+				new EnhancedProcessBuilder(script, "arg " + i).create({ process -> IoUtil.getText(process.getInputStream()) })
+			}
+		when: "they are all started asynchronously"
+			def futures = callables.collect { it.callAsync(executor) }
+		then: "each completes with its own output"
+			futures.withIndex().every { future, i -> future.get(5, TimeUnit.SECONDS) == "Hello folks...\nArg arg " + (i + 1) + "\n" }
+		when: "one of them is invoked a second time"
+			callables[0].callAsync()
+		then: "it refuses"
+			thrown IllegalStateException
+	}
+
+	def "whenStarted runs once the process has been started, or has failed to start"()
+	{
+		given: "a callable that is told what to do once started, before it is"
+			def callable = new EnhancedProcessBuilder("true").create({ process -> process.exitValue() })
+			def started = []
+			callable.whenStarted({ process, failure -> started << [process, failure, Thread.currentThread()] })
+		expect: "nothing happens until it is"
+			started.isEmpty()
+		when:
+			def future = callable.callAsync(executor)
+		then: "the action ran on the thread that started it"
+			started.size() == 1
+			started[0][0].is(callable.get())
+			started[0][1] == null
+			started[0][2].is(Thread.currentThread())
+			future.get(5, TimeUnit.SECONDS) == 0
+		when: "an action is added afterwards"
+			callable.whenStarted({ process, failure -> started << [process, failure, Thread.currentThread()] })
+		then: "it runs right away"
+			started.size() == 2
+			started[1][0].is(callable.get())
+		when: "a command can not be started"
+			def failing = new EnhancedProcessBuilder("no-such-command-here").create({ process -> process.exitValue() })
+			def failures = []
+			failing.whenStarted({ process, failure -> failures << [process, failure] })
+			failing.callAsync(executor)
+		then: "the action gets the reason"
+			failures.size() == 1
+			failures[0][0] == null
+			failures[0][1] instanceof RuntimeException
+	}
+
 	def "run a process that requires input"()
 	{
 		expect: "it exists"
@@ -186,6 +275,50 @@ class EnhancedProcessBuilderTest extends Specification
 			output == "Hello folks...\nstuff\n"
 	}
 
+	def "large input and output are streamed completely"()
+	{
+		given: "a large payload"
+			def payload = "a" * (1024 * 1024)
+			def callable = new EnhancedProcessBuilder(input_script).create({ process -> process.exitValue() })
+		when: "it is written to a process that echoes it back"
+			def future = callable.callAsync(executor)
+			def process = callable.get()
+			executor.submit({ process.getOutputStream().withWriter { it.write(payload) } })
+			def output = IoUtil.getText(process.getInputStream())
+		then: "all of it comes back"
+			future.get(10, TimeUnit.SECONDS) == 0
+			output == "Hello folks...\n" + payload + "\n"
+	}
+
+	def "the output of many running children is delivered without a thread per stream"()
+	{
+		given: "the current number of threads"
+			def children = 100
+			def threadsBefore = Thread.activeCount()
+			def received = new CountDownLatch(2 * children)
+			def consumer = { Chunk chunk ->
+				chunk.release()
+				received.countDown()
+			} as ChunkConsumer
+		when: "many children write to both streams and then block reading their input"
+			def processes = (1..children).collect {
+				new EnhancedProcessBuilder("sh", "-c", 'echo out; echo err >&2; exec cat')
+						.redirectOutput(Redirect.to(consumer))
+						.redirectError(Redirect.to(consumer))
+						.template()
+						.start()
+			}
+		then: "the output of all of them arrives while they are still running"
+			received.await(10, TimeUnit.SECONDS)
+			processes.every { it.isAlive() }
+		and: "the thread count did not grow with the number of children"
+			Thread.activeCount() - threadsBefore < 10
+		when:
+			processes.each { it.getOutputStream().close() }
+		then:
+			processes.every { it.waitFor(10, TimeUnit.SECONDS) && it.exitValue() == 0 }
+	}
+
 	@Ignore("This is one of the key usecases, but we need to flesh out basic process builder functionality first.")
 	def "run a process and pass in streams"()
 	{
@@ -207,6 +340,198 @@ class EnhancedProcessBuilderTest extends Specification
 			stderr.toString(StandardCharsets.UTF_8.name()) == "This is error text\n"
 	}
 
+	def "run a process and receive output and error in chunks"()
+	{
+		given: "consumers that collect what they are given"
+			def out = new ByteArrayOutputStream()
+			def err = new ByteArrayOutputStream()
+			def ended = new CountDownLatch(2)
+			def collector = { ByteArrayOutputStream target ->
+				new ChunkConsumer() {
+					void onChunk(Chunk chunk) {
+						def buffer = chunk.buffer()
+						def bytes = new byte[buffer.remaining()]
+						buffer.get(bytes)
+						synchronized (target) { target.write(bytes) }
+						chunk.release()
+					}
+
+					void onEndOfStream() {
+						ended.countDown()
+					}
+				}
+			}
+		when: "i run the process"
+			def callable = new EnhancedProcessBuilder(script, "my arg")
+					.redirectOutput(Redirect.to(collector(out)))
+					.redirectError(Redirect.to(collector(err)))
+					.create({ process -> process.exitValue() })
+			def exitValue = callable.call()
+		then: "the consumers receive all the output"
+			exitValue == 0
+			ended.await(5, TimeUnit.SECONDS)
+			out.toString(StandardCharsets.UTF_8.name()) == "Hello folks...\nArg my arg\n"
+			err.toString(StandardCharsets.UTF_8.name()) == "This is error text\n"
+		and: "the process itself exposes nothing for those streams"
+			callable.get().getInputStream().read() == -1
+			callable.get().getErrorStream().read() == -1
+	}
+
+	def "the last chunks and the end of the stream are delivered before the process completes"()
+	{
+		given: "a consumer that is slow to take the end of the stream"
+			def out = new ByteArrayOutputStream()
+			def ended = new AtomicBoolean()
+			def consumer = new ChunkConsumer() {
+				void onChunk(Chunk chunk) {
+					def buffer = chunk.buffer()
+					def bytes = new byte[buffer.remaining()]
+					buffer.get(bytes)
+					out.write(bytes)
+					chunk.release()
+				}
+
+				void onEndOfStream() {
+					Thread.sleep(200)
+					ended.set(true)
+				}
+			}
+		when: "the completion looks at what was delivered"
+			def delivered = new EnhancedProcessBuilder("printf", "first\\nlast")
+					.redirectOutput(Redirect.to(consumer))
+					.create({ process -> [ended.get(), out.toString(StandardCharsets.UTF_8.name())] })
+					.call()
+		then: "all of it was there"
+			delivered == [true, "first\nlast"]
+	}
+
+	def "chunk consumers can not be used for input"()
+	{
+		when: "a chunk consumer is used for input"
+			new EnhancedProcessBuilder(script).redirectInput(Redirect.to({ chunk -> chunk.release() } as ChunkConsumer)).create({ process -> process.exitValue() }).call()
+		then: "the process fails to start"
+			thrown ExecutionException
+	}
+
+	@Unroll
+	def "run a process and transfer its output into an open #kind channel"()
+	{
+		given: "a channel onto a file"
+			def out = new File(tmpDir, "out")
+			out.write("Initial Text.\n")
+			def stream = new FileOutputStream(out, append)
+		when: "i run the process"
+			def exitValue = new EnhancedProcessBuilder("seq", "1", "200000")
+					.redirectOutput(Redirect.to(stream.getChannel()))
+					.create({ process -> process.exitValue() })
+					.call()
+		then: "all the output has landed by the time the process has exited"
+			exitValue == 0
+			out.getText(StandardCharsets.UTF_8.name()) == prefix + (1..200000).join("\n") + "\n"
+		and: "the channel is left open"
+			stream.getChannel().isOpen()
+		cleanup:
+			stream.close()
+		where:
+			kind        | append | prefix
+			"file"      | false  | ""
+			"appending" | true   | "Initial Text.\n"
+	}
+
+	def "run a process and transfer its output into a socket"()
+	{
+		given: "a connected socket"
+			def server = ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))
+			def client = SocketChannel.open(server.getLocalAddress())
+			def accepted = server.accept()
+			def received = executor.submit({ IoUtil.getText(new InputStreamReader(Channels.newInputStream(accepted))) } as Callable<String>)
+		when: "i run the process"
+			def exitValue = new EnhancedProcessBuilder("seq", "1", "100000")
+					.redirectOutput(Redirect.to(client))
+					.create({ process -> process.exitValue() })
+					.call()
+			client.close()
+		then: "the peer receives all of the output"
+			exitValue == 0
+			received.get(5, TimeUnit.SECONDS) == (1..100000).join("\n") + "\n"
+		cleanup:
+			accepted.close()
+			server.close()
+	}
+
+	def "run a process and transfer its error into a channel without a descriptor"()
+	{
+		given: "a channel that only exists on the heap"
+			def err = new ByteArrayOutputStream()
+		when: "i run the process"
+			def exitValue = new EnhancedProcessBuilder(script, "my arg")
+					.redirectError(Redirect.to(Channels.newChannel(err)))
+					.create({ process -> process.exitValue() })
+					.call()
+		then: "it receives the error output"
+			exitValue == 0
+			err.toString(StandardCharsets.UTF_8.name()) == "This is error text\n"
+	}
+
+	def "a channel without a descriptor that takes nothing for a while is retried with a pause"()
+	{
+		given: "a channel that refuses all writes for 300 ms after the first one"
+			def out = new ByteArrayOutputStream()
+			def attempts = new AtomicLong()
+			def firstAttempt = new AtomicLong()
+			def channel = new WritableByteChannel() {
+				@Override
+				int write(final ByteBuffer src)
+				{
+					attempts.incrementAndGet()
+					firstAttempt.compareAndSet(0, System.nanoTime())
+					if (System.nanoTime() - firstAttempt.get() < TimeUnit.MILLISECONDS.toNanos(300))
+					{
+						return 0
+					}
+					def n = src.remaining()
+					while (src.hasRemaining())
+					{
+						out.write(src.get())
+					}
+					return n
+				}
+
+				@Override
+				boolean isOpen()
+				{
+					return true
+				}
+
+				@Override
+				void close()
+				{
+				}
+			}
+		when:
+			new EnhancedProcessBuilder("echo", "hello")
+					.redirectOutput(Redirect.to(channel))
+					.create({ process -> process.exitValue() })
+					.call()
+		then: "the output arrives without the event loop spinning on the channel"
+			out.toString(StandardCharsets.UTF_8.name()) == "hello\n"
+			attempts.get() < 100
+	}
+
+	def "run a process and transfer its output to a file descriptor"()
+	{
+		given: "an open file"
+			def out = new File(tmpDir, "out")
+			def stream = new FileOutputStream(out)
+		when: "i run the process"
+			def exitValue = new EnhancedProcessBuilder(script, "my arg").redirectOutput(Redirect.to(stream.getFD())).create({ process -> process.exitValue() }).call()
+		then: "it writes to the file"
+			exitValue == 0
+			out.getText(StandardCharsets.UTF_8.name()) == "Hello folks...\nArg my arg\n"
+		cleanup:
+			stream.close()
+	}
+
 	def "run a process and redirect output to file"()
 	{
 		given: "a file"
@@ -268,4 +593,565 @@ class EnhancedProcessBuilderTest extends Specification
 			exitValue == 0
 			callable.get().getInputStream().getText(StandardCharsets.UTF_8.name()) == "Hello folks...\nmy input\n"
 	}
+
+	@Unroll
+	def "children spawned #name read in-memory input larger than a pipe buffer"()
+	{
+		given:
+			def payload = ByteBuffer.allocateDirect(1 << 20)
+			payload.position(16)
+		when:
+			def output = new EnhancedProcessBuilder("sh", "-c", 'readlink /proc/$$/fd/0; wc -c')
+					.spawnStrategy(strategy)
+					.redirectInput(Redirect.from(payload))
+					.redirectOutput(Redirect.PIPE)
+					.create({ process -> IoUtil.getText(process.getInputStream()) + process.getInputBytes() })
+					.call()
+		then:
+			output.startsWith("/memfd:moreproc-stdin")
+			output.endsWith("\n" + (payload.capacity() - 16) + "\n" + (payload.capacity() - 16))
+			payload.position() == 16
+		where:
+			name                     | strategy
+			"directly"               | SpawnStrategy.direct()
+			"through the forkserver" | SpawnStrategy.forkServer()
+	}
+
+	def "in-memory input starts at the position of the buffer"()
+	{
+		given:
+			def payload = ByteBuffer.allocateDirect(16)
+			payload.put("skip hello".bytes).flip().position(5)
+		when:
+			def output = new EnhancedProcessBuilder("cat")
+					.redirectInput(Redirect.from(payload))
+					.redirectOutput(Redirect.PIPE)
+					.create({ process -> IoUtil.getText(process.getInputStream()) })
+					.call()
+		then:
+			output == "hello\n"
+	}
+
+	def "in-memory payloads can not receive output"()
+	{
+		when: "an in-memory payload is used for output"
+			new EnhancedProcessBuilder("true").redirectOutput(Redirect.from("text".bytes)).create({ process -> process.exitValue() }).call()
+		then: "the process fails to start"
+			def e = thrown ExecutionException
+			e.cause instanceof IllegalArgumentException
+	}
+
+	@Unroll
+	def "output of children spawned #name is captured without a pipe"()
+	{
+		when:
+			def process = new EnhancedProcessBuilder("sh", "-c", 'head -c 3000000 /dev/zero | tr "\\0" a; echo done >&2')
+					.spawnStrategy(strategy)
+					.redirectOutput(Redirect.capture())
+					.redirectError(Redirect.capture())
+					.template()
+					.start()
+			process.waitFor()
+			def output = process.getCapturedOutput()
+		then:
+			output.isReadOnly()
+			output.remaining() == 3000000
+			output.get(0) == (byte) 'a'
+			output.get(2999999) == (byte) 'a'
+			process.getOutputBytes() == 3000000
+			StandardCharsets.UTF_8.decode(process.getCapturedError()).toString() == "done\n"
+		where:
+			name                     | strategy
+			"directly"               | SpawnStrategy.direct()
+			"through the forkserver" | SpawnStrategy.forkServer()
+	}
+
+	def "captured output is cut off at the cap"()
+	{
+		when:
+			def process = new EnhancedProcessBuilder("head", "-c", "100000", "/dev/zero")
+					.redirectOutput(Redirect.capture(1000))
+					.template()
+					.start()
+			process.waitFor()
+		then:
+			process.getCapturedOutput().remaining() == 1000
+			process.exitValue() != 0
+		when:
+			process.getCapturedError()
+		then:
+			thrown IllegalStateException
+	}
+
+	def "only the tail of chatty error output is kept"()
+	{
+		when:
+			def process = new EnhancedProcessBuilder("sh", "-c", 'seq 1 100000 >&2; printf "%s" "no newline" >&2; seq 1 1000')
+					.redirectOutput(Redirect.tail(10))
+					.redirectError(Redirect.tailLines(3, 4096))
+					.template()
+					.start()
+			process.waitFor()
+		then:
+			StandardCharsets.UTF_8.decode(process.getCapturedError()).toString() == "99999\n100000\nno newline"
+			StandardCharsets.UTF_8.decode(process.getCapturedOutput()).toString() == "\n999\n1000\n"
+			process.getErrorBytes() == 588895 + 10
+	}
+
+	def "the exit is reported while a descendant still holds the output open"()
+	{
+		given:
+			def process = new EnhancedProcessBuilder("sh", "-c", 'sleep 20 & echo hi')
+					.processGroup(ProcessGroupMode.GROUP)
+					.redirectOutput(Redirect.tail(100))
+					.template()
+					.start()
+		when:
+			def exited = process.waitFor(5, TimeUnit.SECONDS)
+		then:
+			exited
+			process.exitValue() == 0
+			process.onExit().get(5, TimeUnit.SECONDS) == process
+			!process.onDrained().isDone()
+		when: "the descendant goes away"
+			process.destroyTree()
+		then: "the output is drained"
+			process.onDrained().get(5, TimeUnit.SECONDS) == process
+			StandardCharsets.UTF_8.decode(process.getCapturedOutput()).toString() == "hi\n"
+	}
+
+	@Unroll
+	def "children spawned #name can merge their error into their output"()
+	{
+		when:
+			def output = new EnhancedProcessBuilder("sh", "-c", 'echo out; echo err >&2; echo again')
+					.spawnStrategy(strategy)
+					.redirectOutput(Redirect.PIPE)
+					.redirectErrorStream(true)
+					.create({ process -> IoUtil.getText(process.getInputStream()) + process.getErrorStream().read() })
+					.call()
+		then:
+			output == "out\nerr\nagain\n-1"
+		where:
+			name                     | strategy
+			"directly"               | SpawnStrategy.direct()
+			"through the forkserver" | SpawnStrategy.forkServer()
+	}
+
+	def "merging the error wins over redirecting it, whichever comes last"()
+	{
+		given:
+			def builder = new EnhancedProcessBuilder("sh", "-c", 'echo out; echo err >&2')
+					.redirectOutput(Redirect.PIPE)
+					.redirectErrorStream(true)
+					.redirectError(Redirect.DISCARD)
+			def callable = { b -> b.create({ process -> IoUtil.getText(process.getInputStream()) }).call() }
+		expect:
+			builder.redirectErrorStream()
+			callable(builder) == "out\nerr\n"
+		when: "the merge is turned off"
+			builder.redirectErrorStream(false)
+		then: "the error goes where it was redirected"
+			!builder.redirectErrorStream()
+			callable(builder) == "out\n"
+	}
+
+	@Unroll
+	def "children spawned #name share all standard streams with the JVM when they inherit its I/O"()
+	{
+		given:
+			def jvm = new File("/proc/self").canonicalFile.name
+		when:
+			def exitValue = new EnhancedProcessBuilder("sh", "-c",
+			                                           "for fd in 0 1 2; do [ /proc/\$\$/fd/\$fd -ef /proc/$jvm/fd/\$fd ] || exit \$((fd + 1)); done")
+					.spawnStrategy(strategy)
+					.inheritIO()
+					.create({ process -> process.exitValue() })
+					.call()
+		then:
+			exitValue == 0
+		where:
+			name                     | strategy
+			"directly"               | SpawnStrategy.direct()
+			"through the forkserver" | SpawnStrategy.forkServer()
+	}
+
+	@Unroll
+	def "children spawned #name inherit or discard streams without pipes"()
+	{
+		given:
+			def inherited = Files.readSymbolicLink(Paths.get("/proc/self/fd/0")).toString()
+		when:
+			def output = new EnhancedProcessBuilder("sh", "-c", 'links=$(readlink /proc/$$/fd/0 /proc/$$/fd/1); echo "$links" >&2')
+					.spawnStrategy(strategy)
+					.redirectInput(Redirect.INHERIT)
+					.redirectOutput(Redirect.DISCARD)
+					.redirectError(Redirect.PIPE)
+					.create({ process -> IoUtil.getText(process.getErrorStream()) + process.getInputStream().read() })
+					.call()
+		then:
+			output == inherited + "\n/dev/null\n-1"
+		where:
+			name                     | strategy
+			"directly"               | SpawnStrategy.direct()
+			"through the forkserver" | SpawnStrategy.forkServer()
+	}
+
+	def "children can write more than the default pipe buffer into a larger pipe without blocking"()
+	{
+		when: "the child writes 512 KB that nobody reads yet"
+			def process = new EnhancedProcessBuilder("head", "-c", "524288", "/dev/zero")
+					.redirectOutput(Redirect.pipe(1 << 20))
+					.template()
+					.start()
+		then: "it exits without waiting for a reader"
+			process.waitFor(5, TimeUnit.SECONDS)
+			process.getInputStream().bytes.length == 524288
+	}
+
+	def "output is delivered line by line"()
+	{
+		given:
+			def count = 0
+			def sum = 0L
+			def ended = new CountDownLatch(1)
+			def consumer = new LineConsumer() {
+				@Override
+				void onLine(final Line line)
+				{
+					count++
+					long value = 0
+					for (int i = 0; i < line.byteLength(); i++)
+					{
+						value = value * 10 + line.byteAt(i) - 48
+					}
+					sum += value
+				}
+
+				@Override
+				void onEndOfStream()
+				{
+					ended.countDown()
+				}
+			}
+		when:
+			new EnhancedProcessBuilder("seq", "1", "100000")
+					.redirectOutput(Redirect.toLines(consumer))
+					.create({ process -> process.exitValue() })
+					.call()
+		then:
+			ended.await(5, TimeUnit.SECONDS)
+			count == 100000
+			sum == 5000050000L
+	}
+
+	def "a last line without a newline is delivered before the process completes"()
+	{
+		given:
+			def lines = Collections.synchronizedList([])
+			def consumer = { Line line -> lines << line.toString() } as LineConsumer
+		when: "the completion looks at the lines delivered so far"
+			def delivered = new EnhancedProcessBuilder("printf", "a\\nb\\nlast")
+					.redirectOutput(Redirect.toLines(consumer))
+					.create({ process -> new ArrayList(lines) })
+					.call()
+		then:
+			delivered == ["a", "b", "last"]
+	}
+
+	def "output is only read from the pipe as far as it was requested"()
+	{
+		given:
+			def received = new AtomicLong()
+			def completed = new CountDownLatch(1)
+			Flow.Subscription subscription = null
+			def subscriber = new Flow.Subscriber<ByteBuffer>() {
+				@Override
+				void onSubscribe(final Flow.Subscription s)
+				{
+					subscription = s
+				}
+
+				@Override
+				void onNext(final ByteBuffer item)
+				{
+					received.addAndGet(item.remaining())
+				}
+
+				@Override
+				void onError(final Throwable throwable)
+				{
+				}
+
+				@Override
+				void onComplete()
+				{
+					completed.countDown()
+				}
+			}
+		when: "the child writes 1 MB that nobody asked for yet"
+			def process = new EnhancedProcessBuilder("head", "-c", "1048576", "/dev/zero").template().start()
+			process.getOutputPublisher().subscribe(subscriber)
+		then: "it blocks on the full pipe"
+			!process.waitFor(500, TimeUnit.MILLISECONDS)
+			received.get() == 0
+		when:
+			subscription.request(Long.MAX_VALUE)
+		then:
+			completed.await(5, TimeUnit.SECONDS)
+			process.waitFor(5, TimeUnit.SECONDS)
+			received.get() == 1048576
+			process.getOutputBytes() == 1048576
+	}
+
+	def "input is written from a publisher as the pipe takes it"()
+	{
+		given:
+			def publisher = new Flow.Publisher<ByteBuffer>() {
+				@Override
+				void subscribe(final Flow.Subscriber<? super ByteBuffer> subscriber)
+				{
+					def sent = 0
+					subscriber.onSubscribe(new Flow.Subscription() {
+						@Override
+						void request(final long n)
+						{
+							for (int i = 0; i < n && sent < 64; i++)
+							{
+								sent++
+								subscriber.onNext(ByteBuffer.allocate(16384))
+							}
+							if (sent == 64)
+							{
+								sent++
+								subscriber.onComplete()
+							}
+						}
+
+						@Override
+						void cancel()
+						{
+						}
+					})
+				}
+			}
+		when:
+			def process = new EnhancedProcessBuilder("wc", "-c").template().start()
+			publisher.subscribe(process.getInputSubscriber())
+		then:
+			process.getInputStream().text.trim() == "1048576"
+			process.waitFor(5, TimeUnit.SECONDS)
+			process.getInputBytes() == 1048576
+	}
+
+	def "only pipes can be published"()
+	{
+		when:
+			def process = new EnhancedProcessBuilder("true").redirectOutput(Redirect.DISCARD).template().start()
+			process.getOutputPublisher()
+		then:
+			thrown(IllegalStateException)
+	}
+
+	def "processes that run past their timeout are terminated"()
+	{
+		when:
+			def process = new EnhancedProcessBuilder("sleep", "30").timeout(100, TimeUnit.MILLISECONDS).template().start()
+		then:
+			process.waitFor(5, TimeUnit.SECONDS)
+			process.exitValue() == 143
+			process.isTimedOut()
+	}
+
+	def "processes that ignore SIGTERM are killed after the grace period"()
+	{
+		when:
+			def process = new EnhancedProcessBuilder("sh", "-c", "trap '' TERM; sleep 30")
+					.timeout(100, TimeUnit.MILLISECONDS)
+					.gracePeriod(200, TimeUnit.MILLISECONDS)
+					.template()
+					.start()
+		then:
+			!process.waitFor(250, TimeUnit.MILLISECONDS)
+			process.waitFor(5, TimeUnit.SECONDS)
+			process.exitValue() == 137
+			process.isTimedOut()
+	}
+
+	def "processes that exit in time are left alone"()
+	{
+		when:
+			def exitValue = new EnhancedProcessBuilder("true").timeout(1, TimeUnit.SECONDS).create({ process -> process.isTimedOut() ? -1 : process.exitValue() }).call()
+		then:
+			exitValue == 0
+	}
+
+	@Unroll
+	def "children spawned #name into a #mode of their own lead it"()
+	{
+		when:
+			def output = new EnhancedProcessBuilder("sh", "-c", 'echo $$ $(cut -d " " -f 5,6 /proc/$$/stat)')
+					.spawnStrategy(strategy)
+					.processGroup(mode)
+					.redirectOutput(Redirect.PIPE)
+					.create({ process -> [process.getPid()] + IoUtil.getText(process.getInputStream()).trim().split(" ").collect { it as long } })
+					.call()
+		then:
+			output[0] == output[1]
+			output[0] == output[2] || mode == ProcessGroupMode.GROUP
+			output[0] == output[3] || mode == ProcessGroupMode.GROUP
+			output[0] != output[3] || mode == ProcessGroupMode.SESSION
+		where:
+			name                     | strategy                   | mode
+			"directly"               | SpawnStrategy.direct()     | ProcessGroupMode.GROUP
+			"directly"               | SpawnStrategy.direct()     | ProcessGroupMode.SESSION
+			"through the forkserver" | SpawnStrategy.forkServer() | ProcessGroupMode.GROUP
+			"through the forkserver" | SpawnStrategy.forkServer() | ProcessGroupMode.SESSION
+	}
+
+	@Unroll
+	def "the whole tree of a child in the #mode process group is destroyed"()
+	{
+		given:
+			def process = new EnhancedProcessBuilder("sh", "-c", 'sleep 30 & echo $!; wait')
+					.processGroup(mode)
+					.redirectOutput(Redirect.PIPE)
+					.template()
+					.start()
+			def grandchild = new BufferedReader(new InputStreamReader(process.getInputStream())).readLine() as long
+		when:
+			process.destroyTree()
+		then:
+			process.exitValue() == 143
+			gone(grandchild)
+		where:
+			mode << [ProcessGroupMode.INHERIT, ProcessGroupMode.GROUP]
+	}
+
+	def "timeouts kill the whole process group"()
+	{
+		given:
+			def process = new EnhancedProcessBuilder("sh", "-c", 'sleep 30 & echo $!; wait')
+					.processGroup(ProcessGroupMode.GROUP)
+					.timeout(100, TimeUnit.MILLISECONDS)
+					.redirectOutput(Redirect.PIPE)
+					.template()
+					.start()
+			def grandchild = new BufferedReader(new InputStreamReader(process.getInputStream())).readLine() as long
+		expect:
+			process.waitFor(5, TimeUnit.SECONDS)
+			process.isTimedOut()
+			gone(grandchild)
+	}
+
+	def "members of a timed out group that ignore SIGTERM are killed after the grace period, even if the leader terminated"()
+	{
+		given:
+			def process = new EnhancedProcessBuilder("sh", "-c", '(trap "" TERM; exec sleep 30) & echo $!; wait')
+					.processGroup(ProcessGroupMode.GROUP)
+					.timeout(100, TimeUnit.MILLISECONDS)
+					.gracePeriod(300, TimeUnit.MILLISECONDS)
+					.redirectOutput(Redirect.PIPE)
+					.template()
+					.start()
+			def grandchild = new BufferedReader(new InputStreamReader(process.getInputStream())).readLine() as long
+		expect: "the leader terminates right away"
+			process.waitFor(5, TimeUnit.SECONDS)
+			process.exitValue() == 143
+		and: "the rest of the group is killed"
+			gone(grandchild)
+	}
+
+	private static boolean gone(final long pid)
+	{
+		def stat = new File("/proc/$pid/stat")
+		for (int i = 0; i < 100; i++)
+		{
+			// orphans are reparented to an init that may never reap them
+			if (!stat.exists() || stat.text.substring(stat.text.lastIndexOf(")") + 2).startsWith("Z"))
+			{
+				return true
+			}
+			Thread.sleep(50)
+		}
+		return false
+	}
+
+	@Unroll
+	def "children spawned #name get their affinity, nice value and policy before they run"()
+	{
+		when:
+			def output = new EnhancedProcessBuilder("sh", "-c", 'grep Cpus_allowed_list /proc/$$/status; cut -d " " -f 19,41 /proc/$$/stat')
+					.spawnStrategy(strategy)
+					.cpuAffinity(0)
+					.nice(5)
+					.schedulingPolicy(SchedulingPolicy.BATCH)
+					.ioPriority(IoPriorityClass.BEST_EFFORT, 6)
+					.redirectOutput(Redirect.PIPE)
+					.create({ process -> IoUtil.getText(process.getInputStream()) })
+					.call()
+		then:
+			output == "Cpus_allowed_list:\t0\n5 3\n"
+		where:
+			name                     | strategy
+			"directly"               | SpawnStrategy.direct()
+			"through the forkserver" | SpawnStrategy.forkServer()
+	}
+
+	@Unroll
+	def "children spawned #name fail with the reason when their settings can not be applied"()
+	{
+		given:
+			def template = new EnhancedProcessBuilder("true")
+					.spawnStrategy(strategy)
+					.cpuAffinity(1000)
+					.template()
+		when:
+			def started = System.nanoTime()
+			template.start()
+		then:
+			def e = thrown(RuntimeException)
+			causes(e).any { it.message?.contains("Failed to set the cpu affinity") }
+			System.nanoTime() - started < TimeUnit.SECONDS.toNanos(10)
+		where:
+			name                     | strategy
+			"directly"               | SpawnStrategy.direct()
+			"through the forkserver" | SpawnStrategy.forkServer()
+	}
+
+	private static List<Throwable> causes(Throwable e)
+	{
+		def causes = []
+		for (; e != null; e = e.cause)
+		{
+			causes << e
+		}
+		return causes
+	}
+
+	def "children are started with their resource limits"()
+	{
+		when:
+			def output = new EnhancedProcessBuilder("sh", "-c", 'ulimit -n; ulimit -t; ulimit -v; echo "$0"')
+					.limit(ResourceLimit.OPEN_FILES, 64)
+					.limit(ResourceLimit.CPU_SECONDS, 100)
+					.limit(ResourceLimit.ADDRESS_SPACE_BYTES, 1L << 32)
+					.redirectOutput(Redirect.PIPE)
+					.create({ process -> IoUtil.getText(process.getInputStream()) })
+					.call()
+		then:
+			output == "64\n100\n4194304\nsh\n"
+	}
+
+	def "invalid scheduling settings are rejected"()
+	{
+		when:
+			new EnhancedProcessBuilder("true").nice(20)
+		then:
+			thrown IllegalArgumentException
+		when:
+			new EnhancedProcessBuilder("true").cpuAffinity()
+		then:
+			thrown IllegalArgumentException
+	}
 }
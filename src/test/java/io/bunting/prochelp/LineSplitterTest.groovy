@@ -0,0 +1,63 @@
+package io.bunting.prochelp
+
+import java.nio.charset.StandardCharsets
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+/**
+ * TODO: Document this class
+ */
+class LineSplitterTest extends Specification
+{
+	@Unroll
+	def "lines are split correctly from chunks of #chunkSize bytes"()
+	{
+		given: "a splitter that collects its lines"
+			def lines = []
+			def ended = false
+			def uut = new LineSplitter(new LineConsumer() {
+				@Override
+				void onLine(final Line line)
+				{
+					lines << line.toString()
+				}
+
+				@Override
+				void onEndOfStream()
+				{
+					ended = true
+				}
+			})
+			def pool = new BufferPool(chunkSize, 4)
+		when: "output with long, empty, windows and non-ascii lines is fed in chunks"
+			def bytes = "first line\n\nsecond\r\nthird with a much longer text than any chunk\nüñïçødé ✓\nno newline".getBytes(StandardCharsets.UTF_8)
+			for (int i = 0; i < bytes.length; i += chunkSize)
+			{
+				def chunk = pool.acquire()
+				chunk.buffer().put(bytes, i, Math.min(chunkSize, bytes.length - i)).flip()
+				uut.onChunk(chunk)
+			}
+			uut.onEndOfStream()
+		then: "every line arrives whole, without its terminator"
+			lines == ["first line", "", "second", "third with a much longer text than any chunk", "üñïçødé ✓", "no newline"]
+			ended
+		where:
+			chunkSize << [1, 3, 7, 64 * 1024]
+	}
+
+	def "lines can be used as text and as bytes without being copied"()
+	{
+		given:
+			def seen = []
+			def uut = new LineSplitter({ line ->
+				seen << [line.length(), line.charAt(1), line.byteLength(), line.byteAt(1), line.bytes().remaining(), line.subSequence(0, 2)]
+			} as LineConsumer)
+			def chunk = new BufferPool(64, 1).acquire()
+			chunk.buffer().put("ab\nüc\n".getBytes(StandardCharsets.UTF_8)).flip()
+		when:
+			uut.onChunk(chunk)
+		then:
+			seen == [[2, 'b' as char, 2, (byte) 'b', 2, "ab"], [2, 'c' as char, 3, (byte) 0xBC, 3, "üc"]]
+	}
+}
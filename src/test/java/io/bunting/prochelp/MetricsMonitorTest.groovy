@@ -0,0 +1,87 @@
+package io.bunting.prochelp
+
+import org.spockframework.util.IoUtil
+import spock.lang.Specification
+
+class MetricsMonitorTest extends Specification
+{
+	def "histograms keep values within a sixteenth of their bucket"()
+	{
+		given:
+			def histogram = new Histogram()
+		when:
+			(1..1000).each { histogram.record(it * 1000L) }
+		then:
+			histogram.count() == 1000
+			histogram.max() == 1000000
+			histogram.mean() == 500500d
+			Math.abs(histogram.percentile(50) - 500000) <= 500000 / 16
+			Math.abs(histogram.percentile(99) - 990000) <= 990000 / 16
+			histogram.percentile(100) == 1000000
+			new Histogram().percentile(50) == 0
+	}
+
+	def "every value maps to a bucket that contains it"()
+	{
+		expect:
+			Histogram.upperBound(Histogram.index(value)) >= value
+			Histogram.index(value) == 0 || Histogram.upperBound(Histogram.index(value) - 1) < value
+		where:
+			value << [0L, 1L, 15L, 16L, 17L, 31L, 32L, 33L, 1000L, 123456789L, Long.MAX_VALUE]
+	}
+
+	def "processes are counted per executable"()
+	{
+		given:
+			def metrics = new MetricsMonitor()
+		when:
+			new EnhancedProcessBuilder("/bin/sh", "-c", "exit 3").monitor(metrics).create({ process -> process.exitValue() }).call()
+			new EnhancedProcessBuilder("sh", "-c", "exit 0").monitor(metrics).create({ process -> process.exitValue() }).call()
+			new EnhancedProcessBuilder("true").monitor(metrics).create({ process -> process.exitValue() }).call()
+		then:
+			metrics.all().keySet() == ["sh", "true"] as Set
+			metrics.get("sh").exitValues() == [0: 1L, 3: 1L]
+			metrics.get("sh").spawnNanos().count() == 2
+			metrics.get("sh").spawnNanos().max() > 0
+			metrics.get("sh").lifetimeNanos().count() == 2
+			metrics.get("sh").maxRssBytes().max() > 0
+			metrics.get("sh").running() == 0
+			metrics.get("true").exitValues() == [0: 1L]
+	}
+
+	def "bytes are counted per stream"()
+	{
+		given:
+			def metrics = new MetricsMonitor()
+			def file = File.createTempFile("metrics", ".txt")
+			file.deleteOnExit()
+		when:
+			def output = new EnhancedProcessBuilder("sh", "-c", "echo hello; echo oops >&2")
+					.redirectOutput(Redirect.PIPE)
+					.redirectError(Redirect.to(new FileOutputStream(file).getChannel()))
+					.monitor(metrics)
+					.create({ process -> IoUtil.getText(process.getInputStream()) })
+					.call()
+		then:
+			output == "hello\n"
+			metrics.get("sh").inputBytes().max() == 0
+			metrics.get("sh").outputBytes().max() == 6
+			metrics.get("sh").errorBytes().max() == 5
+	}
+
+	def "bytes written to the child are counted"()
+	{
+		given:
+			def process = new EnhancedProcessBuilder("cat").redirectInput(Redirect.PIPE).redirectOutput(Redirect.PIPE).template().start()
+		when:
+			process.getOutputStream().withStream { it.write("hello world\n".bytes) }
+			def output = IoUtil.getText(process.getInputStream())
+			process.waitFor()
+		then:
+			output == "hello world\n"
+			process.getInputBytes() == 12
+			process.getOutputBytes() == 12
+			process.getErrorBytes() == 0
+			process.getLifetimeNanos() > 0
+	}
+}
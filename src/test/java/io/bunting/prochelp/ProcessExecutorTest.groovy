@@ -0,0 +1,166 @@
+package io.bunting.prochelp
+
+import spock.lang.Specification
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReference
+
+class ProcessExecutorTest extends Specification
+{
+	def sleeper(String seconds, Closure completion = { it.exitValue() })
+	{
+		return new EnhancedProcessBuilder("sleep", seconds).create(completion)
+	}
+
+	def "no more than the maximum number of children run at once"()
+	{
+		given:
+			def executor = new ProcessExecutorBuilder().maxRunning(2).build()
+			def current = new AtomicInteger()
+			def highest = new AtomicInteger()
+		when:
+			def futures = (1..6).collect {
+				executor.submit(new EnhancedProcessBuilder("sh", "-c", "sleep 0.1").create({ process ->
+					process.exitValue()
+				}))
+			}
+			def samples = []
+			while (!futures.every { it.isDone() })
+			{
+				samples << executor.stats().running()
+				Thread.sleep(5)
+			}
+		then:
+			futures*.get() == [0] * 6
+			samples.max() <= 2
+			executor.stats().completed() == 6
+			executor.stats().started() == 6
+			executor.stats().running() == 0
+			executor.stats().queued() == 0
+	}
+
+	def "the descriptor budget bounds the running children"()
+	{
+		given:
+			def executor = new ProcessExecutorBuilder().maxRunning(10).maxDescriptors(6).build()
+		when:
+			def futures = (1..4).collect { executor.submit(sleeper("0.2")) }
+			Thread.sleep(50)
+			def stats = executor.stats()
+		then:
+			stats.running() == 2
+			stats.descriptors() == 6
+			stats.queued() == 2
+			futures*.get() == [0] * 4
+	}
+
+	def "queued callables with a higher priority start first"()
+	{
+		given:
+			def executor = new ProcessExecutorBuilder().maxRunning(1).build()
+			def order = new ConcurrentLinkedQueue<String>()
+			def blocker = executor.submit(sleeper("0.2"))
+		when:
+			def futures = [["low", 1], ["high", 10], ["middle", 5], ["high again", 10]].collect { name, priority ->
+				executor.submit(new EnhancedProcessBuilder("true").create({ process -> order.add(name) }), priority)
+			}
+			CompletableFuture.allOf(futures as CompletableFuture[]).get(10, TimeUnit.SECONDS)
+		then:
+			blocker.get() == 0
+			order as List == ["high", "high again", "middle", "low"]
+			executor.stats().maxWaitNanos() > 0
+			executor.stats().meanWaitNanos() > 0
+	}
+
+	def "submissions beyond the queue are rejected"()
+	{
+		given:
+			def executor = new ProcessExecutorBuilder().maxRunning(1).maxQueued(1).build()
+		when:
+			def running = executor.submit(sleeper("0.2"))
+			def queued = executor.submit(sleeper("0"))
+			def rejected = executor.submit(sleeper("0"))
+			rejected.get()
+		then:
+			def e = thrown(ExecutionException)
+			e.cause instanceof RejectedExecutionException
+			running.get() == 0
+			queued.get() == 0
+			executor.stats().rejected() == 1
+	}
+
+	def "submissions beyond the queue block until there is room"()
+	{
+		given:
+			def executor = new ProcessExecutorBuilder().maxRunning(1).maxQueued(1).overflowPolicy(ProcessExecutor.OverflowPolicy.BLOCK).build()
+			def running = executor.submit(sleeper("0.3"))
+			def queued = executor.submit(sleeper("0"))
+			def submitted = new CountDownLatch(1)
+		when:
+			def thread = Thread.start {
+				executor.submit(sleeper("0"))
+				submitted.countDown()
+			}
+		then:
+			!submitted.await(100, TimeUnit.MILLISECONDS)
+			submitted.await(5, TimeUnit.SECONDS)
+			running.get() == 0
+			queued.get() == 0
+		cleanup:
+			thread?.join()
+	}
+
+	def "with no queue a blocked submission starts once the running child exits"()
+	{
+		given:
+			def executor = new ProcessExecutorBuilder().maxRunning(1).maxQueued(0).overflowPolicy(ProcessExecutor.OverflowPolicy.BLOCK).build()
+			def running = executor.submit(sleeper("0.3"))
+			def submitted = new CountDownLatch(1)
+			def blocked = new AtomicReference<CompletableFuture<Integer>>()
+		when:
+			def thread = Thread.start {
+				blocked.set(executor.submit(sleeper("0")))
+				submitted.countDown()
+			}
+		then:
+			!submitted.await(100, TimeUnit.MILLISECONDS)
+			submitted.await(5, TimeUnit.SECONDS)
+			running.get() == 0
+			blocked.get().get(5, TimeUnit.SECONDS) == 0
+		cleanup:
+			thread?.join()
+	}
+
+	def "negative bounds are rejected"()
+	{
+		when:
+			configure(new ProcessExecutorBuilder())
+		then:
+			thrown(IllegalArgumentException)
+		where:
+			configure << [
+					{ it.maxQueued(-1) },
+					{ it.maxDescriptors(-1) },
+					{ it.descriptorsPerChild(-1) },
+			]
+	}
+
+	def "submissions after shutdown are rejected"()
+	{
+		given:
+			def executor = new ProcessExecutorBuilder().build()
+			executor.shutdown()
+		when:
+			executor.submit(sleeper("0")).get()
+		then:
+			def e = thrown(ExecutionException)
+			e.cause instanceof RejectedExecutionException
+			executor.isShutdown()
+	}
+}
@@ -0,0 +1,67 @@
+package io.bunting.prochelp
+
+import org.spockframework.util.IoUtil
+import spock.lang.Specification
+
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.TimeUnit
+
+class ProcessPipelineBuilderTest extends Specification
+{
+	def "output flows from stage to stage without passing through the jvm"()
+	{
+		given:
+			def first = new EnhancedProcessBuilder("printf", "c\\nb\\na\\n")
+			def second = new EnhancedProcessBuilder("sort")
+			def third = new EnhancedProcessBuilder("tr", "a-z", "A-Z")
+			third.redirectOutput(Redirect.PIPE)
+		when:
+			def pipeline = new ProcessPipelineBuilder(first, second, third).start()
+			def output = IoUtil.getText(pipeline.getInputStream())
+		then:
+			pipeline.waitFor(5, TimeUnit.SECONDS)
+			output == "A\nB\nC\n"
+			pipeline.exitValue() == 0
+			pipeline.stages().size() == 3
+	}
+
+	def "exit value is the status of the last failed stage"()
+	{
+		given:
+			def pipeline = new ProcessPipelineBuilder(new EnhancedProcessBuilder("sh", "-c", "exit 3"),
+			                                          new EnhancedProcessBuilder("cat")).start()
+		when:
+			def exitValue = pipeline.onExit().get(5, TimeUnit.SECONDS).exitValue()
+		then:
+			exitValue == 3
+			pipeline.exitValues() == [3, 0] as int[]
+			!pipeline.isAlive()
+	}
+
+	def "input of the first stage is fed from the jvm"()
+	{
+		given:
+			def first = new EnhancedProcessBuilder("cat")
+			first.redirectInput(Redirect.PIPE)
+			def second = new EnhancedProcessBuilder("tr", "a-z", "A-Z")
+			second.redirectOutput(Redirect.PIPE)
+			def pipeline = new ProcessPipelineBuilder(first, second).start()
+		when:
+			pipeline.getOutputStream().withStream { it.write("hello\n".getBytes(StandardCharsets.UTF_8)) }
+			def output = IoUtil.getText(pipeline.getInputStream())
+		then:
+			output == "HELLO\n"
+			pipeline.waitFor() == 0
+	}
+
+	def "a stage that can not be started fails the whole pipeline"()
+	{
+		given:
+			def builder = new ProcessPipelineBuilder(new EnhancedProcessBuilder("sleep", "30"),
+			                                         new EnhancedProcessBuilder("no-such-command-here"))
+		when:
+			builder.start()
+		then:
+			thrown RuntimeException
+	}
+}
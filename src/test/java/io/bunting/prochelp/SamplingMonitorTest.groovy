@@ -0,0 +1,56 @@
+package io.bunting.prochelp
+
+import spock.lang.Specification
+
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.TimeUnit
+
+class SamplingMonitorTest extends Specification
+{
+	def "running children are sampled until they exit"()
+	{
+		given:
+			def monitor = new SamplingMonitor(20, TimeUnit.MILLISECONDS)
+			def samples = new CopyOnWriteArrayList<ProcessSample>()
+			monitor.subscribe({ sample -> samples.add(sample) })
+			def pid = 0L
+		when:
+			new EnhancedProcessBuilder("sh", "-c", 'i=0; while [ $i -lt 200000 ]; do i=$((i+1)); done')
+					.monitor(monitor)
+					.create({ process -> pid = process.getPid() })
+					.callAsync()
+					.get(10, TimeUnit.SECONDS)
+			def count = samples.size()
+			Thread.sleep(100)
+		then:
+			count > 2
+			samples.size() == count
+			samples.every { it.pid() == pid }
+			samples.every { it.rssBytes() > 0 && it.virtualBytes() >= it.rssBytes() && it.threads() == 1 }
+			samples.any { it.cpuPercent() > 10 }
+			samples.last().cpuNanos() > 0
+			samples.last().readBytes() >= 0
+	}
+
+	def "cancelled subscriptions get no more samples"()
+	{
+		given:
+			def monitor = new SamplingMonitor(10, TimeUnit.MILLISECONDS)
+			def samples = new CopyOnWriteArrayList<ProcessSample>()
+			def subscription = monitor.subscribe({ sample -> samples.add(sample) })
+			def process = new EnhancedProcessBuilder("sleep", "1").template().start()
+		when:
+			monitor.setup(process)
+			Thread.sleep(100)
+			subscription.cancel()
+			def count = samples.size()
+			Thread.sleep(100)
+		then:
+			count > 0
+			samples.size() == count
+			monitor.latest(process).pid() == process.getPid()
+		cleanup:
+			process.destroy()
+			monitor.cleanup(process)
+	}
+}
@@ -0,0 +1,159 @@
+package io.bunting.prochelp
+
+import org.spockframework.util.IoUtil
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.TimeUnit
+import java.util.function.Supplier
+
+class SpawnStrategyTest extends Specification
+{
+	def static script = "src/test/scripts/simple.sh"
+
+	@Unroll
+	def "children spawned #name behave the same"()
+	{
+		given:
+			def builder = new EnhancedProcessBuilder(script, "my arg")
+					.spawnStrategy(strategy)
+					.redirectOutput(Redirect.PIPE)
+					.redirectError(Redirect.PIPE)
+			def output = null
+			def errout = null
+		when:
+			def exitValue = builder.create({ process ->
+				output = IoUtil.getText(process.getInputStream())
+				errout = IoUtil.getText(process.getErrorStream())
+				process.exitValue()
+			}).callAsync().get(10, TimeUnit.SECONDS)
+		then:
+			exitValue == 0
+			output == "Hello folks...\nArg my arg\n"
+			errout == "This is error text\n"
+		where:
+			name                     | strategy
+			"directly"               | SpawnStrategy.direct()
+			"through the forkserver" | SpawnStrategy.forkServer()
+	}
+
+	@Unroll
+	def "the resource usage of children spawned #name is collected when they are reaped"()
+	{
+		given:
+			def process = new EnhancedProcessBuilder("sh", "-c", 'sleep 0.5; i=0; while [ $i -lt 20000 ]; do i=$((i+1)); done')
+					.spawnStrategy(strategy)
+					.template()
+					.start()
+		when:
+			process.getResourceUsage()
+		then:
+			thrown(IllegalThreadStateException)
+		when:
+			process.waitFor()
+			def usage = process.getResourceUsage()
+		then:
+			usage.cpuNanos() > 0
+			usage.cpuNanos() == usage.userNanos() + usage.systemNanos()
+			usage.maxRssBytes() > 100 * 1024
+			usage.minorFaults() > 0
+		where:
+			name                     | strategy
+			"directly"               | SpawnStrategy.direct()
+			"through the forkserver" | SpawnStrategy.forkServer()
+	}
+
+	def "exit values are relayed by the fork server"()
+	{
+		given:
+			def template = new EnhancedProcessBuilder("sh", "-c").spawnStrategy(SpawnStrategy.forkServer()).template()
+		expect:
+			(0..20).each { i ->
+				assert template.start("exit " + i).waitFor() == i
+			}
+	}
+
+	def "children of the fork server can be signalled through their pid"()
+	{
+		given:
+			def process = new EnhancedProcessBuilder("sleep", "30").spawnStrategy(SpawnStrategy.forkServer()).template().start()
+		when:
+			process.destroy()
+		then:
+			process.exitValue() == 143
+			process.getPid() > 0
+	}
+
+	def "input is passed to children of the fork server"()
+	{
+		given:
+			def process = new EnhancedProcessBuilder("cat")
+					.spawnStrategy(SpawnStrategy.forkServer())
+					.redirectInput(Redirect.PIPE)
+					.redirectOutput(Redirect.PIPE)
+					.template()
+					.start()
+		when:
+			process.getOutputStream().withStream { it.write("hello\n".getBytes(StandardCharsets.UTF_8)) }
+		then:
+			IoUtil.getText(process.getInputStream()) == "hello\n"
+			process.waitFor() == 0
+	}
+
+	def "descendants orphaned under the fork server are reaped by it"()
+	{
+		given:
+			def process = new EnhancedProcessBuilder("sh", "-c", 'sleep 1 & echo $! $PPID')
+					.spawnStrategy(SpawnStrategy.forkServer())
+					.redirectOutput(Redirect.PIPE)
+					.template()
+					.start()
+			def pids = new BufferedReader(new InputStreamReader(process.getInputStream())).readLine().split(" ")*.toLong()
+			process.waitFor()
+		expect: "the orphan is reparented to the fork server rather than to init"
+			parent(pids[0]) == pids[1]
+		and: "it does not linger as a zombie once it exits"
+			reaped(pids[0])
+	}
+
+	private static long parent(final long pid)
+	{
+		def stat = new File("/proc/$pid/stat").text
+		return stat.substring(stat.lastIndexOf(")") + 2).split(" ")[1] as long
+	}
+
+	private static boolean reaped(final long pid)
+	{
+		for (int i = 0; i < 100 && new File("/proc/$pid").exists(); i++)
+		{
+			Thread.sleep(50)
+		}
+		return !new File("/proc/$pid").exists()
+	}
+
+	def "commands the fork server can not start fail"()
+	{
+		when:
+			new EnhancedProcessBuilder("no-such-command-here").spawnStrategy(SpawnStrategy.forkServer()).template().start()
+		then:
+			thrown RuntimeException
+	}
+
+	def "a fork server that can not start fails the spawn right away"()
+	{
+		given: "a helper that can not find its main class"
+			def java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java"
+			def strategy = new ForkServerSpawnStrategy({ -> [java, "-cp", "/no/such/path", ForkServer.name] } as Supplier)
+			def started = System.nanoTime()
+		when:
+			new EnhancedProcessBuilder("true").spawnStrategy(strategy).template().start()
+		then: "it fails well before the reply timeout, saying why"
+			def e = thrown(RuntimeException)
+			TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - started) < 10
+			def cause = e
+			while (cause.cause != null) { cause = cause.cause }
+			cause.message.contains("failed to start")
+			cause.message.contains("/no/such/path")
+	}
+}
@@ -0,0 +1,55 @@
+package io.bunting.prochelp
+
+import org.spockframework.util.IoUtil
+import spock.lang.Specification
+
+class SpawnTemplateTest extends Specification
+{
+	def "the executable is resolved on the path once"()
+	{
+		when:
+			def template = new EnhancedProcessBuilder("echo", "hello").template()
+		then:
+			template.executable().startsWith("/")
+			new File(template.executable()).canExecute()
+			template.command() == ["echo", "hello"]
+	}
+
+	def "commands that can not be found fail when started"()
+	{
+		given:
+			def template = new EnhancedProcessBuilder("no-such-command-here").template()
+		expect:
+			template.executable() == "no-such-command-here"
+		when:
+			template.start()
+		then:
+			thrown RuntimeException
+	}
+
+	def "extra arguments are appended on every start"()
+	{
+		given:
+			def template = new EnhancedProcessBuilder("echo", "hello").redirectOutput(Redirect.PIPE).template()
+		expect:
+			(1..3).each { i ->
+				def process = template.start("run", "$i".toString())
+				assert IoUtil.getText(process.getInputStream()) == "hello run $i\n"
+				assert process.waitFor() == 0
+			}
+	}
+
+	def "changes to the builder do not affect the template"()
+	{
+		given:
+			def builder = new EnhancedProcessBuilder("echo", "hello").redirectOutput(Redirect.PIPE)
+			def template = builder.template()
+			builder.redirectOutput(Redirect.to(new File("/dev/null")))
+		when:
+			def output = template.create({ process -> process.exitValue() }, "world")
+			def process = template.start("again")
+		then:
+			IoUtil.getText(process.getInputStream()) == "hello again\n"
+			output.call() == 0
+	}
+}
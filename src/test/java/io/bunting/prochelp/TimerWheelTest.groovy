@@ -0,0 +1,58 @@
+package io.bunting.prochelp
+
+import spock.lang.Specification
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class TimerWheelTest extends Specification
+{
+	def "timeouts fire in order and never early"()
+	{
+		given:
+			def wheel = new TimerWheel(TimeUnit.MILLISECONDS.toNanos(1), 8)
+			def fired = new ConcurrentHashMap<Integer, Long>()
+			def latch = new CountDownLatch(5)
+			def start = System.nanoTime()
+		when:
+			// delays beyond the 8 ms the wheel covers take several rounds
+			[40, 3, 25, 0, 12].each { delay ->
+				wheel.schedule({ fired.put(delay, System.nanoTime() - start); latch.countDown() }, delay, TimeUnit.MILLISECONDS)
+			}
+		then:
+			latch.await(5, TimeUnit.SECONDS)
+			fired.every { delay, elapsed -> elapsed >= TimeUnit.MILLISECONDS.toNanos(delay) }
+			fired.keySet().sort { fired[it] } == [0, 3, 12, 25, 40]
+	}
+
+	def "cancelled timeouts do not fire"()
+	{
+		given:
+			def wheel = new TimerWheel(TimeUnit.MILLISECONDS.toNanos(1), 8)
+			def fired = Collections.synchronizedList([])
+			def latch = new CountDownLatch(1)
+		when:
+			def cancelled = (1..1000).collect { i -> wheel.schedule({ fired.add(i) }, 500, TimeUnit.MILLISECONDS) }
+			def kept = wheel.schedule({ latch.countDown() }, 600, TimeUnit.MILLISECONDS)
+			cancelled.each { assert it.cancel() }
+		then:
+			latch.await(5, TimeUnit.SECONDS)
+			fired.isEmpty()
+			kept.isExpired()
+			!kept.cancel()
+	}
+
+	def "the wheel wakes up for timeouts scheduled while it is idle"()
+	{
+		given:
+			def wheel = new TimerWheel(TimeUnit.MILLISECONDS.toNanos(1), 8)
+			def latch = new CountDownLatch(2)
+		when:
+			wheel.schedule({ latch.countDown() }, 1, TimeUnit.MILLISECONDS)
+			Thread.sleep(50)
+			wheel.schedule({ latch.countDown() }, 1, TimeUnit.MILLISECONDS)
+		then:
+			latch.await(5, TimeUnit.SECONDS)
+	}
+}
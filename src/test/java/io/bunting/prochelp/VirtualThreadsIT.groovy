@@ -0,0 +1,53 @@
+package io.bunting.prochelp
+
+import org.spockframework.util.IoUtil
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * Runs on Java 21 against the packaged multi-release jar, with a single carrier thread for all virtual threads and no compensation for
+ * blocked ones; see the java21 profile.
+ */
+class VirtualThreadsIT extends Specification
+{
+	def "the Java 21 layer is loaded from the jar"()
+	{
+		given:
+			def virtual = new AtomicBoolean()
+		when:
+			Thread.ofVirtual().start({ virtual.set(VirtualThreads.isVirtual()) } as Runnable).join()
+		then:
+			virtual.get()
+			!VirtualThreads.isVirtual()
+	}
+
+	def "a virtual thread waiting for a child's output leaves its carrier to other virtual threads"()
+	{
+		given:
+			def output = new AtomicReference<String>()
+			def reading = new CountDownLatch(1)
+		when: "a virtual thread reads from a child that takes a while to write"
+			def reader = Thread.ofVirtual().start({
+				def process = new EnhancedProcessBuilder("sh", "-c", "sleep 1; echo hi")
+						.redirectOutput(Redirect.PIPE)
+						.template()
+						.start()
+				reading.countDown()
+				output.set(IoUtil.getText(process.getInputStream()))
+			} as Runnable)
+			reading.await()
+		and: "another virtual thread needs the only carrier meanwhile"
+			def other = Thread.ofVirtual().start({ } as Runnable)
+			other.join(500)
+		then: "it gets it while the reader is still waiting"
+			!other.isAlive()
+			reader.isAlive()
+		when:
+			reader.join(5000)
+		then:
+			output.get() == "hi\n"
+	}
+}